@@ -0,0 +1,22 @@
+package db61b;
+
+import java.io.File;
+import java.io.IOException;
+
+/** Access to the generated tables used by the benchmarks.
+ *  @author Qi Liu
+ */
+class BenchData {
+
+    /** Return the path prefix (the file name without '.db') of the
+     *  generated table NAME for N enrollments, generating the tables
+     *  first if necessary.  Tables are kept in data/N under the current
+     *  directory, so that they are generated only once. */
+    static String table(String name, int n) throws IOException {
+        File dir = new File("data", Integer.toString(n));
+        if (!new File(dir, "enrolled.db").isFile()) {
+            DataGen.generate(dir, n);
+        }
+        return new File(dir, name).getPath();
+    }
+}
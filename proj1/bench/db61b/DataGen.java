@@ -0,0 +1,109 @@
+package db61b;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.Random;
+
+/** Generates students.db, enrolled.db, and schedule.db files shaped like
+ *  those in the testing directory, but with any number of rows.  The
+ *  output depends only on the requested size, so that benchmark runs
+ *  are comparable.
+ *
+ *  For N enrollments, there are N/4 students and N/100 courses (at
+ *  least four).  Each enrollment is of a random student, so that a few
+ *  are duplicates.  Courses are numbered in order of year, and
+ *  enrollments are generated in order of course, so that range
+ *  conditions on CCN or year select runs of consecutive rows.
+ *  @author Qi Liu
+ */
+public class DataGen {
+
+    /** Usage: java db61b.DataGen DIR N.  Write the three tables for N
+     *  enrollments into directory DIR. */
+    public static void main(String... args) throws IOException {
+        if (args.length != 2) {
+            System.err.println("Usage: java db61b.DataGen DIR N");
+            System.exit(1);
+        }
+        generate(new File(args[0]), Integer.parseInt(args[1]));
+    }
+
+    /** Write students.db, enrolled.db, and schedule.db for N enrollments
+     *  into directory DIR, creating it if necessary. */
+    static void generate(File dir, int n) throws IOException {
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException("could not create " + dir);
+        }
+        int students = Math.max(1, n / 4);
+        int courses = Math.max(4, n / 100);
+        Random random = new Random(SEED);
+
+        try (PrintStream out = open(dir, "students")) {
+            out.println("SID,Lastname,Firstname,SemEnter,YearEnter,Major");
+            for (int s = 0; s < students; s += 1) {
+                out.printf("%d,%s,%s,%s,%d,%s%n",
+                           FIRST_SID + s, pick(random, LASTNAMES) + s,
+                           pick(random, FIRSTNAMES), pick(random, SEMESTERS),
+                           FIRST_YEAR + random.nextInt(YEARS),
+                           pick(random, MAJORS));
+            }
+        }
+
+        int[] years = new int[courses];
+        try (PrintStream out = open(dir, "schedule")) {
+            out.println("CCN,Num,Dept,Time,Room,Sem,Year");
+            for (int c = 0; c < courses; c += 1) {
+                years[c] = FIRST_YEAR + (int) ((long) c * YEARS / courses);
+                out.printf("%d,%d%s,%s,%s,%d %s,%s,%d%n",
+                           FIRST_CCN + c, 1 + random.nextInt(199),
+                           pick(random, SUFFIXES), pick(random, MAJORS),
+                           pick(random, TIMES), 1 + random.nextInt(400),
+                           pick(random, BUILDINGS), pick(random, SEMESTERS),
+                           years[c]);
+            }
+        }
+
+        try (PrintStream out = open(dir, "enrolled")) {
+            out.println("SID,CCN,Grade");
+            for (int e = 0; e < n; e += 1) {
+                int course = (int) ((long) e * courses / n);
+                int student = random.nextInt(students);
+                out.printf("%d,%d,%s%n", FIRST_SID + student,
+                           FIRST_CCN + course, pick(random, GRADES));
+            }
+        }
+    }
+
+    /** Return a stream writing the file NAME.db in DIR. */
+    private static PrintStream open(File dir, String name)
+        throws IOException {
+        return new PrintStream(new File(dir, name + ".db"));
+    }
+
+    /** Return a random element of CHOICES chosen with RANDOM. */
+    private static String pick(Random random, String[] choices) {
+        return choices[random.nextInt(choices.length)];
+    }
+
+    /** Seed for all generated data. */
+    private static final long SEED = 61;
+    /** First student ID, course control number, and year. */
+    private static final int FIRST_SID = 100000, FIRST_CCN = 20000,
+        FIRST_YEAR = 2000;
+    /** Number of distinct years. */
+    private static final int YEARS = 20;
+
+    /** Value pools. */
+    private static final String[]
+        LASTNAMES = { "Knowles", "Chan", "Xavier", "Armstrong", "Brown" },
+        FIRSTNAMES = { "Jason", "Valerie", "Jonathan", "Thomas", "Shana",
+                       "Yangfan" },
+        SEMESTERS = { "F", "S" },
+        MAJORS = { "EECS", "Math", "LSUnd", "English" },
+        SUFFIXES = { "", "A", "B", "C" },
+        TIMES = { "9-10MWF", "10-11MWF", "1-2MWF", "2-3MWF",
+                  "10-11:30TTh", "2-3:30TTh" },
+        BUILDINGS = { "Pimentel", "Dwinelle", "VLSB", "Evans", "Tolman" },
+        GRADES = { "A", "A-", "B+", "B", "B-", "C", "P" };
+}
@@ -0,0 +1,70 @@
+package db61b;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Scanner;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/** Benchmarks of two-table joins.  The sizes are smaller than for the
+ *  other benchmarks, since a join may examine every pair of rows.
+ *  @author Qi Liu
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(value = 1, jvmArgsAppend = { "-Xms2g", "-Xmx4g" })
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+public class JoinBench {
+
+    /** Number of enrollments. */
+    @Param({ "1000", "10000", "100000" })
+    public int rows;
+
+    /** Generate (if needed) and load the tables. */
+    @Setup
+    public void setup() throws IOException {
+        _database = new HashMap<String, Table>();
+        for (String name : new String[] { "students", "enrolled",
+                                          "schedule" }) {
+            _database.put(name, Table.readTable(BenchData.table(name, rows)));
+        }
+    }
+
+    /** Join students with their enrollments. */
+    @Benchmark
+    public void joinStudentsEnrolled() {
+        execute("create table result as select Firstname, Lastname, Grade"
+                + " from students, enrolled"
+                + " where students.SID = enrolled.SID;");
+    }
+
+    /** Join enrollments with the courses of one year. */
+    @Benchmark
+    public void joinEnrolledSchedule() {
+        execute("create table result as select SID, Num, Dept"
+                + " from enrolled, schedule"
+                + " where enrolled.CCN = schedule.CCN and Year = '2010';");
+    }
+
+    /** Execute STATEMENT against my database. */
+    private void execute(String statement) {
+        new CommandInterpreter(_database, new Scanner(statement), null)
+            .statement();
+    }
+
+    /** The database of generated tables. */
+    private HashMap<String, Table> _database;
+}
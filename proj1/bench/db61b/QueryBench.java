@@ -0,0 +1,83 @@
+package db61b;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Scanner;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/** Benchmarks of single-table selects with literal conditions.  Each
+ *  statement creates a table from its select clause, so that the
+ *  results are not printed.
+ *  @author Qi Liu
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(value = 1, jvmArgsAppend = { "-Xms4g", "-Xmx8g" })
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class QueryBench {
+
+    /** Number of enrollments. */
+    @Param({ "1000", "100000", "1000000", "10000000" })
+    public int rows;
+
+    /** Generate (if needed) and load the tables. */
+    @Setup
+    public void setup() throws IOException {
+        _database = new HashMap<String, Table>();
+        for (String name : new String[] { "students", "enrolled",
+                                          "schedule" }) {
+            _database.put(name, Table.readTable(BenchData.table(name, rows)));
+        }
+    }
+
+    /** Select the enrollments with a given grade. */
+    @Benchmark
+    public void selectEquality() {
+        execute("create table result as select SID, CCN from enrolled"
+                + " where Grade = 'A';");
+    }
+
+    /** Select the enrollments in a range of courses. */
+    @Benchmark
+    public void selectRange() {
+        execute("create table result as select SID, Grade from enrolled"
+                + " where CCN >= '20100' and CCN < '20110';");
+    }
+
+    /** Select the enrollments in a course that no one takes. */
+    @Benchmark
+    public void selectAbsent() {
+        execute("create table result as select SID from enrolled"
+                + " where CCN = '99999';");
+    }
+
+    /** Select the first few students in name order. */
+    @Benchmark
+    public void selectTopK() {
+        execute("create table result as select SID, Lastname from students"
+                + " order by Lastname limit 10;");
+    }
+
+    /** Execute STATEMENT against my database. */
+    private void execute(String statement) {
+        new CommandInterpreter(_database, new Scanner(statement), null)
+            .statement();
+    }
+
+    /** The database of generated tables. */
+    private HashMap<String, Table> _database;
+}
@@ -0,0 +1,94 @@
+package db61b;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/** Benchmarks of reading, writing, and adding rows to a Table of
+ *  enrollments.
+ *  @author Qi Liu
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(value = 1, jvmArgsAppend = { "-Xms4g", "-Xmx8g" })
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class TableBench {
+
+    /** Number of enrollments. */
+    @Param({ "1000", "100000", "1000000", "10000000" })
+    public int rows;
+
+    /** Generate (if needed) and read the enrollments. */
+    @Setup
+    public void setup() throws IOException {
+        _source = BenchData.table("enrolled", rows);
+        _enrolled = Table.readTable(_source);
+        _rows = new ArrayList<Row>(_enrolled.size());
+        for (Row row : _enrolled) {
+            _rows.add(row);
+        }
+        _target = File.createTempFile("enrolled", "").getPath();
+    }
+
+    /** Remove the files written by writeTable. */
+    @TearDown
+    public void tearDown() {
+        new File(_target).delete();
+        new File(_target + ".db").delete();
+        new File(_target + ".zm").delete();
+    }
+
+    /** Parse enrolled.db into a new Table. */
+    @Benchmark
+    public void readTable(Blackhole sink) {
+        sink.consume(Table.readTable(_source));
+    }
+
+    /** Write all enrollments to a .db file. */
+    @Benchmark
+    public void writeTable() {
+        _enrolled.writeTable(_target);
+    }
+
+    /** Add all enrollments to an empty Table, and then add them all
+     *  again, so that half of the additions are rejected as
+     *  duplicates. */
+    @Benchmark
+    public void addWithDuplicates(Blackhole sink) {
+        Table table = new Table("copy", new String[] { "SID", "CCN",
+                                                        "Grade" });
+        for (Row row : _rows) {
+            table.add(row);
+        }
+        for (Row row : _rows) {
+            sink.consume(table.add(row));
+        }
+        sink.consume(table);
+    }
+
+    /** Path prefix of the generated enrollments file. */
+    private String _source;
+    /** Path prefix of the file written by writeTable. */
+    private String _target;
+    /** The enrollments. */
+    private Table _enrolled;
+    /** The rows of _enrolled. */
+    private ArrayList<Row> _rows;
+}
@@ -0,0 +1,59 @@
+package db61b;
+
+import java.util.Scanner;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/** Benchmark of the Tokenizer on a script of insert statements.
+ *  @author Qi Liu
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class TokenizerBench {
+
+    /** Number of statements in the script. */
+    @Param({ "1000", "100000", "1000000" })
+    public int statements;
+
+    /** Build the script. */
+    @Setup
+    public void setup() {
+        StringBuilder script = new StringBuilder();
+        for (int i = 0; i < statements; i += 1) {
+            script.append(String.format("/* row %d */%n"
+                                        + "insert into enrolled values"
+                                        + " '%d', '%d', 'B+';%n",
+                                        i, 100000 + i, 20000 + i % 997));
+        }
+        _script = script.toString();
+    }
+
+    /** Tokenize the whole script, returning the number of tokens. */
+    @Benchmark
+    public int tokenize() {
+        Tokenizer tokens = new Tokenizer(new Scanner(_script), null);
+        int n = 0;
+        while (!tokens.next().equals("*EOF*")) {
+            n += 1;
+        }
+        return n;
+    }
+
+    /** The script. */
+    private String _script;
+}
@@ -0,0 +1,158 @@
+package db61b;
+
+import java.math.BigDecimal;
+import java.util.List;
+
+import static db61b.Utils.*;
+
+/** An approximate aggregate function of the rows produced by a select
+ *  clause, which yields a single value with a bound on its error.  The
+ *  functions are
+ *
+ *    approx_count(*)           the number of rows,
+ *    approx_distinct(C)        the number of distinct values of column
+ *                              C (see HyperLogLog), and
+ *    approx_quantile(C, Q)     the Q-quantile of the values of column C,
+ *                              which must be numbers (see TDigest).
+ *
+ *  When the select samples its first table (see TableIterator.sample),
+ *  the count is scaled up by the sampling fraction, and its accuracy
+ *  and that of a quantile account for the sampling.  A distinct count
+ *  is of the sampled rows only, since there is no unbiased way to scale
+ *  it up.
+ *  @author Qi Liu
+ */
+class Aggregate {
+
+    /** Return true iff NAME names an aggregate function. */
+    static boolean isFunction(String name) {
+        switch (name) {
+        case "approx_count": case "approx_distinct": case "approx_quantile":
+            return true;
+        default:
+            return false;
+        }
+    }
+
+    /** The aggregate FUNCTION of COLUMN, which is null for approx_count,
+     *  with quantile Q for approx_quantile. */
+    Aggregate(String function, Column column, double q) {
+        if (!isFunction(function)) {
+            throw error("unknown aggregate function: %s", function);
+        }
+        if (q < 0 || q > 1) {
+            throw error("quantile must be between 0 and 1");
+        }
+        _function = function;
+        _column = column;
+        _q = q;
+        _name = column == null ? function : function + "_" + column.name();
+        if (function.equals("approx_distinct")) {
+            _distinct = new HyperLogLog();
+        } else if (function.equals("approx_quantile")) {
+            _digest = new TDigest();
+        }
+    }
+
+    /** Return my displayed name. */
+    String name() {
+        return _name;
+    }
+
+    /** Change my displayed name to NAME. */
+    void addDName(String name) {
+        _name = name;
+    }
+
+    /** Resolve my column, if any, against ITERATORS. */
+    void resolve(List<TableIterator> iterators) {
+        if (_column != null) {
+            _column.resolve(iterators);
+        }
+    }
+
+    /** Include the current rows of the iterators to which I am
+     *  resolved. */
+    void add() {
+        _count += 1;
+        if (_distinct != null) {
+            _distinct.add(_column.value());
+        } else if (_digest != null) {
+            String value = _column.value();
+            try {
+                _digest.add(Double.parseDouble(value));
+            } catch (NumberFormatException e) {
+                throw error("%s requires numbers: '%s'", _function, value);
+            }
+        }
+    }
+
+    /** Return my value, where FRACTION is the fraction of rows
+     *  sampled. */
+    String value(double fraction) {
+        switch (_function) {
+        case "approx_count":
+            return Long.toString(Math.round(_count / fraction));
+        case "approx_distinct":
+            return Long.toString(_distinct.estimate());
+        default:
+            return _count == 0 ? "" : number(_digest.quantile(_q));
+        }
+    }
+
+    /** Return a description of the accuracy of value(FRACTION), where
+     *  FRACTION is the fraction of rows sampled: the standard deviation
+     *  of its error, or for a quantile, a bound on the error in its
+     *  rank. */
+    String accuracy(double fraction) {
+        switch (_function) {
+        case "approx_count":
+            if (fraction == 1) {
+                return "exact";
+            }
+            double rows = Math.sqrt(_count * (1 - fraction)) / fraction;
+            return String.format("+/- %s rows (one standard deviation)",
+                                 number(rows));
+        case "approx_distinct":
+            return String.format("+/- %s%% (one standard deviation)%s",
+                                 number(100 * HyperLogLog.standardError()),
+                                 fraction == 1 ? "" : " of sampled rows");
+        default:
+            if (_count == 0) {
+                return "no values";
+            }
+            String digest =
+                String.format("rank +/- %s%%",
+                              number(100 * _digest.rankError(_q)));
+            if (fraction == 1) {
+                return digest;
+            }
+            double rank = Math.sqrt(_q * (1 - _q) / _count);
+            return String.format("%s, +/- %s%% more from sampling"
+                                 + " (one standard deviation)",
+                                 digest, number(100 * rank));
+        }
+    }
+
+    /** Return X rounded to three decimal places, without trailing
+     *  zeros. */
+    private static String number(double x) {
+        return BigDecimal.valueOf(Math.round(x * 1000) / 1000.0)
+            .stripTrailingZeros().toPlainString();
+    }
+
+    /** Name of my function. */
+    private final String _function;
+    /** My argument, or null. */
+    private final Column _column;
+    /** Quantile, for approx_quantile. */
+    private final double _q;
+    /** Displayed name. */
+    private String _name;
+    /** Number of rows added. */
+    private long _count;
+    /** Sketch of my distinct values, for approx_distinct, or null. */
+    private HyperLogLog _distinct;
+    /** Digest of my values, for approx_quantile, or null. */
+    private TDigest _digest;
+}
@@ -0,0 +1,123 @@
+package db61b;
+
+import static db61b.Utils.*;
+
+/** A Bloom filter over strings: a set representation that may report
+ *  that a string is present when it is not (with a probability that
+ *  depends on its size), but never that a string is absent when it is
+ *  present.  Each filter is sized for a given number of keys at a given
+ *  false-positive rate.
+ *  @author Qi Liu
+ */
+class BloomFilter {
+
+    /** Default false-positive rate for new filters. */
+    static final double DEFAULT_FALSE_POSITIVE_RATE = 0.01;
+
+    /** An empty filter sized to hold CAPACITY keys with a
+     *  false-positive rate of FPP. */
+    BloomFilter(int capacity, double fpp) {
+        _capacity = Math.max(capacity, 1);
+        double bits = -_capacity * Math.log(fpp) / (LN2 * LN2);
+        _numBits = Math.max(64, (long) Math.ceil(bits / 64) * 64);
+        _numHashes = (int) Math.max(1, Math.round(_numBits * LN2
+                                                  / _capacity));
+        _bits = new long[(int) (_numBits / 64)];
+    }
+
+    /** Return the false-positive rate used to size new filters. */
+    static double falsePositiveRate() {
+        return _falsePositiveRate;
+    }
+
+    /** Set the false-positive rate used to size new filters to FPP. */
+    static void setFalsePositiveRate(double fpp) {
+        if (!(fpp > 0.0 && fpp < 1.0)) {
+            throw error("false-positive rate must be between 0 and 1");
+        }
+        _falsePositiveRate = fpp;
+    }
+
+    /** Add VALUE to me. */
+    void add(String value) {
+        long hash = hash(value);
+        int h1 = (int) hash, h2 = (int) (hash >>> 32);
+        for (int i = 0; i < _numHashes; i += 1) {
+            long bit = Math.floorMod(h1 + i * h2, _numBits);
+            _bits[(int) (bit >>> 6)] |= 1L << bit;
+        }
+        _count += 1;
+    }
+
+    /** Return false if VALUE is definitely not in me, and true if it
+     *  may be. */
+    boolean mightContain(String value) {
+        long hash = hash(value);
+        int h1 = (int) hash, h2 = (int) (hash >>> 32);
+        for (int i = 0; i < _numHashes; i += 1) {
+            long bit = Math.floorMod(h1 + i * h2, _numBits);
+            if ((_bits[(int) (bit >>> 6)] & (1L << bit)) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** Return the number of keys added to me. */
+    int count() {
+        return _count;
+    }
+
+    /** Return the number of keys for which I was sized. */
+    int capacity() {
+        return _capacity;
+    }
+
+    /** Return my size in bytes. */
+    long bytes() {
+        return _numBits / 8;
+    }
+
+    /** Return the probability that mightContain returns true for a value
+     *  that was not added, given my current contents. */
+    double expectedFalsePositiveRate() {
+        return Math.pow(1.0 - Math.exp(-(double) _numHashes * _count
+                                       / _numBits), _numHashes);
+    }
+
+    @Override
+    public String toString() {
+        return format("%d keys, %d bits (%d bytes), %d hashes,"
+                      + " %.2f%% false positives expected",
+                      _count, _numBits, bytes(), _numHashes,
+                      100.0 * expectedFalsePositiveRate());
+    }
+
+    /** Return a 64-bit FNV-1a hash of VALUE, whose two halves serve as
+     *  the two independent hashes from which my probe sequence is
+     *  formed. */
+    private static long hash(String value) {
+        long h = 0xcbf29ce484222325L;
+        for (int i = 0; i < value.length(); i += 1) {
+            h ^= value.charAt(i);
+            h *= 0x100000001b3L;
+        }
+        return h ^ (h >>> 29);
+    }
+
+    /** Natural logarithm of 2. */
+    private static final double LN2 = Math.log(2);
+    /** False-positive rate used to size new filters. */
+    private static double _falsePositiveRate = DEFAULT_FALSE_POSITIVE_RATE;
+
+    /** My bits. */
+    private final long[] _bits;
+    /** Number of bits in _bits. */
+    private final long _numBits;
+    /** Number of bits set per key. */
+    private final int _numHashes;
+    /** Number of keys for which I was sized. */
+    private final int _capacity;
+    /** Number of keys added. */
+    private int _count;
+}
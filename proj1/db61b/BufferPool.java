@@ -0,0 +1,221 @@
+package db61b;
+
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+
+import static db61b.Utils.*;
+
+/** A fixed number of in-memory frames, each holding the decoded rows of
+ *  one page of some PagedStore.  A page must be pinned while its frame
+ *  is in use, and unpinned afterwards.  When a page that is not
+ *  resident is pinned and all frames are in use, the frame of the least
+ *  recently used unpinned page is evicted (being written back first if
+ *  it was changed).
+ *  @author Qi Liu
+ */
+class BufferPool {
+
+    /** Default number of frames. */
+    static final int DEFAULT_CAPACITY = 256;
+
+    /** A pool of CAPACITY frames. */
+    BufferPool(int capacity) {
+        setCapacity(capacity);
+    }
+
+    /** Return the number of frames in me. */
+    int capacity() {
+        return _capacity;
+    }
+
+    /** Change my number of frames to CAPACITY, evicting pages as
+     *  needed. */
+    void setCapacity(int capacity) {
+        if (capacity < 1) {
+            throw error("buffer pool needs at least one page");
+        }
+        _capacity = capacity;
+        while (_frames.size() > _capacity) {
+            evict();
+        }
+    }
+
+    /** Pin page #PAGE of STORE, reading it if necessary, and return its
+     *  frame. */
+    Frame pin(PagedStore store, int page) {
+        Frame frame = _frames.get(key(store, page));
+        if (frame != null) {
+            _hits += 1;
+        } else {
+            _misses += 1;
+            frame = install(store, page, store.readPage(page));
+        }
+        frame.pins += 1;
+        _pins += 1;
+        return frame;
+    }
+
+    /** Pin a newly allocated, empty page #PAGE of STORE, and return its
+     *  frame. */
+    Frame pinNew(PagedStore store, int page) {
+        Frame frame = install(store, page, new ArrayList<Row>());
+        frame.dirty = true;
+        frame.pins += 1;
+        _pins += 1;
+        return frame;
+    }
+
+    /** Unpin FRAME, which was changed while pinned iff DIRTY. */
+    void unpin(Frame frame, boolean dirty) {
+        assert frame.pins > 0;
+        frame.pins -= 1;
+        frame.dirty |= dirty;
+        _unpins += 1;
+    }
+
+    /** Write back all changed pages of STORE. */
+    void flush(PagedStore store) {
+        for (Frame frame : _frames.values()) {
+            if (frame.store == store && frame.dirty) {
+                writeBack(frame);
+            }
+        }
+    }
+
+    /** Write back all changed pages of STORE and remove them from me. */
+    void release(PagedStore store) {
+        remove(store, true);
+    }
+
+    /** Remove all pages of STORE from me without writing back their
+     *  changes. */
+    void discard(PagedStore store) {
+        remove(store, false);
+    }
+
+    /** Remove all pages of STORE from me, first writing back those that
+     *  have changed iff WRITEBACK.  None may be pinned. */
+    private void remove(PagedStore store, boolean writeBack) {
+        Iterator<Frame> frames = _frames.values().iterator();
+        while (frames.hasNext()) {
+            Frame frame = frames.next();
+            if (frame.store == store) {
+                if (frame.pins > 0) {
+                    throw error("page %d of %s is still in use",
+                                frame.page, store.fileName());
+                }
+                if (writeBack && frame.dirty) {
+                    writeBack(frame);
+                }
+                frames.remove();
+            }
+        }
+    }
+
+    /** Return the fraction of pins that found their page resident. */
+    double hitRatio() {
+        long total = _hits + _misses;
+        return total == 0 ? 0.0 : (double) _hits / total;
+    }
+
+    /** Print a summary of my contents and activity on OUT. */
+    void report(PrintStream out) {
+        out.printf("Buffer pool: %d/%d pages resident, %d pinned%n",
+                   _frames.size(), _capacity, pinned());
+        out.printf("  %d pins, %d unpins, %d hits, %d misses"
+                   + " (%.1f%% hit ratio)%n",
+                   _pins, _unpins, _hits, _misses, 100.0 * hitRatio());
+        out.printf("  %d evictions, %d pages written%n",
+                   _evictions, _writes);
+    }
+
+    /** Return the number of currently pinned pages. */
+    int pinned() {
+        int n = 0;
+        for (Frame frame : _frames.values()) {
+            if (frame.pins > 0) {
+                n += 1;
+            }
+        }
+        return n;
+    }
+
+    /** Make room for and return a new unpinned frame holding ROWS as page
+     *  #PAGE of STORE. */
+    private Frame install(PagedStore store, int page, List<Row> rows) {
+        while (_frames.size() >= _capacity) {
+            evict();
+        }
+        Frame frame = new Frame(store, page, rows);
+        _frames.put(key(store, page), frame);
+        return frame;
+    }
+
+    /** Evict the least recently used unpinned page. */
+    private void evict() {
+        Iterator<Frame> frames = _frames.values().iterator();
+        while (frames.hasNext()) {
+            Frame frame = frames.next();
+            if (frame.pins == 0) {
+                if (frame.dirty) {
+                    writeBack(frame);
+                }
+                frames.remove();
+                _evictions += 1;
+                return;
+            }
+        }
+        throw error("buffer pool exhausted: all %d pages pinned", _capacity);
+    }
+
+    /** Write FRAME to its page. */
+    private void writeBack(Frame frame) {
+        frame.store.writePage(frame.page, frame.rows);
+        frame.dirty = false;
+        _writes += 1;
+    }
+
+    /** Return the key in _frames for page #PAGE of STORE. */
+    private static long key(PagedStore store, int page) {
+        return ((long) store.id() << 32) | page;
+    }
+
+    /** The frame holding one resident page. */
+    static class Frame {
+        /** A clean, unpinned frame holding ROWS as page #PAGE of
+         *  STORE. */
+        Frame(PagedStore store, int page, List<Row> rows) {
+            this.store = store;
+            this.page = page;
+            this.rows = rows;
+            for (Row row : rows) {
+                bytes += PagedStore.encodedSize(row);
+            }
+        }
+
+        /** Owner of the page. */
+        final PagedStore store;
+        /** Page number within STORE. */
+        final int page;
+        /** The rows on the page, in order. */
+        final List<Row> rows;
+        /** Space used by ROWS when encoded, excluding the page header. */
+        int bytes;
+        /** Number of outstanding pins. */
+        int pins;
+        /** True iff ROWS have changed since the page was read. */
+        boolean dirty;
+    }
+
+    /** Resident frames, keyed by store and page number, from least to
+     *  most recently used. */
+    private LinkedHashMap<Long, Frame> _frames =
+        new LinkedHashMap<Long, Frame>(16, 0.75f, true);
+    /** Maximum number of resident frames. */
+    private int _capacity;
+    /** Activity counters. */
+    private long _pins, _unpins, _hits, _misses, _evictions, _writes;
+}
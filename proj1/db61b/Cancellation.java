@@ -0,0 +1,103 @@
+package db61b;
+
+import static db61b.Utils.*;
+
+/** Limits on the time taken by the current statement, and a way for
+ *  another thread (such as the handler of an interrupt from the
+ *  terminal) to cancel it.
+ *
+ *  The loops that scan and join rows call poll once for each row,
+ *  which costs an addition and a test.  Once every CHECK_ROWS calls,
+ *  poll checks whether the statement has been cancelled or has run past
+ *  its deadline, and if so throws a DBException, abandoning the
+ *  statement.  Since the result of a select is built in a new Table
+ *  that is installed only once the select is complete, an abandoned
+ *  select leaves the database unchanged.  Deletions and updates find
+ *  all their rows before changing any, and so are abandoned only
+ *  before they change anything.  The maintenance of materialized views
+ *  (see View.rowAdded) does not poll, so that a view never misses rows
+ *  added to its base tables.
+ *
+ *  Like Stats, the state is static, so that the loops need no reference
+ *  to the interpreter.
+ *  @author Qi Liu
+ */
+class Cancellation {
+
+    /** Number of rows between checks of the deadline and for
+     *  cancellation.  A power of 2. */
+    static final int CHECK_ROWS = 1 << 12;
+
+    /** Return the greatest time a statement may take in milliseconds, or
+     *  0 if there is no limit. */
+    static long timeout() {
+        return _timeout;
+    }
+
+    /** Limit each statement that begins from now on to MILLIS
+     *  milliseconds, or remove the limit if MILLIS is 0. */
+    static void setTimeout(long millis) {
+        if (millis < 0) {
+            throw error("timeout cannot be negative");
+        }
+        _timeout = millis;
+    }
+
+    /** Start timing a new statement, which has not been cancelled. */
+    static void begin() {
+        _polls = 0;
+        _start = System.nanoTime();
+        _cancelled = false;
+        _running = true;
+    }
+
+    /** Finish the current statement.  Cancellations from now until the
+     *  next statement begins have no effect. */
+    static void end() {
+        _running = false;
+        _cancelled = false;
+    }
+
+    /** Cancel the current statement, if any, so that it is abandoned at
+     *  its next check, and return true; otherwise return false.  May be
+     *  called from any thread. */
+    static boolean cancel() {
+        if (!_running) {
+            return false;
+        }
+        _cancelled = true;
+        return true;
+    }
+
+    /** Record the processing of one row by the current statement,
+     *  checking for cancellation once every CHECK_ROWS rows. */
+    static void poll() {
+        _polls += 1;
+        if ((_polls & (CHECK_ROWS - 1)) == 0) {
+            check();
+        }
+    }
+
+    /** Throw a DBException if the current statement has been cancelled
+     *  or has run out of time. */
+    static void check() {
+        if (_cancelled) {
+            throw error("statement cancelled");
+        }
+        if (_timeout > 0
+            && System.nanoTime() - _start >= _timeout * 1_000_000) {
+            throw error("statement timed out after %d ms", _timeout);
+        }
+    }
+
+    /** Greatest time a statement may take in milliseconds, or 0. */
+    private static long _timeout;
+    /** Number of calls of poll during the current statement. */
+    private static long _polls;
+    /** Value of System.nanoTime() when the current statement began. */
+    private static long _start;
+    /** True iff a statement is being executed. */
+    private static volatile boolean _running;
+    /** True iff the current statement has been cancelled. */
+    private static volatile boolean _cancelled;
+}
@@ -0,0 +1,270 @@
+package db61b;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+
+import static db61b.Utils.*;
+
+/** A cluster of worker processes (db61b programs run with the option
+ *  --worker) on this machine, among which the rows of tables are
+ *  divided by the hash of a chosen column, so that the database may
+ *  hold more rows, and scan them faster, than one process could.
+ *
+ *  The interpreter that starts a cluster (the coordinator) talks to
+ *  each worker over a socket on the loopback interface, sending it
+ *  statements as text and reading back what it prints (see Worker).
+ *
+ *  In the coordinator, a distributed table is represented by an empty
+ *  Table (a stub) with its column titles, against which select clauses
+ *  are parsed and checked as usual.  A select from distributed tables
+ *  is then sent to every worker as a fetch statement, which prints
+ *  each resulting row on a line of its own, and the rows from all the
+ *  workers are merged, ordered, and limited by the coordinator.  A join
+ *  of two distributed tables must equate their partitioning columns, so
+ *  that matching rows are always held by the same worker (the tables
+ *  are co-partitioned), and each worker can join its own parts alone.
+ *  @author Qi Liu
+ */
+class Cluster {
+
+    /** Greatest number of statements sent to a worker at once before
+     *  reading its replies. */
+    static final int BATCH = 1000;
+
+    /** Return the number of my workers, or 0 if I have not been
+     *  started. */
+    int size() {
+        return _workers.size();
+    }
+
+    /** Start N worker processes. */
+    void start(int n) {
+        if (!_workers.isEmpty()) {
+            throw error("cluster already started");
+        }
+        if (n < 1) {
+            throw error("a cluster needs at least one worker");
+        }
+        try {
+            for (int k = 0; k < n; k += 1) {
+                _workers.add(new Worker(k));
+            }
+        } catch (DBException e) {
+            stop();
+            throw e;
+        }
+    }
+
+    /** Stop my workers, if any.  Their parts of distributed tables are
+     *  lost, leaving the stubs of those tables empty. */
+    void stop() {
+        for (Worker worker : _workers) {
+            worker.stop();
+        }
+        _workers.clear();
+        _partitioning.clear();
+    }
+
+    /** Return true iff TABLE is the stub of a distributed table. */
+    boolean isDistributed(Table table) {
+        return _partitioning.containsKey(table);
+    }
+
+    /** Throw a DBException if TABLE is distributed, and so cannot be
+     *  used as the statement beginning with COMMAND requires. */
+    void checkLocal(Table table, String command) {
+        if (isDistributed(table)) {
+            throw error("cannot %s distributed table %s", command,
+                        table.name());
+        }
+    }
+
+    /** Divide the rows of TABLE, named NAME, among my workers by the
+     *  hash of column #COLUMN, replacing any tables of that name they
+     *  hold, and return the stub that now represents it. */
+    Table distribute(String name, Table table, int column) {
+        checkStarted();
+        List<List<String>> inserts = new ArrayList<List<String>>();
+        for (int k = 0; k < _workers.size(); k += 1) {
+            inserts.add(new ArrayList<String>());
+        }
+        for (Row row : table) {
+            inserts.get(workerOf(row.get(column)))
+                .add(Worker.insert(name, row));
+        }
+        String[] titles = new String[table.numColumns()];
+        for (int k = 0; k < titles.length; k += 1) {
+            titles[k] = table.title(k);
+        }
+        String create =
+            String.format("create table %s (%s);", name,
+                          String.join(", ", titles));
+        List<Callable<List<String>>> tasks =
+            new ArrayList<Callable<List<String>>>();
+        for (int k = 0; k < _workers.size(); k += 1) {
+            Worker worker = _workers.get(k);
+            List<String> statements = inserts.get(k);
+            tasks.add(() -> {
+                worker.run(List.of(create));
+                for (int s = 0; s < statements.size(); s += BATCH) {
+                    worker.run(statements.subList(s, Math.min(
+                        s + BATCH, statements.size())));
+                }
+                return null;
+            });
+        }
+        inParallel(tasks);
+        Table stub = new Table(name, titles);
+        _partitioning.put(stub, column);
+        return stub;
+    }
+
+    /** Add ROW to the distributed table whose stub is STUB. */
+    void insert(Table stub, Row row) {
+        int column = _partitioning.get(stub);
+        if (row.size() != stub.numColumns()) {
+            throw error("wrong number of values for %s", stub.name());
+        }
+        _workers.get(workerOf(row.get(column)))
+            .run(List.of(Worker.insert(stub.name(), row)));
+    }
+
+    /** Return a new Table holding all the rows of the distributed table
+     *  whose stub is STUB. */
+    Table gather(Table stub) {
+        String[] titles = new String[stub.numColumns()];
+        for (int k = 0; k < titles.length; k += 1) {
+            titles[k] = stub.title(k);
+        }
+        Table table = new Table(stub.name(), titles);
+        String query = String.format("select %s from %s",
+                                     String.join(", ", titles),
+                                     stub.name());
+        for (Row row : fetch(query)) {
+            table.add(row);
+        }
+        return table;
+    }
+
+    /** Fill TABLE with the result of the select clause whose text is
+     *  QUERY, which selects COLUMNS from the rows of ITERATORS, over
+     *  distributed tables, that satisfy CONDITIONS, in the order given by
+     *  ORDERING, keeping at most LIMIT rows (if LIMIT is not negative),
+     *  as for CommandInterpreter.select.  The clause is run by each
+     *  worker on its own parts of the tables, and the rows they produce
+     *  are merged here.  Rows may only be ordered by selected columns. */
+    void select(String query, Table table, List<Column> columns,
+                List<TableIterator> iterators, List<Condition> conditions,
+                Ordering ordering, int limit) {
+        checkStarted();
+        for (TableIterator it : iterators) {
+            if (!isDistributed(it.table())) {
+                throw error("cannot join local table %s with a distributed"
+                            + " table", it.table().name());
+            }
+        }
+        for (Condition condition : conditions) {
+            if (condition.isMembership()) {
+                throw error("distributed selects cannot use subqueries");
+            }
+        }
+        if (iterators.size() == 2 && !coPartitioned(conditions)) {
+            throw error("distributed tables may only be joined on their"
+                        + " partitioning columns");
+        }
+        int[] sortColumns = new int[ordering.size()];
+        for (int i = 0; i < sortColumns.length; i += 1) {
+            sortColumns[i] = columns.indexOf(ordering.column(i));
+            if (sortColumns[i] == -1) {
+                throw error("distributed selects may only be ordered by"
+                            + " selected columns");
+            }
+        }
+        List<Row> rows = fetch(query);
+        if (ordering.size() == 0) {
+            for (Row row : rows) {
+                if (table.size() == limit) {
+                    break;
+                }
+                table.add(row);
+            }
+            return;
+        }
+        SortedRows sorted = new SortedRows(ordering, limit);
+        for (Row row : rows) {
+            String[] key = new String[sortColumns.length];
+            for (int i = 0; i < key.length; i += 1) {
+                key[i] = row.get(sortColumns[i]);
+            }
+            sorted.add(row, key);
+        }
+        sorted.addTo(table);
+    }
+
+    /** Return the rows printed by all my workers for a fetch of the
+     *  select clause whose text is QUERY, in order of worker. */
+    private List<Row> fetch(String query) {
+        String statement = "fetch " + query + ";";
+        List<Callable<List<String>>> tasks =
+            new ArrayList<Callable<List<String>>>();
+        for (Worker worker : _workers) {
+            tasks.add(() -> worker.run(List.of(statement)));
+        }
+        List<Row> rows = new ArrayList<Row>();
+        for (List<String> lines : inParallel(tasks)) {
+            rows.addAll(Worker.rows(lines));
+        }
+        return rows;
+    }
+
+    /** Return true iff one of CONDITIONS requires the partitioning
+     *  columns of two distributed tables to be equal. */
+    private boolean coPartitioned(List<Condition> conditions) {
+        for (Condition condition : conditions) {
+            Column col1 = condition.column1(), col2 = condition.column2();
+            if (condition.isEquality() && !(col2 instanceof Literal)
+                && col1.source() != col2.source()
+                && col1.index() == _partitioning.get(col1.source().table())
+                && col2.index()
+                   == _partitioning.get(col2.source().table())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /** Return the results of TASKS, one for each worker, run
+     *  concurrently, throwing the first failure, if any. */
+    private static <T> List<T> inParallel(List<Callable<T>> tasks) {
+        List<DBException> failures = new ArrayList<DBException>();
+        List<T> results = Utils.inParallel(tasks, failures);
+        if (!failures.isEmpty()) {
+            throw failures.get(0);
+        }
+        return results;
+    }
+
+    /** Return the number of the worker holding rows whose partitioning
+     *  column has the value VALUE. */
+    private int workerOf(String value) {
+        int h = value.hashCode() * 0x9E3779B9;
+        return Math.floorMod(h ^ (h >>> 16), _workers.size());
+    }
+
+    /** Throw a DBException if I have not been started. */
+    private void checkStarted() {
+        if (_workers.isEmpty()) {
+            throw error("no cluster has been started");
+        }
+    }
+
+    /** My workers, by number. */
+    private final List<Worker> _workers = new ArrayList<Worker>();
+    /** The stubs of distributed tables, with their partitioning
+     *  columns. */
+    private final Map<Table, Integer> _partitioning =
+        new IdentityHashMap<Table, Integer>();
+}
@@ -1,418 +1,1784 @@
-package db61b;
-
-import java.io.PrintStream;
-
-import java.util.ArrayList;
-import java.util.List;
-import java.util.Map;
-import java.util.Scanner;
-
-import static db61b.Utils.*;
-import static db61b.Tokenizer.*;
-
-/** An object that reads and interprets a sequence of commands from an
- *  input source.
- *  @author Qi Liu
- */
-class CommandInterpreter {
-
-    /* STRATEGY.
-     *
-     *   This interpreter parses commands using a technique called
-     * "recursive descent." The idea is simple: we convert the BNF grammar,
-     * as given in the specification document, into a program.
-     *
-     * First, we break up the input into "tokens": strings that correspond
-     * to the "base case" symbols used in the BNF grammar.  These are
-     * keywords, such as "select" or "create"; punctuation and relation
-     * symbols such as ";", ",", ">="; and other names (of columns or tables).
-     * All whitespace and comments get discarded in this process, so that the
-     * rest of the program can deal just with things mentioned in the BNF.
-     * The class Tokenizer performs this breaking-up task, known as
-     * "tokenizing" or "lexical analysis."
-     *
-     * The rest of the parser consists of a set of functions that call each
-     * other (possibly recursively, although that isn't needed for this
-     * particular grammar) to operate on the sequence of tokens, one function
-     * for each BNF rule. Consider a rule such as
-     *
-     *    <create statement> ::= create table <table name> <table definition> ;
-     *
-     * We can treat this as a definition for a function named (say)
-     * createStatement.  The purpose of this function is to consume the
-     * tokens for one create statement from the remaining token sequence,
-     * to perform the required actions, and to return the resulting value,
-     * if any (a create statement has no value, just side-effects, but a
-     * select clause is supposed to produce a table, according to the spec.)
-     *
-     * The body of createStatement is dictated by the right-hand side of the
-     * rule.  For each token (like create), we check that the next item in
-     * the token stream is "create" (and report an error otherwise), and then
-     * advance to the next token.  For a metavariable, like <table definition>,
-     * we consume the tokens for <table definition>, and do whatever is
-     * appropriate with the resulting value.  We do so by calling the
-     * tableDefinition function, which is constructed (as is createStatement)
-     * to do exactly this.
-     *
-     * Thus, the body of createStatement would look like this (_input is
-     * the sequence of tokens):
-     *
-     *    _input.next("create");
-     *    _input.next("table");
-     *    String name = name();
-     *    Table table = tableDefinition();
-     *    _input.next(";");
-     *
-     * plus other code that operates on name and table to perform the function
-     * of the create statement.  The .next method of Tokenizer is set up to
-     * throw an exception (DBException) if the next token does not match its
-     * argument.  Thus, any syntax error will cause an exception, which your
-     * program can catch to do error reporting.
-     *
-     * This leaves the issue of what to do with rules that have alternatives
-     * (the "|" symbol in the BNF grammar).  Fortunately, our grammar has
-     * been written with this problem in mind.  When there are multiple
-     * alternatives, you can always tell which to pick based on the next
-     * unconsumed token.  For example, <table definition> has two alternative
-     * right-hand sides, one of which starts with "(", and one with "as".
-     * So all you have to do is test:
-     *
-     *     if (_input.nextIs("(")) {
-     *          _input.next();
-     *                                   +
-     *         // code to process "<name>,  )"
-     *     } else {
-     *         // code to process "as <select clause>"
-     *     }
-     *
-     * or for convenience,
-     *
-     *     if (_input.nextIf("(")) {
-     *                                   +
-     *         // code to process "<name>,  )"
-     *     } else {
-     *     ...
-     *
-     * combining the calls to .nextIs and .next.
-     *
-     * You can handle the list of <name>s in the preceding in a number
-     * of ways, but personally, I suggest a simple loop:
-     *
-     *     call name() and do something with it;
-     *     while (_input.nextIs(",")) {
-     *         _input.next(",");
-     *         call name() and do something with it;
-     *     }
-     *
-     * or if you prefer even greater concision:
-     *
-     *     call name() and do something with it;
-     *     while (_input.nextIf(",")) {
-     *         call name() and do something with it;
-     *     }
-     *
-     * (You'll have to figure out what do with the names you accumulate, of
-     * course).
-     *
-     */
-
-    /** A new CommandParser executing commands read from INP, writing
-     *  prompts on PROMPTER, if it is non-null, and using DATABASE
-     *  to map names of tables to corresponding Tables. */
-    CommandInterpreter(Map<String, Table> database,
-                       Scanner inp, PrintStream prompter) {
-        _input = new Tokenizer(inp, prompter);
-        _database = database;
-    }
-
-    /** Parse and execute one statement from the token stream.  Return true
-     *  iff the command is something other than quit or exit. */
-    boolean statement() {
-        switch (_input.peek()) {
-        case "create":
-            createStatement();
-            break;
-        case "load":
-            loadStatement();
-            break;
-        case "exit": case "quit":
-            exitStatement();
-            return false;
-        case "*EOF*":
-            return false;
-        case "insert":
-            insertStatement();
-            break;
-        case "print":
-            printStatement();
-            break;
-        case "select":
-            selectStatement();
-            break;
-        case "store":
-            storeStatement();
-            break;
-        default:
-            throw error("unrecognizable command");
-        }
-        return true;
-    }
-
-    /** Parse and execute a create statement from the token stream. */
-    private void createStatement() {
-        _input.next("create");
-        _input.next("table");
-        String name = name();
-        Table table = tableDefinition(name);
-        _database.put(name, table);
-        _input.next(";");
-    }
-
-    /** Parse and execute an exit or quit statement. Actually does nothing
-     *  except check syntax, since statement() handles the actual exiting. */
-    private void exitStatement() {
-        if (!_input.nextIf("quit")) {
-            _input.next("exit");
-        }
-        _input.next(";");
-    }
-
-    /** Parse and execute an insert statement from the token stream. */
-    private void insertStatement() {
-        _input.next("insert");
-        _input.next("into");
-        Table table = tableName();
-        _input.next("values");
-
-        ArrayList<String> values = new ArrayList<>();
-        values.add(literal());
-        while (_input.nextIf(",")) {
-            values.add(literal());
-        }
-        table.add(new Row(values.toArray(new String[values.size()])));
-        _input.next(";");
-    }
-
-    /** Parse and execute a load statement from the token stream. */
-    private void loadStatement() {
-        _input.next("load");
-        String name = name();
-        Table table = Table.readTable(name);
-        _database.put(name, table);
-        System.out.format("Loaded %s.db%n", name);
-        _input.next(";");
-    }
-
-    /** Parse and execute a store statement from the token stream. */
-    private void storeStatement() {
-        _input.next("store");
-        String name = _input.peek();
-        Table table = tableName();
-        table.writeTable(name);
-        System.out.format("Stored %s.db%n", name);
-        _input.next(";");
-    }
-
-    /** Parse and execute a print statement from the token stream. */
-    private void printStatement() {
-        _input.next("print");
-        String name = _input.peek();
-        Table table = tableName();
-        System.out.format("Contents of %s:%n", name);
-        table.print();
-        _input.next(";");
-    }
-
-    /** Parse and execute a select statement from the token stream. */
-    private void selectStatement() {
-        Table table = selectClause("");
-        System.out.println("Search results:");
-        table.print();
-        _input.next(";");
-    }
-
-    /** Parse and execute a table definition for a Table named NAME,
-     *  returning the specified table. */
-    Table tableDefinition(String name) {
-        Table table;
-        if (_input.nextIf("(")) {
-            List<String> columnTitles = new ArrayList<String>();
-            columnTitles.add(name());
-            while (_input.nextIf(",")) {
-                columnTitles.add(name());
-            }
-            table = new Table(name, columnTitles);
-            _input.nextIf(")");
-        } else {
-            _input.next("as");
-            table = selectClause(name);
-        }
-        return table;
-    }
-
-    /** Parse and execute a select clause from the token stream, returning the
-     *  resulting table, with name TABLENAME. */
-    Table selectClause(String tableName) {
-        _input.next("select");
-
-        ArrayList<Column> columns = new ArrayList<Column>();
-        Column column0 = columnSelector();
-        if (_input.nextIf("as")) {
-            column0.addDName(name());
-        }
-        columns.add(column0);
-        while (_input.nextIf(",")) {
-            Column column = columnSelector();
-            if (_input.nextIf("as")) {
-                column.addDName(name());
-            }
-            columns.add(column);
-        }
-
-        _input.next("from");
-
-        List<TableIterator> iterators = new ArrayList<TableIterator>();
-        iterators.add(tableName().tableIterator());
-        if (_input.nextIf(",")) {
-            iterators.add(tableName().tableIterator());
-        }
-
-        ArrayList<String> columnTitles = new ArrayList<String>();
-        for (Column column : columns) {
-            column.resolve(iterators);
-            columnTitles.add(column.name());
-        }
-        Table table = new Table(tableName, columnTitles);
-
-        List<Condition> conditions = conditionClause(iterators);
-
-        select(table, columns, iterators, conditions);
-        return table;
-    }
-
-    /** Parse and return a valid name (identifier) from the token stream.
-     *  The identifier need not have a meaning. */
-    String name() {
-        return _input.next(Tokenizer.IDENTIFIER);
-    }
-
-    /** Parse valid column designation (name or table.name), and
-     *  return as an unresolved Column. */
-    Column columnSelector() {
-        String name = name();
-        Table table = null;
-        if (_input.nextIf(".")) {
-            table = _database.get(name);
-            name = name();
-        }
-        return new Column(table, name);
-    }
-
-    /** Parse and return a column designator, after resolving against
-     *  ITERATORS. */
-    Column columnSelector(List<TableIterator> iterators) {
-        Column col = columnSelector();
-        col.resolve(iterators);
-        return col;
-    }
-
-    /** Parse a valid table name from the token stream, and return the Table
-     *  that it designates, which must be loaded. */
-    Table tableName() {
-        String name = name();
-        Table table = _database.get(name);
-        if (table == null) {
-            throw error("unknown table: %s", name);
-        }
-        return table;
-    }
-
-    /** Parse a literal and return the string it represents (i.e., without
-     *  single quotes). */
-    String literal() {
-        String lit = _input.next(Tokenizer.LITERAL);
-        return lit.substring(1, lit.length() - 1).trim();
-    }
-
-    /** Parse and return a list of Conditions that apply to TABLES from the
-     *  token stream.  This denotes the conjunction (`and') of zero
-     *  or more Conditions.  Resolves all Columns within the clause
-     *  against ITERATORS. */
-    List<Condition> conditionClause(List<TableIterator> iterators) {
-        List<Condition> conditions = new ArrayList<Condition>();
-        if (_input.nextIf("where")) {
-            conditions.add(condition(iterators));
-            while (_input.nextIf("and")) {
-                conditions.add(condition(iterators));
-            }
-        }
-        return conditions;
-    }
-
-    /** Parse and return a Condition that applies to ITERATORS from the
-     *  token stream. */
-    Condition condition(List<TableIterator> iterators) {
-        Column col1 = columnSelector(iterators);
-        String relation = _input.next();
-
-        Column col2;
-        if (_input.peek().startsWith("'")) {
-            col2 = new Literal(literal());
-        } else {
-            col2 = columnSelector(iterators);
-        }
-
-        return new Condition(col1, relation, col2);
-    }
-
-    /** Fill TABLE with the result of selecting COLUMNS from the rows returned
-     *  by ITERATORS that satisfy CONDITIONS.  ITERATORS must have size 1 or 2.
-     *  All selected Columns and all Columns mentioned in CONDITIONS must be
-     *  resolved to iterators listed among ITERATORS.  The number of
-     *  COLUMNS must equal TABLE.columns(). */
-    private void select(Table table, ArrayList<Column> columns,
-                        List<TableIterator> iterators,
-                        List<Condition> conditions) {
-        TableIterator i1 = iterators.get(0);
-        TableIterator i2 = null;
-        if (iterators.size() == 2) {
-            i2 = iterators.get(1);
-        }
-
-        while (i1.hasRow()) {
-            if (i2 == null) {
-                if (Condition.test(conditions)) {
-                    table.add(new Row(columns));
-                }
-            } else {
-                while (i2.hasRow()) {
-                    if (Condition.test(conditions)) {
-                        table.add(new Row(columns));
-                    }
-                    i2.next();
-                }
-                i2.reset();
-            }
-            i1.next();
-        }
-    }
-
-    /** Advance the input past the next semicolon. */
-    void skipCommand() {
-        while (true) {
-            try {
-                while (!_input.nextIf(";") && !_input.nextIf("*EOF*")) {
-                    _input.next();
-                }
-                return;
-            } catch (DBException excp) {
-                /* No action */
-            }
-        }
-    }
-
-    /** The command input source. */
-    private Tokenizer _input;
-    /** Database containing all tables. */
-    private Map<String, Table> _database;
-}
+package db61b;
+
+import java.io.PrintStream;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Scanner;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Function;
+
+import static db61b.Utils.*;
+import static db61b.Tokenizer.*;
+
+/** An object that reads and interprets a sequence of commands from an
+ *  input source.
+ *  @author Qi Liu
+ */
+class CommandInterpreter {
+
+    /* STRATEGY.
+     *
+     *   This interpreter parses commands using a technique called
+     * "recursive descent." The idea is simple: we convert the BNF grammar,
+     * as given in the specification document, into a program.
+     *
+     * First, we break up the input into "tokens": strings that correspond
+     * to the "base case" symbols used in the BNF grammar.  These are
+     * keywords, such as "select" or "create"; punctuation and relation
+     * symbols such as ";", ",", ">="; and other names (of columns or tables).
+     * All whitespace and comments get discarded in this process, so that the
+     * rest of the program can deal just with things mentioned in the BNF.
+     * The class Tokenizer performs this breaking-up task, known as
+     * "tokenizing" or "lexical analysis."
+     *
+     * The rest of the parser consists of a set of functions that call each
+     * other (possibly recursively, although that isn't needed for this
+     * particular grammar) to operate on the sequence of tokens, one function
+     * for each BNF rule. Consider a rule such as
+     *
+     *    <create statement> ::= create table <table name> <table definition> ;
+     *
+     * We can treat this as a definition for a function named (say)
+     * createStatement.  The purpose of this function is to consume the
+     * tokens for one create statement from the remaining token sequence,
+     * to perform the required actions, and to return the resulting value,
+     * if any (a create statement has no value, just side-effects, but a
+     * select clause is supposed to produce a table, according to the spec.)
+     *
+     * The body of createStatement is dictated by the right-hand side of the
+     * rule.  For each token (like create), we check that the next item in
+     * the token stream is "create" (and report an error otherwise), and then
+     * advance to the next token.  For a metavariable, like <table definition>,
+     * we consume the tokens for <table definition>, and do whatever is
+     * appropriate with the resulting value.  We do so by calling the
+     * tableDefinition function, which is constructed (as is createStatement)
+     * to do exactly this.
+     *
+     * Thus, the body of createStatement would look like this (_input is
+     * the sequence of tokens):
+     *
+     *    _input.next("create");
+     *    _input.next("table");
+     *    String name = name();
+     *    Table table = tableDefinition();
+     *    _input.next(";");
+     *
+     * plus other code that operates on name and table to perform the function
+     * of the create statement.  The .next method of Tokenizer is set up to
+     * throw an exception (DBException) if the next token does not match its
+     * argument.  Thus, any syntax error will cause an exception, which your
+     * program can catch to do error reporting.
+     *
+     * This leaves the issue of what to do with rules that have alternatives
+     * (the "|" symbol in the BNF grammar).  Fortunately, our grammar has
+     * been written with this problem in mind.  When there are multiple
+     * alternatives, you can always tell which to pick based on the next
+     * unconsumed token.  For example, <table definition> has two alternative
+     * right-hand sides, one of which starts with "(", and one with "as".
+     * So all you have to do is test:
+     *
+     *     if (_input.nextIs("(")) {
+     *          _input.next();
+     *                                   +
+     *         // code to process "<name>,  )"
+     *     } else {
+     *         // code to process "as <select clause>"
+     *     }
+     *
+     * or for convenience,
+     *
+     *     if (_input.nextIf("(")) {
+     *                                   +
+     *         // code to process "<name>,  )"
+     *     } else {
+     *     ...
+     *
+     * combining the calls to .nextIs and .next.
+     *
+     * You can handle the list of <name>s in the preceding in a number
+     * of ways, but personally, I suggest a simple loop:
+     *
+     *     call name() and do something with it;
+     *     while (_input.nextIs(",")) {
+     *         _input.next(",");
+     *         call name() and do something with it;
+     *     }
+     *
+     * or if you prefer even greater concision:
+     *
+     *     call name() and do something with it;
+     *     while (_input.nextIf(",")) {
+     *         call name() and do something with it;
+     *     }
+     *
+     * (You'll have to figure out what do with the names you accumulate, of
+     * course).
+     *
+     */
+
+    /** A new CommandParser executing commands read from INP, writing
+     *  prompts on PROMPTER, if it is non-null, and using DATABASE
+     *  to map names of tables to corresponding Tables. */
+    CommandInterpreter(Map<String, Table> database,
+                       Scanner inp, PrintStream prompter) {
+        this(database, new Tokenizer(inp, prompter));
+    }
+
+    /** A new CommandParser executing commands taken from SOURCE (in
+     *  batch mode), and using DATABASE to map names of tables to
+     *  corresponding Tables. */
+    CommandInterpreter(Map<String, Table> database, Pipeline source) {
+        this(database, new Tokenizer(source));
+    }
+
+    /** A new CommandParser executing commands read from INPUT, and using
+     *  DATABASE to map names of tables to corresponding Tables. */
+    private CommandInterpreter(Map<String, Table> database,
+                               Tokenizer input) {
+        _input = input;
+        _database = database;
+        _pool = new BufferPool(BufferPool.DEFAULT_CAPACITY);
+        _memory = new MemoryBudget(MemoryBudget.DEFAULT_BUDGET);
+        _cluster = new Cluster();
+        _replication = new Replication();
+        _views = new HashMap<String, View>();
+    }
+
+    /** Parse and execute one statement from the token stream.  Return true
+     *  iff the command is something other than quit or exit.  The work
+     *  done by each statement other than stats is counted in Stats, and
+     *  may be cancelled or time out (see Cancellation).  After each
+     *  statement, tables are spilled as needed to keep within the memory
+     *  budget. */
+    boolean statement() {
+        _input.flush();
+        _start = _input.position();
+        _notes.clear();
+        String command = _input.peek();
+        if (command.equals("stats") || command.equals("*EOF*")) {
+            return execute(command);
+        }
+        Stats.begin(command);
+        Cancellation.begin();
+        try {
+            return execute(command);
+        } finally {
+            Cancellation.end();
+            _memory.enforce(_database.values());
+            Stats.end();
+        }
+    }
+
+    /** Parse and execute one statement, whose first token is COMMAND,
+     *  from the token stream, as for statement(). */
+    private boolean execute(String command) {
+        switch (command) {
+        case "create":
+            createStatement();
+            break;
+        case "load":
+            loadStatement();
+            break;
+        case "exit": case "quit":
+            exitStatement();
+            close();
+            return false;
+        case "*EOF*":
+            close();
+            return false;
+        case "insert":
+            insertStatement();
+            break;
+        case "delete":
+            deleteStatement();
+            break;
+        case "update":
+            updateStatement();
+            break;
+        case "print":
+            printStatement();
+            break;
+        case "select":
+            selectStatement();
+            break;
+        case "store":
+            storeStatement();
+            break;
+        case "checkpoint":
+            checkpointStatement();
+            break;
+        case "open":
+            openStatement();
+            break;
+        case "wait":
+            waitStatement();
+            break;
+        case "set":
+            setStatement();
+            break;
+        case "pool":
+            poolStatement();
+            break;
+        case "analyze":
+            analyzeStatement();
+            break;
+        case "explain":
+            explainStatement();
+            break;
+        case "refresh":
+            refreshStatement();
+            break;
+        case "stats":
+            statsStatement();
+            break;
+        case "memory":
+            memoryStatement();
+            break;
+        case "cluster":
+            clusterStatement();
+            break;
+        case "distribute":
+            distributeStatement();
+            break;
+        case "fetch":
+            fetchStatement();
+            break;
+        case "replica":
+            replicaStatement();
+            break;
+        case "read":
+            readStatement();
+            break;
+        default:
+            throw error("unrecognizable command");
+        }
+        return true;
+    }
+
+    /** Parse and execute a create statement from the token stream. */
+    private void createStatement() {
+        _input.next("create");
+        if (_input.nextIf("materialized")) {
+            createView();
+            return;
+        }
+        _input.next("table");
+        String name = name();
+        Table table = tableDefinition(name);
+        table.buildFilters();
+        replaceTable(name, table);
+        _input.next(";");
+        logTable(name, table);
+    }
+
+    /** Parse and execute the rest of a create materialized view
+     *  statement, following 'materialized', from the token stream. */
+    private void createView() {
+        _input.next("view");
+        String name = name();
+        _input.next("as");
+        View view = new View();
+        viewDefinition(name, view);
+        _input.next(";");
+        installView(name, view);
+        logStatement();
+    }
+
+    /** Parse and execute a refresh statement from the token stream, which
+     *  recomputes a materialized view from its definition. */
+    private void refreshStatement() {
+        _input.next("refresh");
+        String name = name();
+        _input.next(";");
+        refresh(name);
+        logStatement();
+    }
+
+    /** Recompute the materialized view NAME from its definition. */
+    private void refresh(String name) {
+        View old = _views.get(name);
+        if (old == null) {
+            throw error("unknown view: %s", name);
+        }
+        View view = new View();
+        Tokenizer input = _input;
+        _input = new Tokenizer(new Scanner(old.definition()), null);
+        try {
+            viewDefinition(name, view);
+            _input.next("*EOF*");
+        } finally {
+            _input = input;
+        }
+        installView(name, view);
+    }
+
+    /** Make VIEW the materialized view NAME, replacing any table or view
+     *  of that name. */
+    private void installView(String name, View view) {
+        if (view.uses(_database.get(name))) {
+            view.detach();
+            throw error("view %s cannot select from itself", name);
+        }
+        replaceTable(name, view.table());
+        _views.put(name, view);
+    }
+
+    /** Make TABLE the table named NAME, replacing any table or view of
+     *  that name.  Materialized views that select from a replaced table
+     *  are recomputed from the new one, after which the replaced table's
+     *  storage is freed. */
+    private void replaceTable(String name, Table table) {
+        dropView(name);
+        Table old = _database.put(name, table);
+        if (old == null || old == table) {
+            return;
+        }
+        refreshViews(old);
+        old.free();
+    }
+
+    /** Recompute the materialized views that select from TABLE. */
+    private void refreshViews(Table table) {
+        for (Map.Entry<String, View> entry
+                 : new ArrayList<Map.Entry<String, View>>(_views.entrySet())) {
+            if (entry.getValue().uses(table)) {
+                refresh(entry.getKey());
+            }
+        }
+    }
+
+    /** Parse and execute the defining select clause of the materialized
+     *  view NAME from the token stream, and define VIEW by it. */
+    private void viewDefinition(String name, View view) {
+        _view = view;
+        try {
+            selectClause(name);
+            if (SetOperation.isOperator(_input.peek())) {
+                throw error("materialized views cannot use %s",
+                            _input.peek());
+            }
+        } catch (DBException e) {
+            view.detach();
+            throw e;
+        } finally {
+            _view = null;
+        }
+    }
+
+    /** If NAME is a materialized view, make it an ordinary table, no
+     *  longer following changes to its base tables. */
+    private void dropView(String name) {
+        View view = _views.remove(name);
+        if (view != null) {
+            view.detach();
+        }
+    }
+
+    /** Parse a table name from the token stream, and return the Table
+     *  it designates, which must be loaded, and must not be a
+     *  materialized view, whose contents only its definition
+     *  determines. */
+    private Table baseTableName() {
+        String name = _input.peek();
+        Table table = tableName();
+        if (_views.containsKey(name)) {
+            throw error("cannot modify materialized view %s", name);
+        }
+        return table;
+    }
+
+    /** Parse and execute an exit or quit statement. Actually does nothing
+     *  except check syntax, since statement() handles the actual exiting. */
+    private void exitStatement() {
+        if (!_input.nextIf("quit")) {
+            _input.next("exit");
+        }
+        _input.next(";");
+    }
+
+    /** Parse and execute an insert statement from the token stream. */
+    private void insertStatement() {
+        _input.next("insert");
+        _input.next("into");
+        Table table = baseTableName();
+        _input.next("values");
+
+        ArrayList<String> values = new ArrayList<>();
+        values.add(literal());
+        while (_input.nextIf(",")) {
+            values.add(literal());
+        }
+        Row row = new Row(values.toArray(new String[values.size()]));
+        _input.next(";");
+        if (_cluster.isDistributed(table)) {
+            _cluster.insert(table, row);
+        } else {
+            table.add(row);
+            logStatement();
+        }
+    }
+
+    /** Parse and execute a delete statement from the token stream, which
+     *  deletes the rows of a table that satisfy its condition clause
+     *  (all rows, if there is none). */
+    private void deleteStatement() {
+        _input.next("delete");
+        _input.next("from");
+        Table table = baseTableName();
+        _cluster.checkLocal(table, "delete from");
+        TableIterator it = table.tableIterator();
+        List<Condition> conditions = conditionClause(List.of(it));
+        _input.next(";");
+
+        List<Integer> rows = matchingRows(it, conditions);
+        for (int k : rows) {
+            table.delete(k);
+        }
+        table.compactIfNeeded();
+        logStatement();
+        System.out.format("Deleted %d rows from %s%n", rows.size(),
+                          table.name());
+    }
+
+    /** Parse and execute an update statement from the token stream,
+     *  which sets columns of the rows of a table that satisfy its
+     *  condition clause (all rows, if there is none) to literal values.
+     *  Rows that become equal to other rows are removed. */
+    private void updateStatement() {
+        _input.next("update");
+        Table table = baseTableName();
+        _cluster.checkLocal(table, "update");
+        _input.next("set");
+        List<Integer> columns = new ArrayList<Integer>();
+        List<String> values = new ArrayList<String>();
+        do {
+            String name = name();
+            int k = table.columnIndex(name);
+            if (k == -1) {
+                throw error("unknown column: %s", name);
+            }
+            _input.next("=");
+            columns.add(k);
+            values.add(literal());
+        } while (_input.nextIf(","));
+        TableIterator it = table.tableIterator();
+        List<Condition> conditions = conditionClause(List.of(it));
+        _input.next(";");
+
+        List<Integer> rows = matchingRows(it, conditions);
+        for (int k : rows) {
+            Row old = table.row(k);
+            String[] row = new String[old.size()];
+            for (int c = 0; c < row.length; c += 1) {
+                row[c] = old.get(c);
+            }
+            for (int i = 0; i < columns.size(); i += 1) {
+                row[columns.get(i)] = values.get(i);
+            }
+            table.update(k, new Row(row));
+        }
+        table.compactIfNeeded();
+        logStatement();
+        System.out.format("Updated %d rows in %s%n", rows.size(),
+                          table.name());
+    }
+
+    /** Return the numbers of the rows scanned by IT that satisfy
+     *  CONDITIONS, all of whose Columns are resolved to IT, in
+     *  increasing order. */
+    private List<Integer> matchingRows(TableIterator it,
+                                       List<Condition> conditions) {
+        List<Integer> rows = new ArrayList<Integer>();
+        if (excludedByFilters(conditions)) {
+            return rows;
+        }
+        it.restrict(conditions);
+        for (; it.hasRow(); it.next()) {
+            Cancellation.poll();
+            if (Condition.test(conditions)) {
+                rows.add(it.position());
+            }
+        }
+        Stats.count(Stats.ROWS_SCANNED, it.rowsRead());
+        return rows;
+    }
+
+    /** Parse and execute a load statement from the token stream.  A
+     *  table loaded with the 'paged' option is kept in a page file and
+     *  cached in my buffer pool, rather than held in memory, and one
+     *  loaded with the 'offheap' option is kept encoded in buffers
+     *  outside the Java heap (see OffHeapStore).  One loaded with the
+     *  'lazy' option has only the positions of its rows read at first,
+     *  and each column read when first needed (see LazyStore).  The .db
+     *  files of several tables are read concurrently.  If any cannot be
+     *  read, the others are loaded anyway, and the first failure is then
+     *  reported.  Paged tables are mapped one at a time, since they
+     *  share the buffer pool, and an existing table is closed and
+     *  replaced only once its new version is mapped.  A partitioned
+     *  table is loaded by reading only its description, its partitions
+     *  being read when first needed; 'load T partition N' reads
+     *  partition N of the loaded table T from its file again. */
+    private void loadStatement() {
+        _input.next("load");
+        List<String> names = new ArrayList<String>();
+        do {
+            names.add(name());
+        } while (_input.nextIf(","));
+        if (_input.nextIf("partition")) {
+            int p = number();
+            _input.next(";");
+            if (names.size() > 1) {
+                throw error("can only load a partition of one table");
+            }
+            loadPartition(names.get(0), p);
+            return;
+        }
+        boolean paged = _input.nextIf("paged"),
+            offHeap = !paged && _input.nextIf("offheap"),
+            lazy = !paged && !offHeap && _input.nextIf("lazy");
+        Function<String, Table> reader = offHeap ? Table::readOffHeapTable
+            : lazy ? Table::readLazyTable : Table::readTable;
+        for (String name : names) {
+            finishStore(name);
+        }
+        List<Table> tables;
+        List<DBException> failures = new ArrayList<DBException>();
+        if (paged) {
+            tables = new ArrayList<Table>();
+            for (String name : names) {
+                Table table;
+                try {
+                    table = Table.mapTable(name, _pool);
+                } catch (DBException e) {
+                    failures.add(e);
+                    table = null;
+                }
+                Table old = _database.get(name);
+                if (table != null && old != null) {
+                    old.close();
+                }
+                tables.add(table);
+            }
+        } else if (names.size() == 1) {
+            tables = List.of(reader.apply(names.get(0)));
+        } else {
+            List<Callable<Table>> tasks = new ArrayList<Callable<Table>>();
+            for (String name : names) {
+                tasks.add(() -> reader.apply(name));
+            }
+            tables = inParallel(tasks, failures);
+        }
+        for (int k = 0; k < tables.size(); k += 1) {
+            if (tables.get(k) != null) {
+                replaceTable(names.get(k), tables.get(k));
+                logTable(names.get(k), tables.get(k));
+                System.out.format("Loaded %s%n",
+                                  fileName(names.get(k), tables.get(k)));
+            }
+        }
+        if (!failures.isEmpty()) {
+            throw failures.get(0);
+        }
+        _input.next(";");
+    }
+
+    /** Replace partition #P of the loaded table NAME with the contents
+     *  of its file, recomputing the materialized views that select from
+     *  the table. */
+    private void loadPartition(String name, int p) {
+        finishStore(name);
+        Table table = _database.get(name);
+        if (table == null) {
+            throw error("unknown table: %s", name);
+        }
+        Partitioning partitioning = partitioning(table, p);
+        partitioning.reload(p);
+        refreshViews(table);
+        logTable(name, table);
+        System.out.format("Loaded %s.db%n", partitioning.fileName(p));
+    }
+
+    /** Return the name of the file describing TABLE, named NAME:
+     *  NAME.parts if it is partitioned, and otherwise NAME.db. */
+    private static String fileName(String name, Table table) {
+        return name + (table.partitioning() == null ? ".db" : ".parts");
+    }
+
+    /** Return the partitioning of TABLE, which must be partitioned and
+     *  have a partition #P. */
+    private static Partitioning partitioning(Table table, int p) {
+        Partitioning partitioning = table.partitioning();
+        if (partitioning == null) {
+            throw error("%s is not partitioned", table.name());
+        }
+        if (p >= partitioning.size()) {
+            throw error("%s has only %d partitions", table.name(),
+                        partitioning.size());
+        }
+        return partitioning;
+    }
+
+    /** Parse and execute a checkpoint statement from the token stream,
+     *  which saves all tables as a database image (see
+     *  DatabaseImage). */
+    private void checkpointStatement() {
+        _input.next("checkpoint");
+        _input.next("database");
+        String file = literal();
+        _input.next(";");
+        finishStores();
+        DatabaseImage.write(_database, file);
+        System.out.format("Checkpointed %d tables to %s%n",
+                          _database.size(), file);
+    }
+
+    /** Parse and execute an open statement from the token stream, which
+     *  loads all tables of a database image, replacing any tables (or
+     *  views) of the same names.  Views saved in the image are opened
+     *  as ordinary tables. */
+    private void openStatement() {
+        _input.next("open");
+        _input.next("database");
+        String file = literal();
+        _input.next(";");
+        Map<String, Table> tables = DatabaseImage.read(file);
+        for (Map.Entry<String, Table> entry : tables.entrySet()) {
+            replaceTable(entry.getKey(), entry.getValue());
+            logTable(entry.getKey(), entry.getValue());
+        }
+        System.out.format("Opened %d tables from %s%n", tables.size(), file);
+    }
+
+    /** Parse and execute a store statement from the token stream.  A
+     *  store writes a snapshot of the table in the background, on
+     *  another thread, so that the table may be used and changed
+     *  meanwhile; its completion is reported by the next wait
+     *  statement, or by whatever next needs the file (a load or store
+     *  of the same table, a checkpoint, or the end of input).  The
+     *  'background' option, which was once needed for this, is still
+     *  accepted.  'store T partition N' writes only partition N of
+     *  the partitioned table T (with T.parts), and with the 'archive'
+     *  option then releases it from memory until it is next needed. */
+    private void storeStatement() {
+        _input.next("store");
+        String name = _input.peek();
+        Table table = tableName();
+        _cluster.checkLocal(table, "store");
+        if (_input.nextIf("partition")) {
+            int p = number();
+            boolean archive = _input.nextIf("archive");
+            _input.next(";");
+            finishStore(name);
+            Partitioning partitioning = partitioning(table, p);
+            String file = partitioning.fileName(p);
+            partitioning.partition(p).writeTable(file);
+            partitioning.writeSpec(name);
+            if (archive) {
+                partitioning.unload(p);
+                System.out.format("Archived %s.db%n", file);
+            } else {
+                System.out.format("Stored %s.db%n", file);
+            }
+            return;
+        }
+        _input.nextIf("background");
+        _input.next(";");
+        finishStore(name);
+        Table.Snapshot snapshot = table.snapshot();
+        if (_storer == null) {
+            _storer = Executors.newSingleThreadExecutor(r -> {
+                Thread thread = new Thread(r, "store");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+        _stores.put(name, _storer.submit(() -> snapshot.write(name)));
+        System.out.format("Storing %s in the background%n",
+                          fileName(name, table));
+    }
+
+    /** Parse and execute a wait statement from the token stream, which
+     *  waits for all background stores to finish. */
+    private void waitStatement() {
+        _input.next("wait");
+        _input.next(";");
+        finishStores();
+    }
+
+    /** Wait for the background store of table NAME, if any, to finish,
+     *  and report it.  A failed store causes a DBException. */
+    private void finishStore(String name) {
+        Future<Long> store = _stores.remove(name);
+        if (store == null) {
+            return;
+        }
+        try {
+            Stats.count(Stats.BYTES_WRITTEN, store.get());
+            System.out.format("Stored %s%s%n", name,
+                              Partitioning.isStored(name) ? ".parts" : ".db");
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof DBException) {
+                throw (DBException) e.getCause();
+            }
+            throw error("trouble writing to %s.db", name);
+        } catch (InterruptedException e) {
+            throw error("interrupted while storing %s.db", name);
+        }
+    }
+
+    /** Wait for all background stores to finish, reporting each.  If any
+     *  failed, throw the first failure's DBException after waiting for
+     *  the rest. */
+    private void finishStores() {
+        DBException failure = null;
+        for (String name : new ArrayList<String>(_stores.keySet())) {
+            try {
+                finishStore(name);
+            } catch (DBException e) {
+                if (failure == null) {
+                    failure = e;
+                }
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    /** Parse and execute a set statement from the token stream, which
+     *  changes the value of a numeric setting. */
+    private void setStatement() {
+        _input.next("set");
+        String setting = name();
+        String value = _input.next(Tokenizer.NUMBER);
+        if (_input.nextIf(".")) {
+            value += "." + _input.next(Tokenizer.NUMBER);
+        }
+        switch (setting) {
+        case "pool":
+            _pool.setCapacity(intValue(value));
+            break;
+        case "bloom_fpp":
+            BloomFilter.setFalsePositiveRate(Double.parseDouble(value));
+            break;
+        case "bloom_bits":
+            double ln2 = Math.log(2);
+            BloomFilter.setFalsePositiveRate(
+                Math.exp(-Double.parseDouble(value) * ln2 * ln2));
+            break;
+        case "zone_rows":
+            ZoneMap.setDefaultBlockRows(intValue(value));
+            break;
+        case "compaction":
+            Table.setCompactionThreshold(Double.parseDouble(value));
+            break;
+        case "spill_rows":
+            SetOperation.setSpillRows(intValue(value));
+            break;
+        case "stats_dump":
+            Stats.setDumping(intValue(value) != 0);
+            break;
+        case "memory_budget":
+            _memory.setLimit(longValue(value));
+            break;
+        case "timeout":
+            Cancellation.setTimeout(longValue(value));
+            break;
+        default:
+            throw error("unknown setting: %s", setting);
+        }
+        _input.next(";");
+    }
+
+    /** Return the integer denoted by VALUE, the text of a setting. */
+    private int intValue(String value) {
+        try {
+            return Integer.parseInt(value);
+        } catch (NumberFormatException e) {
+            throw error("integer expected: %s", value);
+        }
+    }
+
+    /** Return the long integer denoted by VALUE, the text of a
+     *  setting. */
+    private long longValue(String value) {
+        try {
+            return Long.parseLong(value);
+        } catch (NumberFormatException e) {
+            throw error("integer expected: %s", value);
+        }
+    }
+
+    /** Parse and execute an analyze statement from the token stream,
+     *  which rebuilds the Bloom filters on a table's columns and its
+     *  ZoneMap, and reports on them: for a partitioned table, those of
+     *  each partition. */
+    private void analyzeStatement() {
+        _input.next("analyze");
+        Table table = tableName();
+        _input.next(";");
+        for (Table part : table.partitions()) {
+            part.rebuildFilters();
+            part.reportFilters(System.out);
+            part.rebuildZoneMap();
+            ZoneMap zones = part.zoneMap();
+            System.out.format("Zone map on %s: %d blocks of %d rows%n",
+                              part.name(), zones.blocks(), zones.blockRows());
+        }
+    }
+
+    /** Parse and execute an explain statement from the token stream.
+     *  This performs a select clause, and instead of its results, reports
+     *  the work done by each scan of a table. */
+    private void explainStatement() {
+        _input.next("explain");
+        _scans = new ArrayList<TableIterator>();
+        _joins = new ArrayList<String>();
+        try {
+            Table table = query("");
+            _input.next(";");
+            System.out.println("Plan:");
+            for (TableIterator scan : _scans) {
+                System.out.format("  scan %s: %d rows read, %d of %d blocks"
+                                  + " skipped",
+                                  scan.table().name(), scan.rowsRead(),
+                                  scan.blocksSkipped(),
+                                  scan.blocksRead() + scan.blocksSkipped());
+                Partitioning partitioning = scan.table().partitioning();
+                if (partitioning != null) {
+                    System.out.format(", %d of %d partitions pruned",
+                                      scan.partitionsPruned(),
+                                      partitioning.size());
+                }
+                RowStore store = scan.table().store();
+                if (store instanceof LazyStore) {
+                    System.out.format(", %d of %d columns read",
+                                      ((LazyStore) store).columnsRead(),
+                                      scan.table().numColumns());
+                }
+                if (scan.indexed()) {
+                    System.out.print(", using a prefix index");
+                }
+                System.out.println();
+            }
+            for (String join : _joins) {
+                System.out.format("  %s%n", join);
+            }
+            System.out.format("%d rows selected%n", table.size());
+        } finally {
+            _scans = null;
+            _joins = null;
+        }
+    }
+
+    /** Parse and execute a stats statement, which reports the work done
+     *  by the last statement and by all statements so far, either for
+     *  people or, with the 'dump' option, as KEY=VALUE lines for
+     *  monitoring tools. */
+    private void statsStatement() {
+        _input.next("stats");
+        boolean dump = _input.nextIf("dump");
+        _input.next(";");
+        if (dump) {
+            Stats.dump(System.out);
+        } else {
+            Stats.report(System.out);
+        }
+    }
+
+    /** Parse and execute a memory statement, which reports the
+     *  estimated memory taken by each table and the memory budget. */
+    private void memoryStatement() {
+        _input.next("memory");
+        _input.next(";");
+        _memory.report(_database, System.out);
+    }
+
+    /** Parse and execute a pool statement, which reports on the buffer
+     *  pool. */
+    private void poolStatement() {
+        _input.next("pool");
+        _input.next(";");
+        _pool.report(System.out);
+    }
+
+    /** Parse and execute a print statement from the token stream. */
+    private void printStatement() {
+        _input.next("print");
+        String name = _input.peek();
+        Table table = tableName();
+        if (_cluster.isDistributed(table)) {
+            table = _cluster.gather(table);
+        }
+        System.out.format("Contents of %s:%n", name);
+        table.print(System.out);
+        _input.next(";");
+    }
+
+    /** Parse and execute a select statement from the token stream. */
+    private void selectStatement() {
+        Table table = query("");
+        System.out.println("Search results:");
+        table.print(System.out);
+        for (String note : _notes) {
+            System.out.println(note);
+        }
+        _input.next(";");
+    }
+
+    /** Parse and execute a cluster statement from the token stream:
+     *  either 'cluster start N', which starts a cluster of N worker
+     *  processes (see Cluster), or 'cluster stop', which stops it. */
+    private void clusterStatement() {
+        _input.next("cluster");
+        if (_input.nextIf("start")) {
+            int n = number();
+            _input.next(";");
+            _cluster.start(n);
+            System.out.format("Started a cluster of %d workers%n", n);
+        } else {
+            _input.next("stop");
+            _input.next(";");
+            int n = _cluster.size();
+            _cluster.stop();
+            System.out.format("Stopped %d workers%n", n);
+        }
+    }
+
+    /** Parse and execute a distribute statement from the token stream,
+     *  which moves the rows of a table to the workers of the cluster,
+     *  divided by the hash of one of its columns. */
+    private void distributeStatement() {
+        _input.next("distribute");
+        String name = _input.peek();
+        Table table = baseTableName();
+        _input.next("by");
+        String column = name();
+        _input.next(";");
+        int k = table.columnIndex(column);
+        if (k == -1) {
+            throw error("unknown column: %s", column);
+        }
+        for (View view : _views.values()) {
+            if (view.uses(table)) {
+                throw error("cannot distribute %s, which has materialized"
+                            + " views", name);
+            }
+        }
+        int rows = table.size();
+        if (!_cluster.isDistributed(table)) {
+            replaceTable(name, _cluster.distribute(name, table, k));
+        } else {
+            replaceTable(name, _cluster.distribute(name,
+                                                   _cluster.gather(table), k));
+            rows = _database.get(name).size();
+        }
+        System.out.format("Distributed %d rows of %s across %d workers by"
+                          + " %s%n", rows, name, _cluster.size(), column);
+    }
+
+    /** Parse and execute a fetch statement from the token stream, which
+     *  a Cluster sends to its workers.  This performs a query and prints
+     *  each resulting row on a line of its own, as a vertical bar
+     *  followed by its values, separated by commas. */
+    private void fetchStatement() {
+        _input.next("fetch");
+        Table table = query("");
+        _input.next(";");
+        for (Row row : table) {
+            StringBuilder line = new StringBuilder("|");
+            for (int k = 0; k < row.size(); k += 1) {
+                line.append(k == 0 ? "" : ",").append(row.get(k));
+            }
+            System.out.println(line);
+        }
+    }
+
+    /** Parse and execute a replica statement from the token stream:
+     *  'replica start', which starts a read replica of the database (see
+     *  Replication), 'replica stop', which stops all replicas, or
+     *  'replica status', which reports how far behind each one is. */
+    private void replicaStatement() {
+        _input.next("replica");
+        if (_input.nextIf("start")) {
+            _input.next(";");
+            int n = _replication.start(snapshot());
+            System.out.format("Started replica %d%n", n);
+        } else if (_input.nextIf("stop")) {
+            _input.next(";");
+            System.out.format("Stopped %d replicas%n", _replication.stop());
+        } else {
+            _input.next("status");
+            _input.next(";");
+            _replication.report(System.out);
+        }
+    }
+
+    /** Parse and execute a read statement from the token stream:
+     *  'read [within N] QUERY', which performs the select clause QUERY
+     *  on a read replica whose data are at most N milliseconds stale
+     *  (any replica, if there is no within clause).  The query is parsed
+     *  by the replica, against its own copy of the database. */
+    private void readStatement() {
+        _input.next("read");
+        long within = -1;
+        if (_input.nextIf("within")) {
+            within = number();
+        }
+        int start = _input.position();
+        _input.next("select");
+        while (!_input.peek().equals(";") && !_input.peek().equals("*EOF*")) {
+            _input.next();
+        }
+        String query = _input.text(start);
+        _input.next(";");
+        List<Row> rows = _replication.read(query, within);
+        System.out.println("Search results:");
+        for (Row row : rows) {
+            System.out.print("  ");
+            for (int k = 0; k < row.size(); k += 1) {
+                System.out.print(row.get(k) + " ");
+            }
+            System.out.println();
+        }
+    }
+
+    /** Return the records that recreate the database on a new replica:
+     *  its tables, followed by its materialized views, each after the
+     *  views it selects from. */
+    private List<String> snapshot() {
+        List<String> records = new ArrayList<String>();
+        for (Map.Entry<String, Table> entry : _database.entrySet()) {
+            if (!_views.containsKey(entry.getKey())
+                && !_cluster.isDistributed(entry.getValue())) {
+                records.addAll(Replication.records(entry.getKey(),
+                                                   entry.getValue()));
+            }
+        }
+        List<String> views = new ArrayList<String>(_views.keySet());
+        while (!views.isEmpty()) {
+            for (String name : views) {
+                View view = _views.get(name);
+                boolean ready = true;
+                for (String other : views) {
+                    ready &= !view.uses(_database.get(other));
+                }
+                if (ready) {
+                    records.add(String.format(
+                        "create materialized view %s as %s;", name,
+                        view.definition()));
+                    views.remove(name);
+                    break;
+                }
+            }
+        }
+        return records;
+    }
+
+    /** Log the text of the current statement, which has changed the
+     *  database, for my replicas. */
+    private void logStatement() {
+        if (_replication.isLogging()) {
+            _replication.append(List.of(_input.text(_start)));
+        }
+    }
+
+    /** Log the creation of TABLE, named NAME, with its rows, for my
+     *  replicas, unless it is distributed. */
+    private void logTable(String name, Table table) {
+        if (_replication.isLogging() && !_cluster.isDistributed(table)) {
+            _replication.append(Replication.records(name, table));
+        }
+    }
+
+    /** Parse and execute a table definition for a Table named NAME,
+     *  returning the specified table.  A list of column titles may
+     *  include one 'primary key (TITLE, ...)', declaring the primary key
+     *  of the table.  Either form of definition may be followed by
+     *  'partition by range (TITLE) (BOUND, ...)', dividing the table
+     *  into partitions by ranges of the values of column TITLE that start
+     *  at the literal BOUNDs (see Partitioning). */
+    Table tableDefinition(String name) {
+        Table table;
+        if (_input.nextIf("(")) {
+            List<String> columnTitles = new ArrayList<String>();
+            List<String> key = null;
+            do {
+                if (_input.nextIf("primary")) {
+                    if (key != null) {
+                        throw error("more than one primary key");
+                    }
+                    _input.next("key");
+                    _input.next("(");
+                    key = new ArrayList<String>();
+                    do {
+                        key.add(name());
+                    } while (_input.nextIf(","));
+                    _input.next(")");
+                } else {
+                    columnTitles.add(name());
+                }
+            } while (_input.nextIf(","));
+            table = new Table(name, columnTitles);
+            if (key != null) {
+                int[] columns = new int[key.size()];
+                for (int i = 0; i < columns.length; i += 1) {
+                    columns[i] = table.columnIndex(key.get(i));
+                    if (columns[i] == -1) {
+                        throw error("unknown column: %s", key.get(i));
+                    }
+                }
+                table.setKey(columns);
+            }
+            _input.nextIf(")");
+        } else {
+            _input.next("as");
+            table = query(name);
+        }
+        if (_input.nextIf("partition")) {
+            _input.next("by");
+            _input.next("range");
+            _input.next("(");
+            String column = name();
+            _input.next(")");
+            int k = table.columnIndex(column);
+            if (k == -1) {
+                throw error("unknown column: %s", column);
+            }
+            _input.next("(");
+            List<String> bounds = new ArrayList<String>();
+            do {
+                bounds.add(literal());
+            } while (_input.nextIf(","));
+            _input.next(")");
+            table.partition(k, bounds.toArray(new String[bounds.size()]));
+        }
+        return table;
+    }
+
+    /** Parse and execute a query from the token stream: a select clause,
+     *  or several joined by the set operations union, intersect, and
+     *  except, which are applied from left to right.  Return the
+     *  resulting table, with name TABLENAME. */
+    Table query(String tableName) {
+        Table table = selectClause(tableName);
+        while (SetOperation.isOperator(_input.peek())) {
+            String operator = _input.next();
+            Table right = selectClause("");
+            table = SetOperation.combine(operator, table, right, tableName);
+        }
+        return table;
+    }
+
+    /** Parse and execute a select clause from the token stream, returning the
+     *  resulting table, with name TABLENAME.  If a materialized view is
+     *  being defined, define it by this select clause.
+     *
+     *  A select clause may select approximate aggregates (see Aggregate)
+     *  rather than columns, yielding a single row.  The accuracy of each
+     *  aggregate is then noted for the select statement to report. */
+    Table selectClause(String tableName) {
+        View view = _view;
+        _view = null;
+        int start = _input.position();
+        _input.next("select");
+
+        ArrayList<Column> columns = new ArrayList<Column>();
+        List<Aggregate> aggregates = new ArrayList<Aggregate>();
+        do {
+            String name = name();
+            if (Aggregate.isFunction(name) && _input.nextIs("(")) {
+                Aggregate aggregate = aggregate(name);
+                if (_input.nextIf("as")) {
+                    aggregate.addDName(name());
+                }
+                aggregates.add(aggregate);
+            } else {
+                Column column = columnSelector(name);
+                if (_input.nextIf("as")) {
+                    column.addDName(name());
+                }
+                columns.add(column);
+            }
+        } while (_input.nextIf(","));
+        if (!columns.isEmpty() && !aggregates.isEmpty()) {
+            throw error("cannot select both columns and aggregates");
+        }
+
+        _input.next("from");
+
+        List<TableIterator> iterators = new ArrayList<TableIterator>();
+        iterators.add(tableName().tableIterator());
+        if (_input.nextIf(",")) {
+            iterators.add(tableName().tableIterator());
+        }
+        if (_scans != null) {
+            _scans.addAll(iterators);
+        }
+
+        ArrayList<String> columnTitles = new ArrayList<String>();
+        for (Column column : columns) {
+            column.resolve(iterators);
+            columnTitles.add(column.name());
+        }
+        for (Aggregate aggregate : aggregates) {
+            aggregate.resolve(iterators);
+            columnTitles.add(aggregate.name());
+        }
+        Table table = new Table(tableName, columnTitles);
+        boolean distinct = coversKeys(columns, iterators);
+
+        List<Condition> conditions = conditionClause(iterators);
+        TableIterator first = iterators.get(0);
+        sampleClause(first);
+        Ordering ordering = orderClause(columns, iterators);
+        int limit = limitClause();
+        if (!aggregates.isEmpty() && ordering.size() > 0) {
+            throw error("aggregates cannot be ordered");
+        }
+        if (view != null) {
+            if (ordering.size() > 0 || limit >= 0) {
+                throw error("materialized views cannot be ordered or"
+                            + " limited");
+            }
+            if (!aggregates.isEmpty() || first.fraction() < 1) {
+                throw error("materialized views cannot be sampled or"
+                            + " aggregated");
+            }
+            view.define(_input.text(start), table, columns, iterators,
+                        conditions);
+        }
+
+        if (_cluster.isDistributed(first.table())
+            || _cluster.isDistributed(iterators.get(iterators.size() - 1)
+                                      .table())) {
+            if (!aggregates.isEmpty() || first.fraction() < 1) {
+                throw error("distributed selects cannot be sampled or"
+                            + " aggregated");
+            }
+            _cluster.select(_input.text(start), table, columns, iterators,
+                            conditions, ordering, limit);
+        } else if (aggregates.isEmpty()) {
+            select(table, columns, null, iterators, conditions, ordering,
+                   limit, distinct);
+        } else {
+            select(table, columns, aggregates, iterators, conditions,
+                   ordering, limit, distinct);
+            String[] values = new String[aggregates.size()];
+            for (int k = 0; k < values.length; k += 1) {
+                Aggregate aggregate = aggregates.get(k);
+                values[k] = aggregate.value(first.fraction());
+                _notes.add(String.format("Accuracy of %s: %s",
+                                         aggregate.name(),
+                                         aggregate.accuracy(
+                                             first.fraction())));
+            }
+            if (limit != 0) {
+                table.add(new Row(values));
+            }
+        }
+        return table;
+    }
+
+    /** Parse the rest of a call of the aggregate FUNCTION, following its
+     *  name, from the token stream, and return the unresolved
+     *  Aggregate. */
+    private Aggregate aggregate(String function) {
+        _input.next("(");
+        Column column = null;
+        double q = 0;
+        if (function.equals("approx_count")) {
+            _input.next("*");
+        } else {
+            column = columnSelector();
+            if (function.equals("approx_quantile")) {
+                _input.next(",");
+                q = decimal();
+            }
+        }
+        _input.next(")");
+        return new Aggregate(function, column, q);
+    }
+
+    /** Parse an optional sample clause from the token stream, and make IT
+     *  return the sample of its rows that it describes: with
+     *  'sample P%', each row is chosen with probability P percent, and
+     *  with 'sample P% seed S', the choice is the same each time for the
+     *  same S. */
+    private void sampleClause(TableIterator it) {
+        if (_input.nextIf("sample")) {
+            double percent = decimal();
+            _input.next("%");
+            Random random =
+                _input.nextIf("seed") ? new Random(number()) : new Random();
+            it.sample(percent / 100, random);
+        }
+    }
+
+    /** Parse an unsigned decimal number, with or without a fractional
+     *  part, and return its value. */
+    private double decimal() {
+        String num = _input.next(Tokenizer.NUMBER);
+        if (_input.nextIf(".")) {
+            num += "." + _input.next(Tokenizer.NUMBER);
+        }
+        return Double.parseDouble(num);
+    }
+
+    /** Return true iff COLUMNS, which are resolved against ITERATORS,
+     *  include the primary key of the table of each of ITERATORS.  The
+     *  rows selected by such COLUMNS are then distinct: each comes from
+     *  a different combination of rows of the tables, and so differs
+     *  from the others in the key of at least one table. */
+    private boolean coversKeys(List<Column> columns,
+                               List<TableIterator> iterators) {
+        for (TableIterator it : iterators) {
+            int[] key = it.table().key();
+            if (key == null) {
+                return false;
+            }
+            for (int c : key) {
+                boolean found = false;
+                for (Column column : columns) {
+                    if (column.source() == it && column.index() == c) {
+                        found = true;
+                        break;
+                    }
+                }
+                if (!found) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    /** Parse and return a valid name (identifier) from the token stream.
+     *  The identifier need not have a meaning. */
+    String name() {
+        return _input.next(Tokenizer.IDENTIFIER);
+    }
+
+    /** Parse valid column designation (name or table.name), and
+     *  return as an unresolved Column. */
+    Column columnSelector() {
+        return columnSelector(name());
+    }
+
+    /** Parse the rest of a column designation whose first name, NAME,
+     *  has just been read, and return it as an unresolved Column. */
+    private Column columnSelector(String name) {
+        Table table = null;
+        if (_input.nextIf(".")) {
+            table = _database.get(name);
+            name = name();
+        }
+        return new Column(table, name);
+    }
+
+    /** Parse and return a column designator, after resolving against
+     *  ITERATORS. */
+    Column columnSelector(List<TableIterator> iterators) {
+        Column col = columnSelector();
+        col.resolve(iterators);
+        return col;
+    }
+
+    /** Parse a valid table name from the token stream, and return the Table
+     *  that it designates, which must be loaded. */
+    Table tableName() {
+        String name = name();
+        Table table = _database.get(name);
+        if (table == null) {
+            throw error("unknown table: %s", name);
+        }
+        _memory.use(table);
+        return table;
+    }
+
+    /** Parse a literal and return the string it represents (i.e., without
+     *  single quotes). */
+    String literal() {
+        String lit = _input.next(Tokenizer.LITERAL);
+        return lit.substring(1, lit.length() - 1).trim();
+    }
+
+    /** Parse an unsigned integer and return its value. */
+    int number() {
+        String num = _input.next(Tokenizer.NUMBER);
+        try {
+            return Integer.parseInt(num);
+        } catch (NumberFormatException e) {
+            throw error("number too large: %s", num);
+        }
+    }
+
+    /** Parse and return a list of Conditions that apply to TABLES from the
+     *  token stream.  This denotes the conjunction (`and') of zero
+     *  or more Conditions.  Resolves all Columns within the clause
+     *  against ITERATORS. */
+    List<Condition> conditionClause(List<TableIterator> iterators) {
+        List<Condition> conditions = new ArrayList<Condition>();
+        if (_input.nextIf("where")) {
+            conditions.add(condition(iterators));
+            while (_input.nextIf("and")) {
+                conditions.add(condition(iterators));
+            }
+        }
+        return conditions;
+    }
+
+    /** Parse and return the Ordering given by an optional order clause
+     *  from the token stream (an empty Ordering if there is none).  Each
+     *  sort column is either one of the selected COLUMNS, named by its
+     *  displayed name, or a column designator, which is resolved against
+     *  ITERATORS. */
+    Ordering orderClause(List<Column> columns,
+                         List<TableIterator> iterators) {
+        Ordering ordering = new Ordering();
+        if (_input.nextIf("order")) {
+            _input.next("by");
+            do {
+                Column column = sortColumn(columns, iterators);
+                boolean descending = _input.nextIf("desc");
+                if (!descending) {
+                    _input.nextIf("asc");
+                }
+                ordering.add(column, descending);
+            } while (_input.nextIf(","));
+        }
+        return ordering;
+    }
+
+    /** Parse and return one resolved sort column of an order clause, as
+     *  for orderClause(COLUMNS, ITERATORS). */
+    private Column sortColumn(List<Column> columns,
+                              List<TableIterator> iterators) {
+        String name = name();
+        Column column;
+        if (_input.nextIf(".")) {
+            column = new Column(_database.get(name), name());
+        } else {
+            for (Column selected : columns) {
+                if (selected.name().equals(name)) {
+                    return selected;
+                }
+            }
+            column = new Column(null, name);
+        }
+        column.resolve(iterators);
+        return column;
+    }
+
+    /** Parse an optional limit clause from the token stream, returning
+     *  the maximum number of rows it allows, or -1 if there is none. */
+    int limitClause() {
+        if (_input.nextIf("limit")) {
+            return number();
+        }
+        return -1;
+    }
+
+    /** Parse and return a Condition that applies to ITERATORS from the
+     *  token stream.  A condition of the form COL [not] in (QUERY) runs
+     *  QUERY once, here, and is tested by looking up each value of COL
+     *  in a hash set of its results, making a semi-join (or, with
+     *  'not', an anti-join) of the current tables with QUERY.  A
+     *  condition COL like 'PATTERN' matches values against PATTERN (see
+     *  LikePattern). */
+    Condition condition(List<TableIterator> iterators) {
+        Column col1 = columnSelector(iterators);
+        if (_input.nextIs("in") || _input.nextIs("not")) {
+            boolean negated = _input.nextIf("not");
+            _input.next("in");
+            _input.next("(");
+            Table subquery = query("");
+            _input.next(")");
+            return new Condition(col1, values(subquery), negated);
+        }
+        String relation = _input.next();
+
+        Column col2;
+        if (_input.peek().startsWith("'")) {
+            col2 = new Literal(literal());
+        } else {
+            col2 = columnSelector(iterators);
+        }
+
+        return new Condition(col1, relation, col2);
+    }
+
+    /** Return the set of values in TABLE, which must have one column. */
+    private Set<String> values(Table table) {
+        if (table.numColumns() != 1) {
+            throw error("subquery must select one column");
+        }
+        Set<String> values = new HashSet<String>(2 * table.size());
+        for (Row row : table) {
+            values.add(row.get(0));
+        }
+        return values;
+    }
+
+    /** Fill TABLE with the result of selecting COLUMNS from the rows returned
+     *  by ITERATORS that satisfy CONDITIONS, in the order given by ORDERING
+     *  (if it is not empty), keeping at most LIMIT rows (if LIMIT is not
+     *  negative).  ITERATORS must have size 1 or 2.  All selected Columns
+     *  and all Columns mentioned in CONDITIONS and ORDERING must be
+     *  resolved to iterators listed among ITERATORS.  The number of
+     *  COLUMNS must equal TABLE.columns().  If DISTINCT, the selected rows
+     *  are known to differ (see coversKeys), and are added without
+     *  checking for duplicates.  If AGGREGATES is not null, each selected
+     *  row is instead added to each of AGGREGATES, which must be resolved
+     *  like COLUMNS, and TABLE is left unchanged.
+     *
+     *  Without an ordering, the scan stops as soon as LIMIT rows have been
+     *  added.  With one, only the first LIMIT rows seen so far are retained
+     *  (see SortedRows) and TABLE is filled in order at the end.
+     *
+     *  Bloom filters on the input tables let us skip work that cannot
+     *  produce rows: the whole select, when a column is compared for
+     *  equality with a value that its table does not contain, and the
+     *  scan of the second table for a row of the first, when the two are
+     *  joined on equal columns and the second table does not contain the
+     *  value of the first's column.  Each scan also skips blocks of rows
+     *  that its Table's ZoneMap shows cannot satisfy CONDITIONS.
+     *
+     *  Two tables are joined by nested loops, or, if one of CONDITIONS
+     *  compares a column of each, by a join that uses it: an adaptive
+     *  hash join (see HashJoin) if it is an equality and the tables are
+     *  not both in order by those columns, and otherwise a merge join
+     *  (see MergeJoin) if that is cheaper.
+     *
+     *  The scan polls Cancellation for each row, and may be abandoned
+     *  with TABLE partly filled, in which case TABLE must be discarded. */
+    private void select(Table table, ArrayList<Column> columns,
+                        List<Aggregate> aggregates,
+                        List<TableIterator> iterators,
+                        List<Condition> conditions,
+                        Ordering ordering, int limit, boolean distinct) {
+        SortedRows sorted = ordering.size() == 0 ? null
+            : new SortedRows(ordering, limit, distinct);
+        if (sorted == null && limit == 0) {
+            return;
+        }
+
+        if (excludedByFilters(conditions)) {
+            return;
+        }
+        for (TableIterator it : iterators) {
+            it.restrict(conditions);
+        }
+
+        TableIterator i1 = iterators.get(0);
+        TableIterator i2 = null;
+        Column[] join = null;
+        HashJoin hash = null;
+        MergeJoin merge = null;
+        if (iterators.size() == 2) {
+            i2 = iterators.get(1);
+            join = joinColumns(conditions, i1, i2);
+            hash = HashJoin.plan(conditions, i1, i2);
+            if (hash == null) {
+                merge = MergeJoin.plan(conditions, i1, i2);
+            }
+        }
+
+        try {
+            if (hash != null) {
+                if (!hash.run(() -> emit(table, columns, aggregates,
+                                         conditions, sorted, limit,
+                                         distinct))) {
+                    return;
+                }
+            } else if (merge != null) {
+                if (!merge.run(() -> emit(table, columns, aggregates,
+                                          conditions, sorted, limit,
+                                          distinct))) {
+                    return;
+                }
+            } else {
+                while (i1.hasRow()) {
+                    Cancellation.poll();
+                    if (i2 == null) {
+                        if (!emit(table, columns, aggregates, conditions,
+                                  sorted, limit, distinct)) {
+                            return;
+                        }
+                    } else if (join == null
+                               || i2.table().mightContain(join[1].index(),
+                                                          join[0].value())) {
+                        while (i2.hasRow()) {
+                            Cancellation.poll();
+                            if (!emit(table, columns, aggregates, conditions,
+                                      sorted, limit, distinct)) {
+                                return;
+                            }
+                            i2.next();
+                        }
+                        i2.reset();
+                    }
+                    i1.next();
+                }
+            }
+        } finally {
+            for (TableIterator it : iterators) {
+                Stats.count(Stats.ROWS_SCANNED, it.rowsRead());
+            }
+            if (_joins != null && i2 != null) {
+                _joins.add(hash != null ? hash.toString()
+                           : merge != null ? merge.toString()
+                           : "nested loop join");
+            }
+        }
+        if (sorted != null) {
+            sorted.addTo(table);
+        }
+    }
+
+    /** Return true iff one of CONDITIONS requires a column to equal a
+     *  literal value that, according to its table's Bloom filter, no row
+     *  contains. */
+    private boolean excludedByFilters(List<Condition> conditions) {
+        for (Condition condition : conditions) {
+            Column col1 = condition.column1(), col2 = condition.column2();
+            if (condition.isEquality() && col2 instanceof Literal
+                && !col1.source().table().mightContain(col1.index(),
+                                                       col2.value())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /** Return the columns {C1, C2} of the first of CONDITIONS that
+     *  requires a column C1 of the current row of OUTER to equal a column
+     *  C2 of INNER, or null if there is no such condition. */
+    private Column[] joinColumns(List<Condition> conditions,
+                                 TableIterator outer, TableIterator inner) {
+        for (Condition condition : conditions) {
+            Column col1 = condition.column1(), col2 = condition.column2();
+            if (!condition.isEquality()) {
+                continue;
+            }
+            if (col1.source() == outer && col2.source() == inner) {
+                return new Column[] { col1, col2 };
+            } else if (col1.source() == inner && col2.source() == outer) {
+                return new Column[] { col2, col1 };
+            }
+        }
+        return null;
+    }
+
+    /** If the current rows satisfy CONDITIONS, add them to each of
+     *  AGGREGATES, if it is not null, and otherwise form a row from
+     *  COLUMNS and add it to SORTED, or directly to TABLE if SORTED is
+     *  null, without checking for duplicates if DISTINCT.  Return false
+     *  iff TABLE now holds LIMIT rows, so that no more need be
+     *  selected. */
+    private boolean emit(Table table, List<Column> columns,
+                         List<Aggregate> aggregates,
+                         List<Condition> conditions, SortedRows sorted,
+                         int limit, boolean distinct) {
+        if (Condition.test(conditions)) {
+            Stats.count(Stats.ROWS_EMITTED);
+            if (aggregates != null) {
+                for (Aggregate aggregate : aggregates) {
+                    aggregate.add();
+                }
+                return true;
+            }
+            Row row = new Row(columns);
+            if (sorted != null) {
+                sorted.add(row, sorted.ordering().key());
+            } else if (distinct) {
+                table.addDistinct(row);
+                if (table.size() == limit) {
+                    return false;
+                }
+            } else if (table.add(row) && table.size() == limit) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** Write back the contents of all tables kept outside memory. */
+    void close() {
+        try {
+            finishStores();
+        } finally {
+            _cluster.stop();
+            _replication.stop();
+            for (Table table : _database.values()) {
+                table.close();
+            }
+        }
+    }
+
+    /** Advance the input past the next semicolon, unless the current
+     *  statement has already read its own, as when it failed while being
+     *  executed rather than parsed. */
+    void skipCommand() {
+        if (_input.position() > _start && _input.previous().equals(";")) {
+            return;
+        }
+        while (true) {
+            try {
+                while (!_input.nextIf(";") && !_input.nextIf("*EOF*")) {
+                    _input.next();
+                }
+                return;
+            } catch (DBException excp) {
+                /* No action */
+            }
+        }
+    }
+
+    /** The command input source. */
+    private Tokenizer _input;
+    /** Position in _input of the start of the current statement. */
+    private int _start;
+    /** Database containing all tables. */
+    private Map<String, Table> _database;
+    /** Buffer pool caching the pages of paged tables. */
+    private BufferPool _pool;
+    /** Limit on the memory taken by the tables of _database. */
+    private MemoryBudget _memory;
+    /** Worker processes holding distributed tables. */
+    private Cluster _cluster;
+    /** Read replicas following the changes to the database. */
+    private Replication _replication;
+    /** When explaining a statement, the scans it has performed so far;
+     *  otherwise null. */
+    private List<TableIterator> _scans;
+    /** When explaining a statement, descriptions of the joins it has
+     *  performed so far; otherwise null. */
+    private List<String> _joins;
+    /** Materialized views, by name. */
+    private Map<String, View> _views;
+    /** The materialized view to be defined by the next select clause,
+     *  or null. */
+    private View _view;
+    /** Notes on the accuracy of the approximate aggregates selected by
+     *  the current statement, to be printed with its results. */
+    private List<String> _notes = new ArrayList<String>();
+    /** Background stores not yet reported, by table name, in the order
+     *  begun. */
+    private Map<String, Future<Long>> _stores =
+        new LinkedHashMap<String, Future<Long>>();
+    /** Thread on which background stores run, created when first
+     *  needed. */
+    private ExecutorService _storer;
+}
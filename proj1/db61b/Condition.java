@@ -1,84 +1,216 @@
-package db61b;
-
-import java.util.List;
-
-import static db61b.Utils.*;
-
-/** Represents a single 'where' condition in a 'select' command.
- *  @author Qi Liu
- */
-class Condition {
-
-    /** Internally, we represent our relation as a 3-bit value whose
-     *  bits denote whether the relation allows the left value to be
-     *  greater than the right (GT), equal to it (EQ),
-     *  or less than it (LT). */
-    private static final int GT = 1, EQ = 2, LT = 4;
-
-    /** A Condition representing COL1 RELATION COL2, where COL1 and COL2
-     *  are column designators. and RELATION is one of the
-     *  strings "<", ">", "<=", ">=", "=", or "!=". */
-    Condition(Column col1, String relation, Column col2) {
-        _col1 = col1;
-        _col2 = col2;
-        switch (relation) {
-        case "<":
-            _relation = LT;
-            break;
-        case ">":
-            _relation = GT;
-            break;
-        case "<=":
-            _relation = GT + EQ;
-            break;
-        case ">=":
-            _relation = LT + EQ;
-            break;
-        case "=":
-            _relation = EQ;
-            break;
-        case "!=":
-            _relation = GT + LT;
-            break;
-        default:
-            throw error("Invalid relation input: %s", relation);
-        }
-    }
-
-    /** A Condition representing COL1 RELATION 'VAL2', where COL1 is
-     *  a column designator, VAL2 is a literal value (without the
-     *  quotes), and RELATION is one of the strings "<", ">", "<=",
-     *  ">=", "=", or "!=".
-     */
-    Condition(Column col1, String relation, String val2) {
-        this(col1, relation, new Literal(val2));
-    }
-
-    /** Assuming that ROWS are rows from the respective tables from which
-     *  my columns are selected, returns the result of performing the test I
-     *  denote. */
-    boolean test() {
-        int result = _col1.value().compareTo(_col2.value());
-        if (result < 0 && (_relation & LT) == LT
-            || result == 0 && (_relation & EQ) == EQ
-            || result > 0 && (_relation & GT) == GT) {
-            return true;
-        }
-        return false;
-    }
-
-    /** Return true iff all CONDITIONS are satified. */
-    static boolean test(List<Condition> conditions) {
-        for (Condition condition : conditions) {
-            if (!condition.test()) {
-                return false;
-            }
-        }
-        return true;
-    }
-
-    /** The relation represented by this condition. */
-    private int _relation;
-    /** The columns to be compared. */
-    private Column _col1, _col2;
-}
+package db61b;
+
+import java.util.List;
+import java.util.Set;
+
+import static db61b.Utils.*;
+
+/** Represents a single 'where' condition in a 'select' command.
+ *  @author Qi Liu
+ */
+class Condition {
+
+    /** Internally, we represent our relation as a 3-bit value whose
+     *  bits denote whether the relation allows the left value to be
+     *  greater than the right (GT), equal to it (EQ),
+     *  or less than it (LT). */
+    private static final int GT = 1, EQ = 2, LT = 4;
+
+    /** A Condition representing COL1 RELATION COL2, where COL1 and COL2
+     *  are column designators. and RELATION is one of the
+     *  strings "<", ">", "<=", ">=", "=", or "!=", or "like", in which
+     *  case COL2 must be a Literal holding the pattern (see
+     *  LikePattern), which is compiled here. */
+    Condition(Column col1, String relation, Column col2) {
+        _col1 = col1;
+        _col2 = col2;
+        switch (relation) {
+        case "like":
+            if (!(col2 instanceof Literal)) {
+                throw error("like requires a literal pattern");
+            }
+            _like = new LikePattern(col2.value());
+            break;
+        case "<":
+            _relation = LT;
+            break;
+        case ">":
+            _relation = GT;
+            break;
+        case "<=":
+            _relation = LT + EQ;
+            break;
+        case ">=":
+            _relation = GT + EQ;
+            break;
+        case "=":
+            _relation = EQ;
+            break;
+        case "!=":
+            _relation = GT + LT;
+            break;
+        default:
+            throw error("Invalid relation input: %s", relation);
+        }
+    }
+
+    /** A Condition representing COL1 RELATION 'VAL2', where COL1 is
+     *  a column designator, VAL2 is a literal value (without the
+     *  quotes), and RELATION is one of the strings "<", ">", "<=",
+     *  ">=", "=", "!=", or "like".
+     */
+    Condition(Column col1, String relation, String val2) {
+        this(col1, relation, new Literal(val2));
+    }
+
+    /** A Condition representing COL1 in (VALUES), where VALUES are the
+     *  results of a subquery, or if NEGATED, COL1 not in (VALUES).  It
+     *  is tested by looking up the value of COL1 in VALUES, which should
+     *  therefore be a hash set. */
+    Condition(Column col1, Set<String> values, boolean negated) {
+        _col1 = col1;
+        _members = values;
+        _negated = negated;
+    }
+
+    /** Assuming that ROWS are rows from the respective tables from which
+     *  my columns are selected, returns the result of performing the test I
+     *  denote. */
+    boolean test() {
+        Stats.count(Stats.CONDITIONS);
+        if (_members != null) {
+            return _members.contains(_col1.value()) != _negated;
+        }
+        if (_like != null) {
+            return _like.matches(_col1.value());
+        }
+        int result = _col1.value().compareTo(_col2.value());
+        if (result < 0 && (_relation & LT) == LT
+            || result == 0 && (_relation & EQ) == EQ
+            || result > 0 && (_relation & GT) == GT) {
+            return true;
+        }
+        return false;
+    }
+
+    /** Return true iff I compare a column with a literal value, so that
+     *  mayMatch may be used. */
+    boolean hasLiteral() {
+        return _col2 instanceof Literal;
+    }
+
+    /** Return true iff I test membership in the results of a
+     *  subquery. */
+    boolean isMembership() {
+        return _members != null;
+    }
+
+    /** Assuming that I compare a column with a literal, return false if
+     *  no row in block #BLOCK of ZONES can satisfy me, and true if some
+     *  may. */
+    boolean mayMatch(ZoneMap zones, int block) {
+        String value = _col2.value();
+        String min = zones.min(block, _col1.index()),
+            max = zones.max(block, _col1.index());
+        if (_like != null) {
+            String upper = _like.upperBound();
+            return max.compareTo(_like.prefix()) >= 0
+                && (upper == null || min.compareTo(upper) < 0);
+        }
+        int possible = 0;
+        if (min.compareTo(value) < 0) {
+            possible |= LT;
+        }
+        if (max.compareTo(value) > 0) {
+            possible |= GT;
+        }
+        if (min.compareTo(value) <= 0 && max.compareTo(value) >= 0) {
+            possible |= EQ;
+        }
+        return (possible & _relation) != 0;
+    }
+
+    /** Assuming that I compare a column with a literal, return false if
+     *  no value that is at least LOW and less than HIGH can satisfy me,
+     *  and true if some may.  A null LOW or HIGH leaves the range
+     *  unbounded on that side. */
+    boolean mayMatch(String low, String high) {
+        if (_like != null) {
+            String upper = _like.upperBound();
+            return (high == null || high.compareTo(_like.prefix()) > 0)
+                && (low == null || upper == null || low.compareTo(upper) < 0);
+        }
+        String value = _col2.value();
+        int possible = 0;
+        if (low == null || low.compareTo(value) < 0) {
+            possible |= LT;
+        }
+        if (high == null || high.compareTo(value) > 0) {
+            possible |= GT;
+        }
+        if ((low == null || low.compareTo(value) <= 0)
+            && (high == null || high.compareTo(value) > 0)) {
+            possible |= EQ;
+        }
+        return (possible & _relation) != 0;
+    }
+
+    /** Return the text that every value satisfying me must start with,
+     *  if I am a like relation, or null otherwise. */
+    String prefix() {
+        return _like == null ? null : _like.prefix();
+    }
+
+    /** Return true iff I compare my columns for equality. */
+    boolean isEquality() {
+        return _relation == EQ;
+    }
+
+    /** Return true iff I compare my columns with <, <=, >, or >=. */
+    boolean isInequality() {
+        return _relation != 0 && _relation != EQ && _relation != LT + GT;
+    }
+
+    /** Return true iff I am satisfied when my left column is less than
+     *  my right. */
+    boolean allowsLess() {
+        return (_relation & LT) != 0;
+    }
+
+    /** Return true iff I am satisfied when my columns are equal. */
+    boolean allowsEqual() {
+        return (_relation & EQ) != 0;
+    }
+
+    /** Return my left column. */
+    Column column1() {
+        return _col1;
+    }
+
+    /** Return my right column, or null if I test membership. */
+    Column column2() {
+        return _col2;
+    }
+
+    /** Return true iff all CONDITIONS are satified. */
+    static boolean test(List<Condition> conditions) {
+        for (Condition condition : conditions) {
+            if (!condition.test()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** The relation represented by this condition. */
+    private int _relation;
+    /** The columns to be compared. */
+    private Column _col1, _col2;
+    /** For a membership test, the values of the subquery, and otherwise
+     *  null. */
+    private Set<String> _members;
+    /** True iff I am satisfied by values not in _members. */
+    private boolean _negated;
+    /** For a like relation, the compiled pattern, and otherwise null. */
+    private LikePattern _like;
+}
@@ -0,0 +1,203 @@
+package db61b;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+
+import static db61b.Utils.*;
+
+/** A whole database saved as one binary file (an image), which may be
+ *  read back much faster than the same tables in .db files.
+ *
+ *  An image holds a section for each table, followed by a directory of
+ *  the sections' positions.  A section holds the table's name, its
+ *  column titles, its number of rows, and then its values, row by row.
+ *  Each string is written as a 4-byte length followed by that many
+ *  bytes of UTF-8.  The file ends with the position of the directory.
+ *
+ *  Reading maps each section into memory and decodes the sections on
+ *  several threads at once.  Since the rows of a saved table are known
+ *  to be distinct, they are stored without checking for duplicates.
+ *  @author Qi Liu
+ */
+class DatabaseImage {
+
+    /** First 4 bytes of an image ("DB6I"). */
+    static final int MAGIC = 0x44423649;
+    /** Version of the image format. */
+    static final int VERSION = 1;
+
+    /** Write the tables of DATABASE, in order of name, as an image into
+     *  FILE, replacing it, and return the image's size in bytes.  Any
+     *  I/O errors cause a DBException. */
+    static long write(Map<String, Table> database, String file) {
+        File image = new File(file), temp = new File(file + ".tmp");
+        Map<String, Table> tables = new TreeMap<String, Table>(database);
+        long[] sections = new long[tables.size()];
+        long size;
+        try (FileOutputStream stream = new FileOutputStream(temp)) {
+            DataOutputStream out =
+                new DataOutputStream(new BufferedOutputStream(stream));
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            int t = 0;
+            for (Map.Entry<String, Table> entry : tables.entrySet()) {
+                out.flush();
+                sections[t] = stream.getChannel().position();
+                t += 1;
+                writeTable(entry.getKey(), entry.getValue(), out);
+            }
+            out.flush();
+            long directory = stream.getChannel().position();
+            out.writeInt(sections.length);
+            for (long section : sections) {
+                out.writeLong(section);
+            }
+            out.writeLong(directory);
+            out.flush();
+            size = stream.getChannel().position();
+        } catch (IOException e) {
+            temp.delete();
+            throw error("trouble writing to %s", file);
+        }
+        replaceFile(temp, image);
+        Stats.count(Stats.BYTES_WRITTEN, size);
+        return size;
+    }
+
+    /** Return the tables in the image FILE, by name, in order of name.
+     *  Any I/O errors, or a FILE that is not an image, cause a
+     *  DBException. */
+    static Map<String, Table> read(String file) {
+        List<Callable<Table>> tasks = new ArrayList<Callable<Table>>();
+        try (FileChannel channel =
+                 FileChannel.open(new File(file).toPath(),
+                                  StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size < 16) {
+                throw error("%s is not a database image", file);
+            }
+            ByteBuffer header =
+                channel.map(FileChannel.MapMode.READ_ONLY, 0, 8);
+            if (header.getInt() != MAGIC || header.getInt() != VERSION) {
+                throw error("%s is not a database image", file);
+            }
+            long directory =
+                channel.map(FileChannel.MapMode.READ_ONLY, size - 8, 8)
+                .getLong();
+            if (directory < 8 || directory > size - 12) {
+                throw error("%s is damaged", file);
+            }
+            ByteBuffer entries =
+                channel.map(FileChannel.MapMode.READ_ONLY, directory,
+                            size - 8 - directory);
+            int n = entries.getInt();
+            if (entries.remaining() != 8L * n) {
+                throw error("%s is damaged", file);
+            }
+            long[] sections = new long[n + 1];
+            for (int t = 0; t < n; t += 1) {
+                sections[t] = entries.getLong();
+            }
+            sections[n] = directory;
+            for (int t = 0; t < n; t += 1) {
+                long start = sections[t], end = sections[t + 1];
+                if (start < 8 || end < start
+                    || end - start > Integer.MAX_VALUE) {
+                    throw error("%s is damaged", file);
+                }
+                ByteBuffer section =
+                    channel.map(FileChannel.MapMode.READ_ONLY, start,
+                                end - start);
+                tasks.add(() -> readTable(section, file));
+            }
+            Stats.count(Stats.BYTES_READ, size);
+        } catch (IOException e) {
+            throw error("problem reading from %s", file);
+        }
+        List<DBException> failures = new ArrayList<DBException>();
+        List<Table> tables = inParallel(tasks, failures);
+        if (!failures.isEmpty()) {
+            throw failures.get(0);
+        }
+        Map<String, Table> result = new LinkedHashMap<String, Table>();
+        for (Table table : tables) {
+            result.put(table.name(), table);
+        }
+        return result;
+    }
+
+    /** Write the section for TABLE, named NAME, to OUT. */
+    private static void writeTable(String name, Table table,
+                                   DataOutputStream out) throws IOException {
+        writeString(name, out);
+        out.writeInt(table.numColumns());
+        for (int k = 0; k < table.numColumns(); k += 1) {
+            writeString(table.title(k), out);
+        }
+        out.writeInt(table.size());
+        for (Row row : table) {
+            for (int k = 0; k < row.size(); k += 1) {
+                writeString(row.get(k), out);
+            }
+        }
+    }
+
+    /** Return the table whose section is SECTION, part of the image
+     *  FILE. */
+    private static Table readTable(ByteBuffer section, String file) {
+        try {
+            String name = readString(section);
+            String[] titles = new String[section.getInt()];
+            for (int k = 0; k < titles.length; k += 1) {
+                titles[k] = readString(section);
+            }
+            int rows = section.getInt();
+            MemoryStore store = new MemoryStore();
+            for (int r = 0; r < rows; r += 1) {
+                String[] values = new String[titles.length];
+                for (int k = 0; k < values.length; k += 1) {
+                    values[k] = readString(section);
+                }
+                store.add(new Row(values));
+            }
+            Table table = new Table(name, titles, store);
+            table.buildFilters();
+            return table;
+        } catch (RuntimeException e) {
+            if (e instanceof DBException) {
+                throw e;
+            }
+            throw error("%s is damaged", file);
+        }
+    }
+
+    /** Write S to OUT as its length followed by its UTF-8 bytes. */
+    private static void writeString(String s, DataOutputStream out)
+        throws IOException {
+        byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    /** Return the string written by writeString at the position of
+     *  BUF, advancing past it. */
+    private static String readString(ByteBuffer buf) {
+        byte[] bytes = new byte[buf.getInt()];
+        buf.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+}
@@ -0,0 +1,94 @@
+package db61b;
+
+import java.util.Arrays;
+import java.util.function.IntPredicate;
+
+/** A multimap from hash codes to row numbers, used to find rows with a
+ *  given content without scanning a Table.  The index does not hold the
+ *  rows themselves: a lookup yields the numbers of the rows whose hash
+ *  codes match, and the caller checks which of those (if any) actually
+ *  matches.  Entries are kept in two parallel arrays under open
+ *  addressing with linear probing, so each costs 8 bytes of array
+ *  space, however large the rows are and wherever they are stored.
+ *  @author Qi Liu
+ */
+class HashIndex {
+
+    /** An empty index. */
+    HashIndex() {
+        allocate(INITIAL_CAPACITY);
+    }
+
+    /** Return the number of entries in me. */
+    int size() {
+        return _size;
+    }
+
+    /** Return an estimate of the memory I take, in bytes. */
+    long bytes() {
+        return 24 + 2 * Row.align(16 + 4L * _rows.length);
+    }
+
+    /** Record that row #ROW has hash code HASH. */
+    void put(int hash, int row) {
+        if (2 * (_size + 1) > _rows.length) {
+            rehash(2 * _rows.length);
+        }
+        int s = slot(hash);
+        while (_rows[s] != EMPTY) {
+            s = (s + 1) & (_rows.length - 1);
+        }
+        _hashes[s] = hash;
+        _rows[s] = row;
+        _size += 1;
+    }
+
+    /** Return the number of the first row recorded with hash code HASH
+     *  that satisfies MATCHES, or -1 if there is none. */
+    int find(int hash, IntPredicate matches) {
+        for (int s = slot(hash); _rows[s] != EMPTY;
+             s = (s + 1) & (_rows.length - 1)) {
+            if (_hashes[s] == hash && matches.test(_rows[s])) {
+                return _rows[s];
+            }
+        }
+        return -1;
+    }
+
+    /** Return the slot at which to start probing for HASH. */
+    private int slot(int hash) {
+        int h = hash * 0x9E3779B9;
+        return (h ^ (h >>> 16)) & (_rows.length - 1);
+    }
+
+    /** Set me to be empty with CAPACITY slots, a power of 2. */
+    private void allocate(int capacity) {
+        _hashes = new int[capacity];
+        _rows = new int[capacity];
+        Arrays.fill(_rows, EMPTY);
+        _size = 0;
+    }
+
+    /** Move my entries into a table of CAPACITY slots. */
+    private void rehash(int capacity) {
+        int[] hashes = _hashes, rows = _rows;
+        allocate(capacity);
+        for (int s = 0; s < rows.length; s += 1) {
+            if (rows[s] != EMPTY) {
+                put(hashes[s], rows[s]);
+            }
+        }
+    }
+
+    /** Initial number of slots. */
+    private static final int INITIAL_CAPACITY = 16;
+    /** Marks an unused slot in _rows. */
+    private static final int EMPTY = -1;
+
+    /** Hash codes of my entries, by slot. */
+    private int[] _hashes;
+    /** Row numbers of my entries, by slot, or EMPTY. */
+    private int[] _rows;
+    /** Number of entries. */
+    private int _size;
+}
@@ -0,0 +1,398 @@
+package db61b;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.BiPredicate;
+import java.util.function.BooleanSupplier;
+
+import static db61b.Utils.*;
+
+/** An adaptive hash join of the rows of two TableIterators on a
+ *  condition requiring a column of each (the join columns) to be equal.
+ *  The iterator expected to return fewer rows (the build side) is
+ *  scanned first, and the number of each of its rows that satisfies
+ *  the conditions on it alone is entered in a hash table under its join
+ *  column.  The other (the probe side) is then scanned, and each of its
+ *  rows is paired with the rows of the build side listed under its join
+ *  column, which are made current in turn (see TableIterator.seek), so
+ *  that no rows are copied.
+ *
+ *  Since the estimate of each side is only the size of its Table, the
+ *  strategy is settled by what is actually seen while building:
+ *
+ *    If the build side turns out to have more rows than the spill limit
+ *    (see SetOperation.spillRows), the join becomes a grace hash join:
+ *    the build side, and then the rows of the probe side that its
+ *    Table's Bloom filter does not rule out, are divided by join column
+ *    into partitions kept in temporary files, which are then joined one
+ *    pair at a time, so that only one partition of the build side need
+ *    be in memory at once.
+ *    If the build side turns out to be so small that looking up each of
+ *    its values in a prefix index the probe side's Table already has
+ *    (see Table.rowsWithPrefix) visits fewer rows than scanning the
+ *    probe side, the join becomes an index nested loop that does so,
+ *    and the probe side is never scanned.
+ *
+ *  The strategy used, and the size of the build side that determined
+ *  it, are given by toString, which explain reports.  Each loop polls
+ *  Cancellation for each row.  Temporary files are deleted even when a
+ *  join is abandoned.
+ *  @author Qi Liu
+ */
+class HashJoin {
+
+    /** Return a hash join of OUTER with INNER, which must already be
+     *  restricted, on the first of CONDITIONS that compares a column of
+     *  each for equality.  Return null if there is no such condition, or
+     *  if both Tables are already in order by their join columns, so
+     *  that a merge join (see MergeJoin) needs no hash table. */
+    static HashJoin plan(List<Condition> conditions,
+                         TableIterator outer, TableIterator inner) {
+        for (Condition condition : conditions) {
+            Column col1 = condition.column1(), col2 = condition.column2();
+            if (!condition.isEquality()
+                || !(col1.source() == outer && col2.source() == inner
+                     || col1.source() == inner && col2.source() == outer)) {
+                continue;
+            }
+            if (col1.source().table().isSortedOn(col1.index())
+                && col2.source().table().isSortedOn(col2.index())) {
+                return null;
+            }
+            if (col1.source() == inner) {
+                Column col = col1;
+                col1 = col2;
+                col2 = col;
+            }
+            if (estimate(outer) < estimate(inner)) {
+                return new HashJoin(outer, col1, inner, col2, conditions);
+            }
+            return new HashJoin(inner, col2, outer, col1, conditions);
+        }
+        return null;
+    }
+
+    /** A hash join building a hash table of the rows of BUILD under
+     *  their values of BUILDCOLUMN, and probing it with the rows of PROBE
+     *  under their values of PROBECOLUMN, where CONDITIONS are those of
+     *  the select. */
+    private HashJoin(TableIterator build, Column buildColumn,
+                     TableIterator probe, Column probeColumn,
+                     List<Condition> conditions) {
+        _build = build;
+        _buildColumn = buildColumn;
+        _probe = probe;
+        _probeColumn = probeColumn;
+        _buildConditions = new ArrayList<Condition>();
+        _probeConditions = new ArrayList<Condition>();
+        for (Condition condition : conditions) {
+            if (condition.hasLiteral()) {
+                TableIterator source = condition.column1().source();
+                if (source == build) {
+                    _buildConditions.add(condition);
+                } else if (source == probe) {
+                    _probeConditions.add(condition);
+                }
+            }
+        }
+    }
+
+    /** Make each pair of rows of my build and probe sides that have
+     *  equal join columns current in turn, and call EMIT for it,
+     *  stopping if EMIT returns false.  Return false iff it did.  Chooses
+     *  my strategy as described above. */
+    boolean run(BooleanSupplier emit) {
+        clear();
+        int limit = SetOperation.spillRows();
+        for (; _build.hasRow(); _build.next()) {
+            Cancellation.poll();
+            if (!Condition.test(_buildConditions)) {
+                continue;
+            }
+            if (_size == limit) {
+                return runPartitioned(emit);
+            }
+            add(_buildColumn.value(), _build.position());
+            _buildRows += 1;
+        }
+        if (useIndex()) {
+            _strategy = "index nested loop";
+            Stats.count(Stats.INDEX_JOINS);
+            return runIndexed(emit);
+        }
+        for (; _probe.hasRow(); _probe.next()) {
+            Cancellation.poll();
+            if (!Condition.test(_probeConditions)) {
+                continue;
+            }
+            Integer entry = _heads.get(_probeColumn.value());
+            if (entry != null && !emitMatches(entry, emit)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** Return true iff my probe side's Table has a prefix index on its
+     *  join column that may be used in place of scanning it, and looking
+     *  up each of the values of my build side in it would visit fewer
+     *  rows than a scan. */
+    private boolean useIndex() {
+        Table table = _probe.table();
+        if (table.partitioning() != null || _probe.fraction() < 1
+            || !table.hasPrefixIndex(_probeColumn.index())) {
+            return false;
+        }
+        double n = table.size();
+        return _heads.size() * Math.max(1, Math.log(n) / Math.log(2)) < n;
+    }
+
+    /** Perform run as an index nested loop, given my complete hash
+     *  table, looking up each of its values in my probe side's prefix
+     *  index. */
+    private boolean runIndexed(BooleanSupplier emit) {
+        Table table = _probe.table();
+        int k = _probeColumn.index();
+        for (Map.Entry<String, Integer> entry : _heads.entrySet()) {
+            String value = entry.getKey();
+            for (int r : table.rowsWithPrefix(k, value)) {
+                Cancellation.poll();
+                if (table.value(r, k).equals(value)) {
+                    _probe.seek(r);
+                    if (!emitMatches(entry.getValue(), emit)) {
+                        return false;
+                    }
+                }
+            }
+        }
+        return true;
+    }
+
+    /** Perform run as a grace hash join, given my hash table as it is
+     *  when it first exceeds the spill limit, and my build side's
+     *  current row, the first not yet in it. */
+    private boolean runPartitioned(BooleanSupplier emit) {
+        int limit = SetOperation.spillRows();
+        int n = 2 * ((_build.table().size() - 1) / limit + 1);
+        _strategy = String.format("grace hash join of %d partitions", n);
+        Stats.count(Stats.GRACE_JOINS);
+        Stats.count(Stats.GRACE_PARTITIONS, n);
+        File[] builds = new File[n], probes = new File[n];
+        try {
+            DataOutputStream[] outs = open(builds);
+            try {
+                for (Map.Entry<String, Integer> entry : _heads.entrySet()) {
+                    for (int e = entry.getValue(); e >= 0; e = _links[e]) {
+                        write(outs, entry.getKey(), _rows[e]);
+                    }
+                }
+                for (; _build.hasRow(); _build.next()) {
+                    Cancellation.poll();
+                    if (Condition.test(_buildConditions)) {
+                        write(outs, _buildColumn.value(), _build.position());
+                        _buildRows += 1;
+                    }
+                }
+            } finally {
+                close(outs);
+            }
+            Table table = _build.table();
+            int k = _buildColumn.index();
+            outs = open(probes);
+            try {
+                for (; _probe.hasRow(); _probe.next()) {
+                    Cancellation.poll();
+                    String value = _probeColumn.value();
+                    if (Condition.test(_probeConditions)
+                        && table.mightContain(k, value)) {
+                        write(outs, value, _probe.position());
+                    }
+                }
+            } finally {
+                close(outs);
+            }
+            for (int p = 0; p < n; p += 1) {
+                clear();
+                read(builds[p], (value, row) -> {
+                    add(value, row);
+                    return true;
+                });
+                boolean finished = read(probes[p], (value, row) -> {
+                    Integer entry = _heads.get(value);
+                    if (entry == null) {
+                        return true;
+                    }
+                    _probe.seek(row);
+                    return emitMatches(entry, emit);
+                });
+                if (!finished) {
+                    return false;
+                }
+            }
+            return true;
+        } catch (IOException e) {
+            throw error("trouble with temporary files: %s", e.getMessage());
+        } finally {
+            delete(builds);
+            delete(probes);
+        }
+    }
+
+    /** Make each row of my build side in the list of my hash table
+     *  starting at ENTRY current in turn, and call EMIT for it, stopping
+     *  if EMIT returns false.  Return false iff it did. */
+    private boolean emitMatches(int entry, BooleanSupplier emit) {
+        for (int e = entry; e >= 0; e = _links[e]) {
+            Cancellation.poll();
+            _build.seek(_rows[e]);
+            if (!emit.getAsBoolean()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** Make my hash table empty. */
+    private void clear() {
+        _heads = new HashMap<String, Integer>();
+        _rows = new int[INITIAL_ENTRIES];
+        _links = new int[INITIAL_ENTRIES];
+        _size = 0;
+    }
+
+    /** Add row #ROW of my build side's Table to my hash table under
+     *  VALUE. */
+    private void add(String value, int row) {
+        if (_size == _rows.length) {
+            _rows = Arrays.copyOf(_rows, 2 * _size);
+            _links = Arrays.copyOf(_links, 2 * _size);
+        }
+        Integer head = _heads.put(value, _size);
+        _rows[_size] = row;
+        _links[_size] = head == null ? -1 : head;
+        _size += 1;
+    }
+
+    /** Return the estimated number of rows IT returns. */
+    private static double estimate(TableIterator it) {
+        return it.table().size() * it.fraction();
+    }
+
+    /** Create FILES.length new temporary files, storing them in FILES,
+     *  and return streams writing to them. */
+    private static DataOutputStream[] open(File[] files) throws IOException {
+        DataOutputStream[] outs = new DataOutputStream[files.length];
+        try {
+            for (int p = 0; p < files.length; p += 1) {
+                files[p] = File.createTempFile("db61b", ".join");
+                files[p].deleteOnExit();
+                outs[p] = new DataOutputStream(new BufferedOutputStream(
+                    new FileOutputStream(files[p])));
+            }
+        } catch (IOException e) {
+            close(outs);
+            throw e;
+        }
+        return outs;
+    }
+
+    /** Write VALUE and ROW to the stream of OUTS for the partition to
+     *  which VALUE belongs. */
+    private static void write(DataOutputStream[] outs, String value,
+                              int row) throws IOException {
+        int h = value.hashCode() * 0x9E3779B9;
+        DataOutputStream out = outs[Math.floorMod(h ^ (h >>> 16),
+                                                  outs.length)];
+        out.writeUTF(value);
+        out.writeInt(row);
+    }
+
+    /** Close OUTS, ignoring null elements. */
+    private static void close(DataOutputStream[] outs) throws IOException {
+        for (DataOutputStream out : outs) {
+            if (out != null) {
+                Stats.count(Stats.BYTES_WRITTEN, out.size());
+                out.close();
+            }
+        }
+    }
+
+    /** Call ACTION on each value and row written to FILE by write, in
+     *  order, stopping if it returns false.  Return false iff it did. */
+    private static boolean read(File file,
+                                BiPredicate<String, Integer> action)
+        throws IOException {
+        Stats.count(Stats.BYTES_READ, file.length());
+        try (DataInputStream in = new DataInputStream(
+                 new BufferedInputStream(new FileInputStream(file)))) {
+            while (true) {
+                String value;
+                try {
+                    value = in.readUTF();
+                } catch (EOFException e) {
+                    return true;
+                }
+                Cancellation.poll();
+                if (!action.test(value, in.readInt())) {
+                    return false;
+                }
+            }
+        }
+    }
+
+    /** Delete FILES, ignoring null elements. */
+    private static void delete(File[] files) {
+        for (File file : files) {
+            if (file != null) {
+                file.delete();
+            }
+        }
+    }
+
+    @Override
+    public String toString() {
+        return String.format("hash join on %s.%s = %s.%s, building %s"
+                             + " (%d rows)%s", _probe.table().name(),
+                             _probeColumn.name(), _build.table().name(),
+                             _buildColumn.name(), _build.table().name(),
+                             _buildRows,
+                             _strategy == null ? ""
+                             : ", switched to " + _strategy);
+    }
+
+    /** Initial length of the arrays of my hash table. */
+    private static final int INITIAL_ENTRIES = 16;
+
+    /** The iterators on my build and probe sides. */
+    private final TableIterator _build, _probe;
+    /** Their join columns. */
+    private final Column _buildColumn, _probeColumn;
+    /** The conditions comparing a column of each with a literal. */
+    private final List<Condition> _buildConditions, _probeConditions;
+    /** My hash table: the index in _rows of the last row entered under
+     *  each value of the build side's join column. */
+    private HashMap<String, Integer> _heads;
+    /** Numbers of the rows in my hash table, by entry, each followed
+     *  (in _links) by the index of the previous entry under the same
+     *  value, or -1. */
+    private int[] _rows, _links;
+    /** Number of entries in my hash table. */
+    private int _size;
+    /** Number of rows of the build side seen so far. */
+    private int _buildRows;
+    /** Description of the strategy I switched to, or null if I did
+     *  not. */
+    private String _strategy;
+}
@@ -0,0 +1,75 @@
+package db61b;
+
+/** A HyperLogLog sketch, which estimates the number of distinct strings
+ *  added to it in a fixed 4 KB, however many are added.
+ *
+ *  Each string is hashed to 64 bits.  The first PRECISION bits choose
+ *  one of 2^PRECISION registers, which keeps the greatest number of
+ *  leading zeros (plus one) seen in the remaining bits of the hashes
+ *  sent to it.  The estimate is a normalized harmonic mean of 2 raised
+ *  to the registers, with linear counting of the empty registers used
+ *  instead for small counts, where it is more accurate.  The relative
+ *  standard error is about 1.04 / sqrt(2^PRECISION), or 1.6%.
+ *  @author Qi Liu
+ */
+class HyperLogLog {
+
+    /** Number of bits of each hash that choose its register. */
+    static final int PRECISION = 12;
+
+    /** An empty sketch. */
+    HyperLogLog() {
+        _registers = new byte[1 << PRECISION];
+    }
+
+    /** Add VALUE to me. */
+    void add(String value) {
+        long hash = hash(value);
+        int register = (int) (hash >>> (64 - PRECISION));
+        int rank = Long.numberOfLeadingZeros((hash << PRECISION)
+                                             | (1L << (PRECISION - 1))) + 1;
+        if (rank > _registers[register]) {
+            _registers[register] = (byte) rank;
+        }
+    }
+
+    /** Return the estimated number of distinct values added to me. */
+    long estimate() {
+        int m = _registers.length, empty = 0;
+        double sum = 0;
+        for (byte rank : _registers) {
+            sum += Math.scalb(1.0, -rank);
+            if (rank == 0) {
+                empty += 1;
+            }
+        }
+        double alpha = 0.7213 / (1 + 1.079 / m);
+        double estimate = alpha * m * m / sum;
+        if (estimate <= 2.5 * m && empty > 0) {
+            estimate = m * Math.log((double) m / empty);
+        }
+        return Math.round(estimate);
+    }
+
+    /** Return the relative standard error of my estimates. */
+    static double standardError() {
+        return 1.04 / Math.sqrt(1 << PRECISION);
+    }
+
+    /** Return a 64-bit hash of VALUE whose bits are all well mixed. */
+    private static long hash(String value) {
+        long h = 0xcbf29ce484222325L;
+        for (int i = 0; i < value.length(); i += 1) {
+            h ^= value.charAt(i);
+            h *= 0x100000001b3L;
+        }
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        return h ^ (h >>> 33);
+    }
+
+    /** The greatest rank sent to each register, by register number. */
+    private final byte[] _registers;
+}
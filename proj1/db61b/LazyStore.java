@@ -0,0 +1,383 @@
+package db61b;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+import static db61b.Utils.*;
+
+/** A RowStore for a table loaded lazily from its .db file ('load T
+ *  lazy'), which keeps its values by column and reads each column from
+ *  the file only when it is first needed, so that a query touching a
+ *  few columns of a wide table reads and keeps only those.
+ *
+ *  Opening the file reads its header and builds an index of the offset
+ *  of each line, checking that each has one value per column, but
+ *  creates no values.  As in the files store writes, each line may end
+ *  with a comma following its last value.  The first reference to a
+ *  value of a column (see value) reads the whole column, by finding its
+ *  field in each line from the index, and decoding only that field.  A
+ *  request for whole rows (see get), or a change, reads all the columns
+ *  not yet read, and a change also detaches me from the file, after
+ *  which I am an ordinary columnar store in memory.  Until then, I
+ *  spill by discarding my columns, which are read again when next
+ *  needed.
+ *
+ *  Unlike a table loaded by Table.readTable, the rows of the file are
+ *  taken as they are, without checking for duplicates, which a file
+ *  written by store never has.  A column is read only if the file is
+ *  unchanged since it was opened.
+ *  @author Qi Liu
+ */
+class LazyStore implements RowStore {
+
+    /** Return a store for the rows in the file FILENAME, reading only its
+     *  header and the positions of its lines.  Format errors cause a
+     *  DBException. */
+    static LazyStore open(String fileName) {
+        File file = new File(fileName);
+        long modified = file.lastModified();
+        ByteBuffer data = map(file);
+        int p = lineEnd(data, 0);
+        if (p == 0 && data.limit() == 0) {
+            throw error("missing header in DB file");
+        }
+        String[] titles = decode(data, 0, p).split(",");
+        int[] offsets = new int[INITIAL_ROWS];
+        int size = 0;
+        p = next(data, p);
+        while (p < data.limit()) {
+            int end = lineEnd(data, p), commas = 0;
+            for (int i = p; i < end; i += 1) {
+                commas += data.get(i) == ',' ? 1 : 0;
+            }
+            if (commas == titles.length && data.get(end - 1) == ',') {
+                commas -= 1;
+            }
+            if (commas != titles.length - 1) {
+                throw error("#inputs in row does not match #columns");
+            }
+            if (size + 1 == offsets.length) {
+                offsets = Arrays.copyOf(offsets, 2 * offsets.length);
+            }
+            offsets[size] = p;
+            size += 1;
+            p = next(data, end);
+        }
+        offsets[size] = p;
+        Stats.count(Stats.BYTES_READ, data.limit());
+        return new LazyStore(file, modified, titles, offsets, size);
+    }
+
+    /** A store for the SIZE rows of FILE, last modified at MODIFIED,
+     *  with column titles TITLES, whose lines start at OFFSETS[0 ..
+     *  SIZE-1], with OFFSETS[SIZE] the end of the last. */
+    private LazyStore(File file, long modified, String[] titles,
+                      int[] offsets, int size) {
+        _file = file;
+        _modified = modified;
+        _length = file.length();
+        _titles = titles;
+        _offsets = offsets;
+        _size = size;
+        _columns = new String[titles.length][];
+    }
+
+    /** Return my column titles. */
+    String[] titles() {
+        return _titles;
+    }
+
+    /** Return the number of my columns that are in memory. */
+    int columnsRead() {
+        int n = 0;
+        for (String[] column : _columns) {
+            n += column == null ? 0 : 1;
+        }
+        return n;
+    }
+
+    @Override
+    public int size() {
+        return _size;
+    }
+
+    @Override
+    public Row get(int k) {
+        check(k);
+        readAll();
+        String[] values = new String[_columns.length];
+        for (int c = 0; c < values.length; c += 1) {
+            values[c] = _columns[c][k];
+        }
+        return new Row(values);
+    }
+
+    @Override
+    public String value(int k, int col) {
+        check(k);
+        return column(col)[k];
+    }
+
+    @Override
+    public void add(Row row) {
+        detach();
+        if (_size == _columns[0].length) {
+            for (int c = 0; c < _columns.length; c += 1) {
+                _columns[c] = Arrays.copyOf(_columns[c],
+                                            Math.max(INITIAL_ROWS, 2 * _size));
+            }
+        }
+        for (int c = 0; c < _columns.length; c += 1) {
+            _columns[c][_size] = row.get(c);
+            _bytes += valueBytes(row.get(c));
+        }
+        _size += 1;
+    }
+
+    @Override
+    public boolean set(int k, Row row) {
+        check(k);
+        detach();
+        for (int c = 0; c < _columns.length; c += 1) {
+            _bytes += valueBytes(row.get(c)) - valueBytes(_columns[c][k]);
+            _columns[c][k] = row.get(c);
+        }
+        return true;
+    }
+
+    @Override
+    public void clear() {
+        detach();
+        for (int c = 0; c < _columns.length; c += 1) {
+            _columns[c] = new String[INITIAL_ROWS];
+        }
+        _size = 0;
+        _bytes = 0;
+    }
+
+    /** Return my rows, reading first any columns not yet read. */
+    @Override
+    public List<Row> snapshot() {
+        List<Row> rows = new ArrayList<Row>(_size);
+        for (Row row : this) {
+            rows.add(row);
+        }
+        return rows;
+    }
+
+    /** Counts only the columns in memory, besides my line index. */
+    @Override
+    public long bytes() {
+        long bytes = 56 + _bytes;
+        if (_offsets != null) {
+            bytes += Row.align(16 + 4L * _offsets.length);
+        }
+        for (String[] column : _columns) {
+            if (column != null) {
+                bytes += Row.align(16 + 4L * column.length);
+            }
+        }
+        return bytes;
+    }
+
+    /** Discards my columns, if I am still backed by my file. */
+    @Override
+    public boolean spill() {
+        if (_file == null) {
+            return false;
+        }
+        Arrays.fill(_columns, null);
+        _bytes = 0;
+        _spilled = true;
+        return true;
+    }
+
+    @Override
+    public boolean isSpilled() {
+        return _spilled;
+    }
+
+    @Override
+    public Iterator<Row> iterator() {
+        return new Iterator<Row>() {
+            @Override
+            public boolean hasNext() {
+                return _k < _size;
+            }
+
+            @Override
+            public Row next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                _k += 1;
+                return get(_k - 1);
+            }
+
+            /** Number of the next row. */
+            private int _k;
+        };
+    }
+
+    @Override
+    public void close() {
+    }
+
+    @Override
+    public void free() {
+        Arrays.fill(_columns, null);
+        _offsets = null;
+        _file = null;
+        _size = 0;
+        _bytes = 0;
+    }
+
+    /** Return column #COL, reading it from my file if it is not in
+     *  memory. */
+    private String[] column(int col) {
+        String[] column = _columns[col];
+        if (column == null) {
+            column = read(col);
+            _columns[col] = column;
+            _spilled = false;
+        }
+        return column;
+    }
+
+    /** Return column #COL, as read from my file.  Each field ends at the
+     *  next comma, or for the last, at the end of its line, if that has
+     *  no final comma. */
+    private String[] read(int col) {
+        if (_file.lastModified() != _modified
+            || _file.length() != _length) {
+            throw error("%s has changed since it was loaded",
+                        _file.getName());
+        }
+        ByteBuffer data = map(_file);
+        String[] column = new String[Math.max(INITIAL_ROWS, _size)];
+        for (int k = 0; k < _size; k += 1) {
+            int p = _offsets[k];
+            for (int c = 0; c < col; c += 1) {
+                while (data.get(p) != ',') {
+                    p += 1;
+                }
+                p += 1;
+            }
+            int end = p, limit = lineEnd(data, p);
+            while (end < limit && data.get(end) != ',') {
+                end += 1;
+            }
+            column[k] = decode(data, p, end);
+            _bytes += valueBytes(column[k]);
+        }
+        Stats.count(Stats.BYTES_READ, _offsets[_size] - _offsets[0]);
+        return column;
+    }
+
+    /** Read all my columns that are not in memory. */
+    private void readAll() {
+        for (int c = 0; c < _columns.length; c += 1) {
+            column(c);
+        }
+    }
+
+    /** Read all my columns, and stop reading from my file, as when I am
+     *  changed. */
+    private void detach() {
+        if (_file != null) {
+            readAll();
+            _file = null;
+            _offsets = null;
+        }
+    }
+
+    /** Throw an exception unless 0 <= K < size(). */
+    private void check(int k) {
+        if (k < 0 || k >= _size) {
+            throw new IndexOutOfBoundsException("row " + k);
+        }
+    }
+
+    /** Return an estimate of the memory taken by VALUE, in bytes. */
+    private static long valueBytes(String value) {
+        return 24 + Row.align(16 + value.length());
+    }
+
+    /** Return the contents of FILE, mapped into memory. */
+    private static ByteBuffer map(File file) {
+        try (FileChannel channel =
+                 FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            if (channel.size() > Integer.MAX_VALUE) {
+                throw error("%s is too large to load lazily",
+                            file.getName());
+            }
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0,
+                               channel.size());
+        } catch (NoSuchFileException e) {
+            throw error("could not find %s", file.getName());
+        } catch (IOException e) {
+            throw error("problem reading from %s", file.getName());
+        }
+    }
+
+    /** Return the position of the end of the line of DATA containing
+     *  position P: that of its line terminator ("\n" or "\r\n"), or of
+     *  the end of DATA. */
+    private static int lineEnd(ByteBuffer data, int p) {
+        while (p < data.limit() && data.get(p) != '\n') {
+            p += 1;
+        }
+        if (p > 0 && data.get(p - 1) == '\r') {
+            p -= 1;
+        }
+        return p;
+    }
+
+    /** Return the position of the start of the line following the line
+     *  of DATA ending at END (as returned by lineEnd). */
+    private static int next(ByteBuffer data, int end) {
+        if (end < data.limit() && data.get(end) == '\r') {
+            end += 1;
+        }
+        return Math.min(end + 1, data.limit());
+    }
+
+    /** Return the text in positions START .. END-1 of DATA. */
+    private static String decode(ByteBuffer data, int start, int end) {
+        byte[] bytes = new byte[end - start];
+        data.get(start, bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /** Initial length of my arrays. */
+    private static final int INITIAL_ROWS = 16;
+
+    /** My file, or null once I have been changed. */
+    private File _file;
+    /** Modification time and length of my file when it was opened. */
+    private final long _modified, _length;
+    /** My column titles. */
+    private final String[] _titles;
+    /** Offsets in my file of the start of each row, followed by the end
+     *  of the last, or null once I have been changed. */
+    private int[] _offsets;
+    /** My columns, by column number, each holding its values by row
+     *  number, or null for those not in memory. */
+    private final String[][] _columns;
+    /** Number of my rows. */
+    private int _size;
+    /** Estimated memory taken by the values of my columns in memory. */
+    private long _bytes;
+    /** True iff I have spilled my columns, and have not read any since. */
+    private boolean _spilled;
+}
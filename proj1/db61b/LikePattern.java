@@ -0,0 +1,103 @@
+package db61b;
+
+/** A pattern for the like relation, in which '%' matches any sequence
+ *  of characters, '_' matches any one character, and any other
+ *  character matches itself.
+ *
+ *  A pattern is compiled once, when the statement using it is parsed,
+ *  into the segments between its '%'s.  The first segment must match
+ *  at the start of a value and the last at its end, and any others are
+ *  found in order between them, each as early as possible, which
+ *  suffices because the '%'s around them can absorb anything.  The
+ *  literal text before the first wildcard (the prefix) bounds the
+ *  values that can match, so that ZoneMaps, partitions, and prefix
+ *  indexes (see PrefixIndex) can rule out rows without testing them.
+ *  @author Qi Liu
+ */
+class LikePattern {
+
+    /** The compiled form of PATTERN. */
+    LikePattern(String pattern) {
+        _segments = pattern.split("%", -1);
+        int end = 0;
+        while (end < pattern.length() && pattern.charAt(end) != '%'
+               && pattern.charAt(end) != '_') {
+            end += 1;
+        }
+        _prefix = pattern.substring(0, end);
+        _prefixOnly = _segments.length == 2 && _segments[1].isEmpty()
+            && _segments[0].equals(_prefix);
+    }
+
+    /** Return the text that every value I match starts with. */
+    String prefix() {
+        return _prefix;
+    }
+
+    /** Return the least string greater than every string starting with
+     *  my prefix, or null if there is none. */
+    String upperBound() {
+        StringBuilder bound = new StringBuilder(_prefix);
+        while (bound.length() > 0) {
+            int last = bound.length() - 1;
+            if (bound.charAt(last) != Character.MAX_VALUE) {
+                bound.setCharAt(last, (char) (bound.charAt(last) + 1));
+                return bound.toString();
+            }
+            bound.setLength(last);
+        }
+        return null;
+    }
+
+    /** Return true iff I match VALUE. */
+    boolean matches(String value) {
+        if (_prefixOnly) {
+            return value.startsWith(_prefix);
+        }
+        String first = _segments[0];
+        if (_segments.length == 1) {
+            return value.length() == first.length()
+                && matchesAt(value, 0, first);
+        }
+        String last = _segments[_segments.length - 1];
+        int end = value.length() - last.length();
+        if (end < first.length() || !matchesAt(value, 0, first)
+            || !matchesAt(value, end, last)) {
+            return false;
+        }
+        int start = first.length();
+        for (int i = 1; i < _segments.length - 1; i += 1) {
+            String segment = _segments[i];
+            while (start + segment.length() <= end
+                   && !matchesAt(value, start, segment)) {
+                start += 1;
+            }
+            if (start + segment.length() > end) {
+                return false;
+            }
+            start += segment.length();
+        }
+        return true;
+    }
+
+    /** Return true iff SEGMENT, which contains no '%', matches the
+     *  characters of VALUE starting at START, of which there must be
+     *  enough. */
+    private static boolean matchesAt(String value, int start,
+                                     String segment) {
+        for (int i = 0; i < segment.length(); i += 1) {
+            char c = segment.charAt(i);
+            if (c != '_' && c != value.charAt(start + i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** The parts of my pattern between '%'s. */
+    private final String[] _segments;
+    /** The literal text before my first wildcard. */
+    private final String _prefix;
+    /** True iff I am my prefix followed by a single '%'. */
+    private final boolean _prefixOnly;
+}
@@ -1,39 +1,151 @@
-package db61b;
-
-import java.util.Scanner;
-import java.util.HashMap;
-
-/** The main program for db61b.
- *  @author P. N. Hilfinger
- */
-public class Main {
-
-    /** Version designation for this program. */
-    private static final String VERSION = "3.0";
-
-    /** Starting with an empty database, read and execute commands from
-     *  System.in until receiving a 'quit' ('exit') command or until
-     *  reaching the end of input. */
-    public static void main(String[] unused) {
-        System.out.printf("DB61B System.  Version %s.%n", VERSION);
-
-        HashMap<String, Table> db = new HashMap<>();
-
-        Scanner input = new Scanner(System.in);
-        CommandInterpreter interpreter =
-            new CommandInterpreter(db, input, System.out);
-
-        while (true) {
-            try {
-                if (!interpreter.statement()) {
-                    break;
-                }
-            } catch (DBException e) {
-                System.out.printf("Error: %s%n", e.getMessage());
-                interpreter.skipCommand();
-            }
-        }
-    }
-
-}
-
+package db61b;
+
+import java.io.BufferedOutputStream;
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Scanner;
+import java.util.HashMap;
+import java.util.function.IntConsumer;
+
+/** The main program for db61b.
+ *  @author P. N. Hilfinger
+ */
+public class Main {
+
+    /** Version designation for this program. */
+    private static final String VERSION = "3.0";
+    /** Size in bytes of the buffer of the standard output in batch
+     *  mode. */
+    private static final int OUTPUT_BUFFER_SIZE = 1 << 16;
+
+    /** Starting with an empty database, read and execute commands from
+     *  System.in until receiving a 'quit' ('exit') command or until
+     *  reaching the end of input.  An interrupt (Ctrl-C) cancels the
+     *  statement being executed, if any, and otherwise ends the
+     *  program.  With the argument --worker, serve instead as a worker
+     *  process (see Worker).  With the argument --batch, run a script
+     *  without prompts: read and tokenize it on a separate thread (see
+     *  Pipeline), buffer the standard output, and report throughput on
+     *  the standard error at the end. */
+    public static void main(String[] args) {
+        if (args.length > 0 && args[0].equals("--worker")) {
+            ignoreInterrupts();
+            try {
+                Worker.serve();
+            } catch (IOException e) {
+                System.err.printf("Error: %s%n", e.getMessage());
+                System.exit(1);
+            }
+            return;
+        }
+        boolean batch = args.length > 0 && args[0].equals("--batch");
+        if (batch) {
+            bufferOutput();
+        }
+        System.out.printf("DB61B System.  Version %s.%n", VERSION);
+        handleInterrupts();
+
+        HashMap<String, Table> db = new HashMap<>();
+
+        Scanner input = new Scanner(System.in);
+        Pipeline pipeline = batch ? new Pipeline(input) : null;
+        CommandInterpreter interpreter = batch
+            ? new CommandInterpreter(db, pipeline)
+            : new CommandInterpreter(db, input, System.out);
+
+        while (true) {
+            try {
+                if (!interpreter.statement()) {
+                    break;
+                }
+            } catch (DBException e) {
+                System.out.printf("Error: %s%n", e.getMessage());
+                interpreter.skipCommand();
+            }
+        }
+        if (batch) {
+            System.out.flush();
+            pipeline.report(System.err);
+        }
+    }
+
+    /** Replace the standard output with one that is flushed only when
+     *  its buffer fills, when the program ends, or when asked. */
+    private static void bufferOutput() {
+        PrintStream out = new PrintStream(new BufferedOutputStream(
+            new FileOutputStream(FileDescriptor.out), OUTPUT_BUFFER_SIZE));
+        System.setOut(out);
+        Runtime.getRuntime().addShutdownHook(new Thread(out::flush));
+    }
+
+    /** Arrange for an interrupt to cancel the current statement (see
+     *  Cancellation), or, if there is none, to end the program with the
+     *  usual status.  Interrupts that are ignored stay ignored, and on
+     *  systems without them, nothing is done. */
+    private static void handleInterrupts() {
+        onInterrupt(signal -> {
+            if (!Cancellation.cancel()) {
+                System.exit(128 + signal);
+            }
+        });
+    }
+
+    /** Ignore interrupts, which are meant for the process that started
+     *  me as a worker. */
+    private static void ignoreInterrupts() {
+        onInterrupt(null);
+    }
+
+    /** Make HANDLER, which is passed the number of the signal, handle
+     *  interrupts, unless they are ignored, or if HANDLER is null, ignore
+     *  them.  Uses sun.misc.Signal, which is not a standard API, through
+     *  reflection (so that compiling me raises no warnings), and does
+     *  nothing if it or interrupts are unavailable. */
+    private static void onInterrupt(IntConsumer handler) {
+        try {
+            Class<?> signalType = Class.forName("sun.misc.Signal"),
+                handlerType = Class.forName("sun.misc.SignalHandler");
+            Method handle =
+                signalType.getMethod("handle", signalType, handlerType),
+                number = signalType.getMethod("getNumber");
+            Object signal =
+                signalType.getConstructor(String.class).newInstance("INT");
+            Object ignore = handlerType.getField("SIG_IGN").get(null);
+            Object action = handler == null ? ignore
+                : signalHandler(handlerType, number, handler);
+            Object previous = handle.invoke(null, signal, action);
+            if (handler != null && previous == ignore) {
+                handle.invoke(null, signal, previous);
+            }
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            /* No interrupts here. */
+        }
+    }
+
+    /** Return an implementation of HANDLERTYPE (sun.misc.SignalHandler)
+     *  that passes the number of each signal it handles, as given by
+     *  NUMBER (Signal.getNumber), to HANDLER. */
+    private static Object signalHandler(Class<?> handlerType, Method number,
+                                        IntConsumer handler) {
+        return Proxy.newProxyInstance(
+            handlerType.getClassLoader(), new Class<?>[] { handlerType },
+            (proxy, method, args) -> {
+                switch (method.getName()) {
+                case "handle":
+                    handler.accept((Integer) number.invoke(args[0]));
+                    return null;
+                case "equals":
+                    return proxy == args[0];
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+                default:
+                    return "interrupt handler";
+                }
+            });
+    }
+
+}
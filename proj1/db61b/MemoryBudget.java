@@ -0,0 +1,118 @@
+package db61b;
+
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import static db61b.Utils.*;
+
+/** A limit on the estimated memory taken by the tables of a database.
+ *  Whenever the tables' estimated total (see Table.bytes) exceeds the
+ *  limit, the least recently used tables are spilled to disk (see
+ *  Table.spill) until it no longer does.  A spilled table is read back
+ *  whenever it is next used, and counts again from then on.  Tables
+ *  whose storage cannot spill (paged tables) are passed over.
+ *  @author Qi Liu
+ */
+class MemoryBudget {
+
+    /** Default limit: half the greatest heap the JVM will use. */
+    static final long DEFAULT_BUDGET = Runtime.getRuntime().maxMemory() / 2;
+
+    /** A budget of LIMIT bytes, or none if LIMIT is 0. */
+    MemoryBudget(long limit) {
+        setLimit(limit);
+    }
+
+    /** Return my limit in bytes, or 0 if there is none. */
+    long limit() {
+        return _limit;
+    }
+
+    /** Set my limit to LIMIT bytes, or remove it if LIMIT is 0.  The new
+     *  limit is applied by the next call to enforce. */
+    void setLimit(long limit) {
+        if (limit < 0) {
+            throw error("memory budget cannot be negative");
+        }
+        _limit = limit;
+    }
+
+    /** Record that TABLE has just been used. */
+    void use(Table table) {
+        _uses.put(table, Boolean.TRUE);
+    }
+
+    /** Spill the least recently used of TABLES, the tables of a database,
+     *  until their estimated total fits within my limit, if I have one,
+     *  and return the number of tables spilled.  Tables never recorded
+     *  by use count as used after all those that were, in the order of
+     *  TABLES. */
+    int enforce(Iterable<Table> tables) {
+        Map<Table, Boolean> current = new IdentityHashMap<Table, Boolean>();
+        long total = 0;
+        for (Table table : tables) {
+            current.put(table, Boolean.TRUE);
+            total += table.bytes();
+        }
+        _uses.keySet().retainAll(current.keySet());
+        for (Table table : tables) {
+            if (!_uses.containsKey(table)) {
+                use(table);
+            }
+        }
+        if (_limit == 0 || total <= _limit) {
+            return 0;
+        }
+        int spilled = 0;
+        for (Table table : new ArrayList<Table>(_uses.keySet())) {
+            if (total <= _limit) {
+                break;
+            }
+            long bytes = table.bytes();
+            if (bytes > 0 && table.spill()) {
+                total -= bytes - table.bytes();
+                spilled += 1;
+                _spills += 1;
+            }
+        }
+        return spilled;
+    }
+
+    /** Print the estimated memory taken by each of the tables of
+     *  DATABASE, by name, and my limit, on OUT. */
+    void report(Map<String, Table> database, PrintStream out) {
+        Map<String, Table> tables = new TreeMap<String, Table>(database);
+        long total = 0;
+        List<String> lines = new ArrayList<String>();
+        for (Map.Entry<String, Table> entry : tables.entrySet()) {
+            Table table = entry.getValue();
+            total += table.bytes();
+            lines.add(String.format("  %s: %d bytes, %d rows%s",
+                                    entry.getKey(), table.bytes(),
+                                    table.size(),
+                                    table.isSpilled() ? " (spilled)" : ""));
+        }
+        out.printf("Memory: %d bytes in %d tables; ", total, tables.size());
+        if (_limit == 0) {
+            out.printf("no budget%n");
+        } else {
+            out.printf("budget %d bytes; %d spills%n", _limit, _spills);
+        }
+        for (String line : lines) {
+            out.println(line);
+        }
+    }
+
+    /** Limit in bytes, or 0. */
+    private long _limit;
+    /** Number of tables spilled so far. */
+    private long _spills;
+    /** The tables recorded by use, least recently used first. */
+    private final LinkedHashMap<Table, Boolean> _uses =
+        new LinkedHashMap<Table, Boolean>(16, 0.75f, true);
+}
@@ -0,0 +1,204 @@
+package db61b;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+
+import static db61b.Utils.*;
+
+/** A RowStore that keeps all its rows in memory.  Snapshots share my
+ *  list of rows, which I copy before my next change (copy on write).
+ *
+ *  My rows may be spilled to a temporary file, freeing their memory,
+ *  and are read back when next used.  The file is kept until my rows
+ *  change, so that spilling rows that were only read since they were
+ *  last spilled costs nothing.
+ *  @author Qi Liu
+ */
+class MemoryStore implements RowStore {
+
+    @Override
+    public int size() {
+        return _size;
+    }
+
+    @Override
+    public Row get(int k) {
+        return rows().get(k);
+    }
+
+    @Override
+    public String value(int k, int col) {
+        return rows().get(k).get(col);
+    }
+
+    @Override
+    public void add(Row row) {
+        changeRows().add(row);
+        _size += 1;
+        _bytes += row.bytes();
+    }
+
+    @Override
+    public boolean set(int k, Row row) {
+        Row old = changeRows().set(k, row);
+        _bytes += row.bytes() - old.bytes();
+        return true;
+    }
+
+    @Override
+    public void clear() {
+        changeRows();
+        _rows = new ArrayList<Row>();
+        _size = 0;
+        _bytes = 0;
+    }
+
+    @Override
+    public List<Row> snapshot() {
+        List<Row> rows = rows();
+        _shared = true;
+        return Collections.unmodifiableList(rows);
+    }
+
+    /** Each row counts its values and a reference to it from my list. */
+    @Override
+    public long bytes() {
+        return _rows == null ? 0 : 40 + 4L * _size + _bytes;
+    }
+
+    @Override
+    public boolean spill() {
+        if (_rows == null) {
+            return true;
+        }
+        if (_spill == null) {
+            File spill = null;
+            try {
+                spill = File.createTempFile("db61b", ".spill");
+                spill.deleteOnExit();
+                write(spill);
+            } catch (IOException e) {
+                if (spill != null) {
+                    spill.delete();
+                }
+                return false;
+            }
+            _spill = spill;
+        }
+        _rows = null;
+        _shared = false;
+        return true;
+    }
+
+    @Override
+    public boolean isSpilled() {
+        return _rows == null;
+    }
+
+    @Override
+    public Iterator<Row> iterator() {
+        return rows().iterator();
+    }
+
+    /** A spill file is kept, since I may still be used. */
+    @Override
+    public void close() {
+    }
+
+    @Override
+    public void free() {
+        discardSpill();
+        _rows = new ArrayList<Row>();
+        _shared = false;
+        _size = 0;
+        _bytes = 0;
+    }
+
+    /** Return my rows, first reading them back if they were spilled. */
+    private ArrayList<Row> rows() {
+        if (_rows == null) {
+            try {
+                _rows = read(_spill);
+            } catch (IOException e) {
+                throw error("could not read back spilled rows: %s",
+                            e.getMessage());
+            }
+        }
+        return _rows;
+    }
+
+    /** Return my rows, ready to be changed: read back if spilled, not
+     *  shared with any snapshot, and with no spill file, since it will
+     *  no longer match. */
+    private ArrayList<Row> changeRows() {
+        rows();
+        if (_shared) {
+            _rows = new ArrayList<Row>(_rows);
+            _shared = false;
+        }
+        discardSpill();
+        return _rows;
+    }
+
+    /** Delete my spill file, if any. */
+    private void discardSpill() {
+        if (_spill != null) {
+            _spill.delete();
+            _spill = null;
+        }
+    }
+
+    /** Write my rows to FILE, each as its number of values followed by
+     *  the values in the format of DataOutput.writeUTF. */
+    private void write(File file) throws IOException {
+        try (DataOutputStream out = new DataOutputStream(
+                 new BufferedOutputStream(new FileOutputStream(file)))) {
+            for (Row row : _rows) {
+                out.writeInt(row.size());
+                for (int k = 0; k < row.size(); k += 1) {
+                    out.writeUTF(row.get(k));
+                }
+            }
+            out.flush();
+            Stats.count(Stats.BYTES_WRITTEN, out.size());
+        }
+    }
+
+    /** Return the _size rows written to FILE by write. */
+    private ArrayList<Row> read(File file) throws IOException {
+        ArrayList<Row> rows = new ArrayList<Row>(_size);
+        try (DataInputStream in = new DataInputStream(
+                 new BufferedInputStream(new FileInputStream(file)))) {
+            for (int r = 0; r < _size; r += 1) {
+                String[] values = new String[in.readInt()];
+                for (int k = 0; k < values.length; k += 1) {
+                    values[k] = in.readUTF();
+                }
+                rows.add(new Row(values));
+            }
+        }
+        Stats.count(Stats.BYTES_READ, file.length());
+        return rows;
+    }
+
+    /** My rows, or null if they are spilled. */
+    private ArrayList<Row> _rows = new ArrayList<Row>();
+    /** Number of my rows. */
+    private int _size;
+    /** Estimated memory taken by my rows and their values, in bytes. */
+    private long _bytes;
+    /** True iff a snapshot may share _rows. */
+    private boolean _shared;
+    /** File holding a copy of my rows, or null. */
+    private File _spill;
+}
@@ -0,0 +1,250 @@
+package db61b;
+
+import java.util.List;
+import java.util.function.BooleanSupplier;
+
+/** A merge join of the rows of two TableIterators (the outer and the
+ *  inner) on a condition comparing a column of each (the join
+ *  columns), with =, <, <=, >, or >=.  Both are scanned in increasing
+ *  order of their join columns: a Table already in that order (see
+ *  Table.isSortedOn) is scanned as it is, and any other is scanned in
+ *  the order given by its prefix index (see Table.rowsInOrder), which
+ *  is built if need be.  The pairs of rows that can satisfy the
+ *  condition are then found in one pass over each, returning to a
+ *  marked row of the inner (see TableIterator.mark) rather than
+ *  keeping rows, so that inputs already in order need no memory beyond
+ *  the two iterators:
+ *
+ *    For =, the rows of the outer with each value are paired with the
+ *    run of rows of the inner with that value, returning to its start
+ *    for each.
+ *    For < and <=, each row of the outer is paired with the rows of the
+ *    inner from the first whose value is great enough, which only
+ *    moves forward, to the end.
+ *    For > and >=, each row of the outer is paired with the rows of the
+ *    inner from the start up to the first whose value is too great.
+ *
+ *  A nested-loop join visits every pair of rows, so that a merge join
+ *  is chosen (see plan) when its cost, that of ordering each input not
+ *  already in order plus one pass over each, is less.
+ *  @author Qi Liu
+ */
+class MergeJoin {
+
+    /** Return a merge join of OUTER with INNER, which must already be
+     *  restricted, on the first of CONDITIONS that compares a column of
+     *  each for equality, or failing that, on the first that compares
+     *  them with <, <=, >, or >=.  Return null if there is no such
+     *  condition, if either Table is partitioned, or if a nested-loop
+     *  join would cost no more.  OUTER and INNER are made to visit
+     *  their rows in order as needed. */
+    static MergeJoin plan(List<Condition> conditions,
+                          TableIterator outer, TableIterator inner) {
+        Condition join = null;
+        for (Condition condition : conditions) {
+            Column col1 = condition.column1(), col2 = condition.column2();
+            if ((condition.isEquality() || condition.isInequality())
+                && (col1.source() == outer && col2.source() == inner
+                    || col1.source() == inner && col2.source() == outer)
+                && (join == null
+                    || condition.isEquality() && !join.isEquality())) {
+                join = condition;
+            }
+        }
+        Table table1 = outer.table(), table2 = inner.table();
+        if (join == null || table1.partitioning() != null
+            || table2.partitioning() != null) {
+            return null;
+        }
+        boolean flipped = join.column1().source() == inner;
+        Column col1 = flipped ? join.column2() : join.column1(),
+            col2 = flipped ? join.column1() : join.column2();
+        double n1 = table1.size() * outer.fraction(), n2 = table2.size(),
+            nestedLoop = n1 * n2;
+        if (nestedLoop <= n1 + n2) {
+            return null;
+        }
+        double cost = n1 + n2 + orderCost(table1, col1.index())
+            + orderCost(table2, col2.index());
+        if (cost >= nestedLoop) {
+            return null;
+        }
+        boolean less = join.allowsLess() != flipped && join.isInequality(),
+            greater = join.isInequality() && !less;
+        MergeJoin merge = new MergeJoin(outer, col1, inner, col2, less,
+                                        join.allowsEqual(), greater);
+        if (!table1.isSortedOn(col1.index())) {
+            outer.order(table1.rowsInOrder(col1.index()));
+            merge._ordered = table1.name();
+        }
+        if (!table2.isSortedOn(col2.index())) {
+            inner.order(table2.rowsInOrder(col2.index()));
+            merge._ordered = merge._ordered == null ? table2.name()
+                : merge._ordered + " and " + table2.name();
+        }
+        return merge;
+    }
+
+    /** A merge join of OUTER with INNER on the condition comparing
+     *  OUTERCOLUMN with INNERCOLUMN that is satisfied when the first is
+     *  less than the second iff LESS, when they are equal iff EQUAL, and
+     *  when the first is greater iff GREATER. */
+    private MergeJoin(TableIterator outer, Column outerColumn,
+                      TableIterator inner, Column innerColumn,
+                      boolean less, boolean equal, boolean greater) {
+        _outer = outer;
+        _outerColumn = outerColumn;
+        _inner = inner;
+        _innerColumn = innerColumn;
+        _less = less;
+        _equal = equal;
+        _greater = greater;
+    }
+
+    /** Make each pair of rows of my outer and inner that may satisfy my
+     *  condition current in turn, and call EMIT for it, stopping if EMIT
+     *  returns false.  Return false iff it did.  Polls Cancellation for
+     *  each pair.  Afterwards, my outer and inner again visit all their
+     *  rows (see TableIterator.order), since they may be used again, as
+     *  by a View to join rows added later. */
+    boolean run(BooleanSupplier emit) {
+        try {
+            if (_less) {
+                return runLess(emit);
+            } else if (_greater) {
+                return runGreater(emit);
+            } else {
+                return runEqual(emit);
+            }
+        } finally {
+            _outer.order(null);
+            _inner.order(null);
+        }
+    }
+
+    /** Perform run for an equality condition. */
+    private boolean runEqual(BooleanSupplier emit) {
+        while (_outer.hasRow() && _inner.hasRow()) {
+            Cancellation.poll();
+            String value = _outerColumn.value();
+            int c = value.compareTo(_innerColumn.value());
+            if (c < 0) {
+                _outer.next();
+            } else if (c > 0) {
+                _inner.next();
+            } else {
+                int mark = _inner.mark();
+                boolean first = true;
+                do {
+                    if (!first) {
+                        _inner.restore(mark);
+                    }
+                    first = false;
+                    while (_inner.hasRow()
+                           && _innerColumn.value().equals(value)) {
+                        Cancellation.poll();
+                        if (!emit.getAsBoolean()) {
+                            return false;
+                        }
+                        _inner.next();
+                    }
+                    _outer.next();
+                } while (_outer.hasRow()
+                         && _outerColumn.value().equals(value));
+            }
+        }
+        return true;
+    }
+
+    /** Perform run for a condition satisfied only when the outer column
+     *  is less than or equal to the inner. */
+    private boolean runLess(BooleanSupplier emit) {
+        int mark = -1;
+        while (_outer.hasRow()) {
+            Cancellation.poll();
+            String value = _outerColumn.value();
+            if (mark >= 0) {
+                _inner.restore(mark);
+            }
+            while (_inner.hasRow()
+                   && !matches(value, _innerColumn.value())) {
+                _inner.next();
+            }
+            if (!_inner.hasRow()) {
+                break;
+            }
+            mark = _inner.mark();
+            while (_inner.hasRow()) {
+                Cancellation.poll();
+                if (!emit.getAsBoolean()) {
+                    return false;
+                }
+                _inner.next();
+            }
+            _outer.next();
+        }
+        return true;
+    }
+
+    /** Perform run for a condition satisfied only when the outer column
+     *  is greater than or equal to the inner. */
+    private boolean runGreater(BooleanSupplier emit) {
+        while (_outer.hasRow()) {
+            Cancellation.poll();
+            String value = _outerColumn.value();
+            _inner.reset();
+            while (_inner.hasRow()
+                   && matches(value, _innerColumn.value())) {
+                Cancellation.poll();
+                if (!emit.getAsBoolean()) {
+                    return false;
+                }
+                _inner.next();
+            }
+            _outer.next();
+        }
+        return true;
+    }
+
+    /** Return true iff OUTERVALUE and INNERVALUE, as values of my outer
+     *  and inner columns, satisfy my condition. */
+    private boolean matches(String outerValue, String innerValue) {
+        int c = outerValue.compareTo(innerValue);
+        return c < 0 ? _less : c == 0 ? _equal : _greater;
+    }
+
+    /** Return an estimate of the cost of ordering the rows of TABLE by
+     *  column K, in rows visited. */
+    private static double orderCost(Table table, int k) {
+        if (table.isSortedOn(k)) {
+            return 0;
+        }
+        double n = table.size();
+        if (table.hasPrefixIndex(k)) {
+            return n;
+        }
+        return n * Math.max(1, Math.log(n) / Math.log(2));
+    }
+
+    @Override
+    public String toString() {
+        String relation = (_less ? "<" : _greater ? ">" : "")
+            + (_equal ? "=" : "");
+        return String.format("merge join on %s.%s %s %s.%s%s",
+                             _outer.table().name(), _outerColumn.name(),
+                             relation,
+                             _inner.table().name(), _innerColumn.name(),
+                             _ordered == null ? ""
+                             : ", ordering " + _ordered + " by index");
+    }
+
+    /** The iterators being joined. */
+    private final TableIterator _outer, _inner;
+    /** Their join columns. */
+    private final Column _outerColumn, _innerColumn;
+    /** True iff my condition is satisfied when the outer column is less
+     *  than, equal to, and greater than the inner, respectively. */
+    private final boolean _less, _equal, _greater;
+    /** Names of the tables ordered by index, or null if none is. */
+    private String _ordered;
+}
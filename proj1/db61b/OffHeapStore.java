@@ -0,0 +1,270 @@
+package db61b;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/** A RowStore that keeps its rows encoded in direct ByteBuffers
+ *  (arenas) outside the Java heap, so that a large table costs the
+ *  garbage collector a handful of objects rather than several per row.
+ *
+ *  Each row is encoded as its number of values followed by the values,
+ *  each as a 4-byte length and that many bytes of UTF-8.  Rows are
+ *  appended to the last arena, and a new arena is allocated when it is
+ *  full, each twice the size of the last, up to ARENA_SIZE, so that
+ *  small tables stay small.  An array of offsets gives the position of
+ *  each row: the number of its arena in the upper 32 bits and its
+ *  position there in the lower.  A single value may be decoded (see
+ *  value) without decoding the rest of its row, or creating a Row.
+ *
+ *  The arenas are released by free or clear, rather than when the
+ *  garbage collector finds them unused.
+ *  @author Qi Liu
+ */
+class OffHeapStore implements RowStore {
+
+    /** Sizes of the first arena and of the largest arenas in bytes.
+     *  Rows larger than ARENA_SIZE get arenas of their own. */
+    static final int FIRST_ARENA_SIZE = 1 << 12, ARENA_SIZE = 1 << 20;
+
+    @Override
+    public int size() {
+        return _size;
+    }
+
+    @Override
+    public Row get(int k) {
+        long offset = offset(k);
+        ByteBuffer arena = _arenas.get((int) (offset >>> 32));
+        int p = (int) offset;
+        String[] values = new String[arena.getInt(p)];
+        p += 4;
+        for (int c = 0; c < values.length; c += 1) {
+            values[c] = decode(arena, p);
+            p += 4 + arena.getInt(p);
+        }
+        return new Row(values);
+    }
+
+    @Override
+    public String value(int k, int col) {
+        long offset = offset(k);
+        ByteBuffer arena = _arenas.get((int) (offset >>> 32));
+        int p = (int) offset;
+        if (col < 0 || col >= arena.getInt(p)) {
+            throw new IndexOutOfBoundsException("column " + col);
+        }
+        p += 4;
+        for (int c = 0; c < col; c += 1) {
+            p += 4 + arena.getInt(p);
+        }
+        return decode(arena, p);
+    }
+
+    @Override
+    public void add(Row row) {
+        byte[][] values = encode(row);
+        int size = encodedSize(values);
+        ByteBuffer arena = _arenas.isEmpty() ? null
+            : _arenas.get(_arenas.size() - 1);
+        if (arena == null || arena.remaining() < size) {
+            int capacity = arena == null ? FIRST_ARENA_SIZE
+                : Math.min(2 * arena.capacity(), ARENA_SIZE);
+            arena = ByteBuffer.allocateDirect(Math.max(size, capacity));
+            _arenas.add(arena);
+            _capacity += arena.capacity();
+        }
+        if (_size == _offsets.length) {
+            _offsets = Arrays.copyOf(_offsets, 2 * _size);
+        }
+        _offsets[_size] =
+            ((long) (_arenas.size() - 1) << 32) | arena.position();
+        _size += 1;
+        write(arena, arena.position(), values);
+        arena.position(arena.position() + size);
+    }
+
+    /** ROW replaces row #K in place if its encoding is no longer than
+     *  that of row #K. */
+    @Override
+    public boolean set(int k, Row row) {
+        long offset = offset(k);
+        ByteBuffer arena = _arenas.get((int) (offset >>> 32));
+        int start = (int) offset, p = start + 4;
+        for (int c = arena.getInt(start); c > 0; c -= 1) {
+            p += 4 + arena.getInt(p);
+        }
+        byte[][] values = encode(row);
+        if (encodedSize(values) > p - start) {
+            return false;
+        }
+        write(arena, start, values);
+        return true;
+    }
+
+    @Override
+    public void clear() {
+        free();
+    }
+
+    /** Return a copy of my rows, decoded onto the heap. */
+    @Override
+    public List<Row> snapshot() {
+        List<Row> rows = new ArrayList<Row>(_size);
+        for (Row row : this) {
+            rows.add(row);
+        }
+        return rows;
+    }
+
+    /** Counts my arenas, although they are outside the heap. */
+    @Override
+    public long bytes() {
+        return 40 + Row.align(16 + 8L * _offsets.length) + _capacity;
+    }
+
+    /** My rows are outside the heap already, so I do not spill. */
+    @Override
+    public boolean spill() {
+        return false;
+    }
+
+    @Override
+    public boolean isSpilled() {
+        return false;
+    }
+
+    @Override
+    public Iterator<Row> iterator() {
+        return new Iterator<Row>() {
+            @Override
+            public boolean hasNext() {
+                return _k < _size;
+            }
+
+            @Override
+            public Row next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                _k += 1;
+                return get(_k - 1);
+            }
+
+            /** Number of the next row. */
+            private int _k;
+        };
+    }
+
+    @Override
+    public void close() {
+    }
+
+    /** Release my arenas at once, leaving me empty. */
+    @Override
+    public void free() {
+        for (ByteBuffer arena : _arenas) {
+            release(arena);
+        }
+        _arenas.clear();
+        _offsets = new long[INITIAL_ROWS];
+        _size = 0;
+        _capacity = 0;
+    }
+
+    /** Return the offset of row #K. */
+    private long offset(int k) {
+        if (k < 0 || k >= _size) {
+            throw new IndexOutOfBoundsException("row " + k);
+        }
+        return _offsets[k];
+    }
+
+    /** Return the UTF-8 encodings of the values of ROW. */
+    private static byte[][] encode(Row row) {
+        byte[][] values = new byte[row.size()][];
+        for (int c = 0; c < values.length; c += 1) {
+            values[c] = row.get(c).getBytes(StandardCharsets.UTF_8);
+        }
+        return values;
+    }
+
+    /** Return the number of bytes taken by a row whose values are
+     *  encoded as VALUES. */
+    private static int encodedSize(byte[][] values) {
+        int size = 4;
+        for (byte[] value : values) {
+            size += 4 + value.length;
+        }
+        return size;
+    }
+
+    /** Write a row whose values are encoded as VALUES into ARENA at
+     *  position P, leaving ARENA's position unchanged. */
+    private static void write(ByteBuffer arena, int p, byte[][] values) {
+        arena.putInt(p, values.length);
+        p += 4;
+        for (byte[] value : values) {
+            arena.putInt(p, value.length);
+            arena.put(p + 4, value);
+            p += 4 + value.length;
+        }
+    }
+
+    /** Return the value whose length is at position P of ARENA. */
+    private static String decode(ByteBuffer arena, int p) {
+        byte[] bytes = new byte[arena.getInt(p)];
+        arena.get(p + 4, bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /** Release the memory of the direct buffer BUFFER, if the JVM allows,
+     *  and otherwise leave it to the garbage collector.  BUFFER must not
+     *  be used afterwards. */
+    private static void release(ByteBuffer buffer) {
+        if (_invokeCleaner != null) {
+            try {
+                _invokeCleaner.invoke(_unsafe, buffer);
+            } catch (ReflectiveOperationException | RuntimeException e) {
+                /* Leave it to the garbage collector. */
+            }
+        }
+    }
+
+    /** Initial length of _offsets. */
+    private static final int INITIAL_ROWS = 16;
+
+    /** My arenas. */
+    private final List<ByteBuffer> _arenas = new ArrayList<ByteBuffer>();
+    /** Offsets of my rows, by row number. */
+    private long[] _offsets = new long[INITIAL_ROWS];
+    /** Number of my rows. */
+    private int _size;
+    /** Total size of my arenas in bytes. */
+    private long _capacity;
+
+    /** The JVM's sun.misc.Unsafe and its invokeCleaner method, which
+     *  releases a direct buffer, or null if they are unavailable. */
+    private static Object _unsafe;
+    /** See _unsafe. */
+    private static Method _invokeCleaner;
+
+    static {
+        try {
+            Class<?> type = Class.forName("sun.misc.Unsafe");
+            Field field = type.getDeclaredField("theUnsafe");
+            field.setAccessible(true);
+            _unsafe = field.get(null);
+            _invokeCleaner = type.getMethod("invokeCleaner", ByteBuffer.class);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            _unsafe = null;
+            _invokeCleaner = null;
+        }
+    }
+}
@@ -0,0 +1,63 @@
+package db61b;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+/** An ordering on the rows produced by a select clause, given by the
+ *  values of one or more Columns, each sorted in ascending or
+ *  descending order.  Rows are compared by their sort keys: arrays
+ *  holding the values of my Columns, in order.
+ *  @author Qi Liu
+ */
+class Ordering implements Comparator<String[]> {
+
+    /** An empty Ordering, under which all keys are equal. */
+    Ordering() {
+        _columns = new ArrayList<Column>();
+        _descending = new ArrayList<Boolean>();
+    }
+
+    /** Add COLUMN as my next (least significant) sort column, in
+     *  descending order iff DESCENDING. */
+    void add(Column column, boolean descending) {
+        _columns.add(column);
+        _descending.add(descending);
+    }
+
+    /** Return my Kth sort column, most significant first. */
+    Column column(int k) {
+        return _columns.get(k);
+    }
+
+    /** Return the number of my sort columns. */
+    int size() {
+        return _columns.size();
+    }
+
+    /** Return the sort key of the current row, formed from the values
+     *  of my Columns.  My Columns must all be resolved. */
+    String[] key() {
+        String[] key = new String[_columns.size()];
+        for (int i = 0; i < key.length; i += 1) {
+            key[i] = _columns.get(i).value();
+        }
+        return key;
+    }
+
+    @Override
+    public int compare(String[] key1, String[] key2) {
+        for (int i = 0; i < key1.length; i += 1) {
+            int result = key1[i].compareTo(key2[i]);
+            if (result != 0) {
+                return _descending.get(i) ? -result : result;
+            }
+        }
+        return 0;
+    }
+
+    /** My sort columns, most significant first. */
+    private List<Column> _columns;
+    /** _descending.get(k) is true iff my Kth column sorts descending. */
+    private List<Boolean> _descending;
+}
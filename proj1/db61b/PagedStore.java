@@ -0,0 +1,490 @@
+package db61b;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+import static db61b.Utils.*;
+
+/** A RowStore whose rows live in fixed-size pages of a file, and are
+ *  brought into memory a page at a time through a BufferPool.
+ *
+ *  The file consists of a header page, holding the column titles and
+ *  the numbers of pages and rows, followed by the data pages, followed
+ *  by a directory giving the number of rows on each data page.  Each
+ *  data page starts with its row count, followed by its rows, each
+ *  value in the format of DataOutput.writeUTF.  The header is marked
+ *  clean only while the file is consistent, so that a file left by an
+ *  interrupted session is never mapped.
+ *  @author Qi Liu
+ */
+class PagedStore implements RowStore {
+
+    /** Size of a page in bytes. */
+    static final int PAGE_SIZE = 4096;
+
+    /** A new, empty store for rows with the given column TITLES, kept in
+     *  the file named FILENAME (which is overwritten) and cached in
+     *  POOL. */
+    PagedStore(String fileName, String[] titles, BufferPool pool) {
+        this(fileName, titles, pool, 0, 0, new int[0]);
+        try {
+            File file = new File(fileName);
+            if (file.exists() && !file.delete()) {
+                throw error("could not replace %s", fileName);
+            }
+            writeHeader(false);
+        } catch (IOException e) {
+            throw error("trouble writing to %s", fileName);
+        }
+        _changed = true;
+    }
+
+    /** A store for rows with column titles TITLES kept in FILENAME and
+     *  cached in POOL, whose first PAGECOUNT pages hold SIZE rows,
+     *  with PAGEROWS[p] rows on page #p. */
+    private PagedStore(String fileName, String[] titles, BufferPool pool,
+                       int pageCount, int size, int[] pageRows) {
+        if (encodedSize(new Row(titles)) + HEADER_SIZE > PAGE_SIZE) {
+            throw error("column titles do not fit in a page");
+        }
+        _fileName = fileName;
+        _titles = titles;
+        _pool = pool;
+        _id = _nextId;
+        _nextId += 1;
+        _pageCount = pageCount;
+        _size = size;
+        _pageRows = Arrays.copyOf(pageRows, Math.max(16, pageCount));
+        _firstRow = new int[_pageRows.length];
+        for (int p = 1; p < pageCount; p += 1) {
+            _firstRow[p] = _firstRow[p - 1] + _pageRows[p - 1];
+        }
+    }
+
+    /** Return a store for the rows in the file FILENAME, cached in POOL,
+     *  reading only the file's header and directory.  Returns null if
+     *  there is no such file, or it was not cleanly written. */
+    static PagedStore open(String fileName, BufferPool pool) {
+        if (!new File(fileName).isFile()) {
+            return null;
+        }
+        try (RandomAccessFile file = new RandomAccessFile(fileName, "r")) {
+            if (file.length() < PAGE_SIZE) {
+                return null;
+            }
+            byte[] header = new byte[PAGE_SIZE];
+            file.readFully(header);
+            DataInputStream in =
+                new DataInputStream(new ByteArrayInputStream(header));
+            if (in.readInt() != MAGIC || in.readInt() != PAGE_SIZE
+                || !in.readBoolean()) {
+                return null;
+            }
+            int pageCount = in.readInt();
+            int size = in.readInt();
+            String[] titles = new String[in.readUnsignedShort()];
+            for (int i = 0; i < titles.length; i += 1) {
+                titles[i] = in.readUTF();
+            }
+            int[] pageRows = new int[pageCount];
+            file.seek(offset(pageCount));
+            for (int p = 0; p < pageCount; p += 1) {
+                pageRows[p] = file.readInt();
+            }
+            return new PagedStore(fileName, titles, pool,
+                                  pageCount, size, pageRows);
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    /** Return the name of my file. */
+    String fileName() {
+        return _fileName;
+    }
+
+    /** Return my column titles. */
+    String[] titles() {
+        return _titles;
+    }
+
+    /** Return my unique identifying number. */
+    int id() {
+        return _id;
+    }
+
+    /** Return my number of pages. */
+    int pageCount() {
+        return _pageCount;
+    }
+
+    @Override
+    public int size() {
+        return _size;
+    }
+
+    @Override
+    public Row get(int k) {
+        if (k < 0 || k >= _size) {
+            throw new IndexOutOfBoundsException("row " + k);
+        }
+        int page = pageOf(k);
+        if (page != _lastPage) {
+            BufferPool.Frame frame = _pool.pin(this, page);
+            _lastRows = frame.rows;
+            _lastPage = page;
+            _pool.unpin(frame, false);
+        }
+        return _lastRows.get(k - _firstRow[page]);
+    }
+
+    @Override
+    public String value(int k, int col) {
+        return get(k).get(col);
+    }
+
+    @Override
+    public void add(Row row) {
+        int size = encodedSize(row);
+        if (size + PAGE_HEADER_SIZE > PAGE_SIZE) {
+            throw error("row too large for a %d-byte page", PAGE_SIZE);
+        }
+        markChanged();
+        _lastPage = -1;
+        BufferPool.Frame frame = null;
+        if (_pageCount > 0) {
+            frame = _pool.pin(this, _pageCount - 1);
+            if (frame.bytes + size + PAGE_HEADER_SIZE > PAGE_SIZE) {
+                _pool.unpin(frame, false);
+                frame = null;
+            }
+        }
+        if (frame == null) {
+            if (_pageCount == _pageRows.length) {
+                _pageRows = Arrays.copyOf(_pageRows, 2 * _pageCount);
+                _firstRow = Arrays.copyOf(_firstRow, 2 * _pageCount);
+            }
+            _pageRows[_pageCount] = 0;
+            _firstRow[_pageCount] = _size;
+            frame = _pool.pinNew(this, _pageCount);
+            _pageCount += 1;
+        }
+        frame.rows.add(row);
+        frame.bytes += size;
+        _pageRows[_pageCount - 1] += 1;
+        _size += 1;
+        _pool.unpin(frame, true);
+    }
+
+    @Override
+    public boolean set(int k, Row row) {
+        if (k < 0 || k >= _size) {
+            throw new IndexOutOfBoundsException("row " + k);
+        }
+        int page = pageOf(k);
+        BufferPool.Frame frame = _pool.pin(this, page);
+        int slot = k - _firstRow[page];
+        int bytes = frame.bytes - encodedSize(frame.rows.get(slot))
+            + encodedSize(row);
+        if (bytes + PAGE_HEADER_SIZE > PAGE_SIZE) {
+            _pool.unpin(frame, false);
+            return false;
+        }
+        markChanged();
+        frame.rows.set(slot, row);
+        frame.bytes = bytes;
+        _lastPage = -1;
+        _pool.unpin(frame, true);
+        return true;
+    }
+
+    @Override
+    public void clear() {
+        markChanged();
+        _pool.discard(this);
+        _pageCount = 0;
+        _size = 0;
+        _lastPage = -1;
+    }
+
+    @Override
+    public long bytes() {
+        return 0;
+    }
+
+    /** My rows are already kept in my file, so I cannot spill. */
+    @Override
+    public boolean spill() {
+        return false;
+    }
+
+    @Override
+    public boolean isSpilled() {
+        return false;
+    }
+
+    /** Return a copy of my rows, since my pages may change or be evicted
+     *  while the copy is used. */
+    @Override
+    public List<Row> snapshot() {
+        List<Row> rows = new ArrayList<Row>(_size);
+        for (Row row : this) {
+            rows.add(row);
+        }
+        return rows;
+    }
+
+    @Override
+    public Iterator<Row> iterator() {
+        return new Iterator<Row>() {
+            @Override
+            public boolean hasNext() {
+                return _k < _size;
+            }
+
+            @Override
+            public Row next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                if (_rows == null || _slot == _pageRows[_page]) {
+                    _page += 1;
+                    _slot = 0;
+                    BufferPool.Frame frame = _pool.pin(PagedStore.this,
+                                                       _page);
+                    _rows = frame.rows;
+                    _pool.unpin(frame, false);
+                }
+                _k += 1;
+                _slot += 1;
+                return _rows.get(_slot - 1);
+            }
+
+            /** Number of rows returned so far. */
+            private int _k;
+            /** Current page number. */
+            private int _page = -1;
+            /** Position of the next row on the current page. */
+            private int _slot;
+            /** The rows of the current page. */
+            private List<Row> _rows;
+        };
+    }
+
+    /** Write all my changed pages, directory, and header to my file,
+     *  leaving it consistent. */
+    void flush() {
+        if (!_changed) {
+            return;
+        }
+        _pool.flush(this);
+        try {
+            RandomAccessFile file = file();
+            file.seek(offset(_pageCount));
+            for (int p = 0; p < _pageCount; p += 1) {
+                file.writeInt(_pageRows[p]);
+            }
+            file.setLength(file.getFilePointer());
+            writeHeader(true);
+        } catch (IOException e) {
+            throw error("trouble writing to %s", _fileName);
+        }
+        _changed = false;
+    }
+
+    @Override
+    public void close() {
+        flush();
+        _pool.release(this);
+        _lastPage = -1;
+        if (_file != null) {
+            try {
+                _file.close();
+            } catch (IOException e) {
+                /* Ignore IOException */
+            }
+            _file = null;
+        }
+    }
+
+    /** My rows stay in my file, which is left consistent, as for
+     *  close. */
+    @Override
+    public void free() {
+        close();
+    }
+
+    /** Return the rows on page #PAGE, as read from my file. */
+    List<Row> readPage(int page) {
+        byte[] data = new byte[PAGE_SIZE];
+        try {
+            RandomAccessFile file = file();
+            file.seek(offset(page));
+            file.readFully(data);
+            Stats.count(Stats.BYTES_READ, PAGE_SIZE);
+            DataInputStream in =
+                new DataInputStream(new ByteArrayInputStream(data));
+            int n = in.readUnsignedShort();
+            List<Row> rows = new ArrayList<Row>(n);
+            for (int i = 0; i < n; i += 1) {
+                String[] values = new String[_titles.length];
+                for (int k = 0; k < values.length; k += 1) {
+                    values[k] = in.readUTF();
+                }
+                rows.add(new Row(values));
+            }
+            return rows;
+        } catch (IOException e) {
+            throw error("problem reading from %s", _fileName);
+        }
+    }
+
+    /** Write ROWS as page #PAGE of my file. */
+    void writePage(int page, List<Row> rows) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(PAGE_SIZE);
+        DataOutputStream out = new DataOutputStream(bytes);
+        try {
+            out.writeShort(rows.size());
+            for (Row row : rows) {
+                for (int k = 0; k < row.size(); k += 1) {
+                    out.writeUTF(row.get(k));
+                }
+            }
+            out.write(new byte[PAGE_SIZE - out.size()]);
+            RandomAccessFile file = file();
+            file.seek(offset(page));
+            file.write(bytes.toByteArray());
+            Stats.count(Stats.BYTES_WRITTEN, PAGE_SIZE);
+        } catch (IOException e) {
+            throw error("trouble writing to %s", _fileName);
+        }
+    }
+
+    /** Return the number of bytes ROW occupies on a page. */
+    static int encodedSize(Row row) {
+        int size = 0;
+        for (int k = 0; k < row.size(); k += 1) {
+            String value = row.get(k);
+            size += 2;
+            for (int i = 0; i < value.length(); i += 1) {
+                char c = value.charAt(i);
+                if (c >= 0x0001 && c <= 0x007F) {
+                    size += 1;
+                } else if (c <= 0x07FF) {
+                    size += 2;
+                } else {
+                    size += 3;
+                }
+            }
+        }
+        return size;
+    }
+
+    /** Return the number of the page holding row #K. */
+    private int pageOf(int k) {
+        if (_lastPage >= 0 && k >= _firstRow[_lastPage]
+            && k - _firstRow[_lastPage] < _pageRows[_lastPage]) {
+            return _lastPage;
+        }
+        int lo = 0, hi = _pageCount - 1;
+        while (lo < hi) {
+            int mid = (lo + hi + 1) >>> 1;
+            if (_firstRow[mid] <= k) {
+                lo = mid;
+            } else {
+                hi = mid - 1;
+            }
+        }
+        return lo;
+    }
+
+    /** Record that I am about to change, marking my file as inconsistent
+     *  until my next flush. */
+    private void markChanged() {
+        if (!_changed) {
+            try {
+                writeHeader(false);
+            } catch (IOException e) {
+                throw error("trouble writing to %s", _fileName);
+            }
+            _changed = true;
+        }
+    }
+
+    /** Write my header page, marked clean iff CLEAN. */
+    private void writeHeader(boolean clean) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(PAGE_SIZE);
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(MAGIC);
+        out.writeInt(PAGE_SIZE);
+        out.writeBoolean(clean);
+        out.writeInt(_pageCount);
+        out.writeInt(_size);
+        out.writeShort(_titles.length);
+        for (String title : _titles) {
+            out.writeUTF(title);
+        }
+        out.write(new byte[PAGE_SIZE - out.size()]);
+        RandomAccessFile file = file();
+        file.seek(0);
+        file.write(bytes.toByteArray());
+    }
+
+    /** Return my open file, opening it if needed. */
+    private RandomAccessFile file() throws IOException {
+        if (_file == null) {
+            _file = new RandomAccessFile(_fileName, "rw");
+        }
+        return _file;
+    }
+
+    /** Return the position in my file of data page #PAGE (or, for
+     *  PAGE == _pageCount, of the directory). */
+    private static long offset(int page) {
+        return (long) (page + 1) * PAGE_SIZE;
+    }
+
+    /** Identifies files in this format. */
+    private static final int MAGIC = 0xDB61B9A6;
+    /** Bytes of fixed information in the header page. */
+    private static final int HEADER_SIZE = 19;
+    /** Bytes at the start of each data page holding its row count. */
+    private static final int PAGE_HEADER_SIZE = 2;
+    /** Identifying number for the next store created. */
+    private static int _nextId;
+
+    /** Name of my file. */
+    private final String _fileName;
+    /** My column titles. */
+    private final String[] _titles;
+    /** Pool caching my pages. */
+    private final BufferPool _pool;
+    /** My identifying number. */
+    private final int _id;
+    /** My file, when open. */
+    private RandomAccessFile _file;
+    /** Number of data pages. */
+    private int _pageCount;
+    /** Number of rows. */
+    private int _size;
+    /** _pageRows[p] is the number of rows on page #p. */
+    private int[] _pageRows;
+    /** _firstRow[p] is the number of the first row on page #p. */
+    private int[] _firstRow;
+    /** Number of the page most recently fetched by get, or -1. */
+    private int _lastPage = -1;
+    /** The rows of page #_lastPage. */
+    private List<Row> _lastRows;
+    /** True iff I have changed since my file was last consistent. */
+    private boolean _changed;
+}
@@ -0,0 +1,394 @@
+package db61b;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.function.Function;
+
+import static db61b.Utils.*;
+
+/** The division of the rows of a Table among partitions, themselves
+ *  Tables, by ranges of the values of one of its columns (the
+ *  partitioning column).  Given bounds B0 < B1 < ... < Bn, partition 0
+ *  holds the rows whose values are less than B0, partition K the rows
+ *  whose values are at least B(K-1) and less than BK, and partition
+ *  n+1 the rows whose values are at least Bn.  A scan of the table
+ *  passes over the partitions whose ranges cannot satisfy its
+ *  conditions without reading them (see TableIterator.restrict).
+ *
+ *  The rows of a partitioned table are numbered by partition: row K of
+ *  partition P is row P * STRIDE + K of the table, so that adding a row
+ *  to one partition does not renumber the rows of the others.
+ *
+ *  A partitioned table NAME is stored as the file NAME.parts, which
+ *  holds its column titles, its partitioning column, and its bounds,
+ *  one to a line, together with the file NAME.pK.db for each partition
+ *  K.  A partition need not be in memory.  When the table is loaded,
+ *  and when a partition is archived, the partition is read from its
+ *  file only when it is first needed, so that partitions that are
+ *  always pruned are never read.
+ *  @author Qi Liu
+ */
+class Partitioning {
+
+    /** Number of row numbers set aside for each partition. */
+    static final int STRIDE = 1 << 24;
+    /** Greatest number of partitions. */
+    static final int MAX_PARTITIONS = Integer.MAX_VALUE / STRIDE + 1;
+
+    /** The partitioning of a table NAME with column titles TITLES by
+     *  column #COLUMN at BOUNDS, which must increase, whose partitions
+     *  are empty if ONDISK is false, and are otherwise read when needed
+     *  by LOADER, which returns the table read from a given file name
+     *  (less its .db extension). */
+    Partitioning(String name, String[] titles, int column,
+                 String[] bounds, boolean onDisk,
+                 Function<String, Table> loader) {
+        if (bounds.length + 1 > MAX_PARTITIONS) {
+            throw error("at most %d partitions are allowed",
+                        MAX_PARTITIONS);
+        }
+        for (int i = 1; i < bounds.length; i += 1) {
+            if (bounds[i - 1].compareTo(bounds[i]) >= 0) {
+                throw error("partition bounds must increase");
+            }
+        }
+        _name = name;
+        _titles = titles;
+        _column = column;
+        _bounds = bounds.clone();
+        _loader = loader;
+        _partitions = new Table[bounds.length + 1];
+        if (!onDisk) {
+            for (int p = 0; p < _partitions.length; p += 1) {
+                _partitions[p] = new Table(fileName(p), titles);
+                _partitions[p].buildFilters();
+            }
+        }
+    }
+
+    /** Return the number of my partitions. */
+    int size() {
+        return _partitions.length;
+    }
+
+    /** Return the number of my partitioning column. */
+    int column() {
+        return _column;
+    }
+
+    /** Return my bounds. */
+    String[] bounds() {
+        return _bounds.clone();
+    }
+
+    /** Return the name (less the .db extension) of the file holding
+     *  partition #P. */
+    String fileName(int p) {
+        return _name + ".p" + p;
+    }
+
+    /** Return the number of the partition holding rows whose
+     *  partitioning column has the value VALUE. */
+    int partitionOf(String value) {
+        int lo = 0, hi = _bounds.length;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (_bounds[mid].compareTo(value) <= 0) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    /** Return partition #P, reading it from its file if it is not in
+     *  memory. */
+    Table partition(int p) {
+        if (_partitions[p] == null) {
+            reload(p);
+        }
+        return _partitions[p];
+    }
+
+    /** Return true iff partition #P is in memory. */
+    boolean isLoaded(int p) {
+        return _partitions[p] != null;
+    }
+
+    /** Replace partition #P with the contents of its file. */
+    void reload(int p) {
+        Table table = _loader.apply(fileName(p));
+        if (table.numColumns() != _titles.length) {
+            throw error("%s.db does not match %s", fileName(p), _name);
+        }
+        if (_key != null) {
+            table.setKey(_key);
+        }
+        if (_partitions[p] != null) {
+            _partitions[p].free();
+        }
+        _partitions[p] = table;
+    }
+
+    /** Release partition #P from memory, to be read from its file when
+     *  next needed. */
+    void unload(int p) {
+        if (_partitions[p] != null) {
+            _partitions[p].close();
+            _partitions[p].free();
+            _partitions[p] = null;
+        }
+    }
+
+    /** Return my partitions, reading any that are not in memory. */
+    List<Table> partitions() {
+        List<Table> result = new ArrayList<Table>();
+        for (int p = 0; p < _partitions.length; p += 1) {
+            result.add(partition(p));
+        }
+        return result;
+    }
+
+    /** Return my partitions that are in memory. */
+    List<Table> loaded() {
+        List<Table> result = new ArrayList<Table>();
+        for (Table table : _partitions) {
+            if (table != null) {
+                result.add(table);
+            }
+        }
+        return result;
+    }
+
+    /** Return an array indicating, for each of my partitions, whether
+     *  none of its rows can satisfy all of RESTRICTIONS, which compare
+     *  columns with literals (so that it may be pruned from a scan). */
+    boolean[] prune(List<Condition> restrictions) {
+        boolean[] pruned = new boolean[_partitions.length];
+        for (Condition condition : restrictions) {
+            if (condition.column1().index() != _column) {
+                continue;
+            }
+            for (int p = 0; p < pruned.length; p += 1) {
+                String low = p == 0 ? null : _bounds[p - 1],
+                    high = p == _bounds.length ? null : _bounds[p];
+                if (!condition.mayMatch(low, high)) {
+                    pruned[p] = true;
+                }
+            }
+        }
+        return pruned;
+    }
+
+    /** Add ROW to the partition holding it, if no equal row already
+     *  exists, and return its row number, or -1 if it was not added. */
+    int add(Row row) {
+        int p = partitionOf(row.get(_column));
+        Table table = roomIn(p);
+        if (!table.add(row)) {
+            return -1;
+        }
+        return p * STRIDE + table.slots() - 1;
+    }
+
+    /** Add ROW to the partition holding it without checking for an
+     *  equal row, and return its row number. */
+    int addDistinct(Row row) {
+        int p = partitionOf(row.get(_column));
+        Table table = roomIn(p);
+        table.addDistinct(row);
+        return p * STRIDE + table.slots() - 1;
+    }
+
+    /** Replace row #K with ROW, as for Table.update.  If ROW belongs in
+     *  another partition, it is added there and row #K deleted. */
+    boolean update(int k, Row row) {
+        int p = k / STRIDE, q = partitionOf(row.get(_column));
+        if (p == q) {
+            return partition(p).update(k % STRIDE, row);
+        }
+        boolean added = roomIn(q).add(row);
+        partition(p).delete(k % STRIDE);
+        return added;
+    }
+
+    /** Return the partition holding row #K. */
+    Table holder(int k) {
+        return partition(k / STRIDE);
+    }
+
+    /** Return the number within its partition of row #K. */
+    static int local(int k) {
+        return k % STRIDE;
+    }
+
+    /** Return false if no row has VALUE in column K, and true if some row
+     *  may, as for Table.mightContain.  Partitions not in memory are
+     *  assumed to contain every value. */
+    boolean mightContain(int k, String value) {
+        if (k == _column) {
+            int p = partitionOf(value);
+            return !isLoaded(p) || _partitions[p].mightContain(k, value);
+        }
+        for (Table table : _partitions) {
+            if (table == null || table.mightContain(k, value)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /** Make the columns numbered COLUMNS the primary key of each of my
+     *  partitions, which must include my partitioning column, so that
+     *  rows with equal keys always fall in the same partition. */
+    void setKey(int[] columns) {
+        boolean covered = false;
+        for (int c : columns) {
+            covered |= c == _column;
+        }
+        if (!covered) {
+            throw error("the primary key of %s must include its"
+                        + " partitioning column", _name);
+        }
+        for (Table table : partitions()) {
+            table.setKey(columns);
+        }
+        _key = columns.clone();
+    }
+
+    /** Return the number of rows in all my partitions. */
+    int rows() {
+        int n = 0;
+        for (int p = 0; p < _partitions.length; p += 1) {
+            n += partition(p).size();
+        }
+        return n;
+    }
+
+    /** Return an iterator over the rows of all my partitions, in
+     *  order. */
+    Iterator<Row> iterator() {
+        return new Iterator<Row>() {
+            @Override
+            public boolean hasNext() {
+                while (!_rows.hasNext() && _p + 1 < _partitions.length) {
+                    _p += 1;
+                    _rows = partition(_p).iterator();
+                }
+                return _rows.hasNext();
+            }
+
+            @Override
+            public Row next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                return _rows.next();
+            }
+
+            /** Number of the partition being iterated over. */
+            private int _p = -1;
+            /** Iterator over the rows of partition #_p. */
+            private Iterator<Row> _rows = List.<Row>of().iterator();
+        };
+    }
+
+    /** Write NAME.parts, describing me as the partitioning of a table
+     *  NAME. */
+    void writeSpec(String name) {
+        File parts = new File(name + ".parts");
+        File temp = new File(name + ".parts.tmp");
+        try (PrintStream output = new PrintStream(temp)) {
+            for (String title : _titles) {
+                output.print(title + ",");
+            }
+            output.println();
+            output.println(_titles[_column]);
+            for (String bound : _bounds) {
+                output.println(bound);
+            }
+            if (output.checkError()) {
+                throw new IOException();
+            }
+        } catch (IOException e) {
+            temp.delete();
+            throw error("trouble writing to %s.parts", name);
+        }
+        replaceFile(temp, parts);
+    }
+
+    /** Return true iff NAME is stored as a partitioned table: that is,
+     *  NAME.parts exists and is at least as recent as NAME.db, if
+     *  any. */
+    static boolean isStored(String name) {
+        File parts = new File(name + ".parts"), db = new File(name + ".db");
+        return parts.isFile()
+            && (!db.exists() || parts.lastModified() >= db.lastModified());
+    }
+
+    /** Return the partitioned table NAME described by NAME.parts, whose
+     *  partitions are read when needed by LOADER, which returns the
+     *  table read from a given file name. */
+    static Table read(String name, Function<String, Table> loader) {
+        try (BufferedReader input =
+                 new BufferedReader(new FileReader(name + ".parts"))) {
+            String header = input.readLine(), column = input.readLine();
+            if (header == null || column == null) {
+                throw error("missing header in %s.parts", name);
+            }
+            List<String> bounds = new ArrayList<String>();
+            for (String line = input.readLine(); line != null;
+                 line = input.readLine()) {
+                bounds.add(line);
+            }
+            Table table = new Table(name, header.split(","));
+            int k = table.columnIndex(column);
+            if (k == -1) {
+                throw error("unknown partitioning column in %s.parts",
+                            name);
+            }
+            table.partition(new Partitioning(
+                name, header.split(","), k,
+                bounds.toArray(new String[bounds.size()]), true, loader));
+            return table;
+        } catch (FileNotFoundException e) {
+            throw error("could not find %s.parts", name);
+        } catch (IOException e) {
+            throw error("problem reading from %s.parts", name);
+        }
+    }
+
+    /** Return partition #P, throwing a DBException if it has no row
+     *  numbers left. */
+    private Table roomIn(int p) {
+        Table table = partition(p);
+        if (table.slots() == STRIDE) {
+            throw error("partition %d of %s is full", p, _name);
+        }
+        return table;
+    }
+
+    /** Name of my table. */
+    private final String _name;
+    /** Column titles of my table. */
+    private final String[] _titles;
+    /** Number of my partitioning column. */
+    private final int _column;
+    /** Lower bounds of partitions 1 and on. */
+    private final String[] _bounds;
+    /** My partitions, or null for those not in memory. */
+    private final Table[] _partitions;
+    /** Reads partitions from files. */
+    private final Function<String, Table> _loader;
+    /** Columns of the primary key of my partitions, or null. */
+    private int[] _key;
+}
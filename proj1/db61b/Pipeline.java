@@ -0,0 +1,190 @@
+package db61b;
+
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Scanner;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+import static db61b.Utils.*;
+
+/** The tokens of a script, read and broken into tokens by a thread of
+ *  their own (the producer) ahead of the statements that use them, for
+ *  batch mode ('java db61b.Main --batch').  The producer hands the
+ *  tokens of each statement, through ";", to the thread executing
+ *  statements (the executor) through a queue holding at most CAPACITY
+ *  statements, so that reading and tokenizing the script overlaps with
+ *  executing it, and neither thread gets more than CAPACITY statements
+ *  ahead of the other.  A lexical error (such as an unterminated
+ *  literal) is handed over in its place in the token stream, and is
+ *  thrown when the executor reaches it, just as if the executor had
+ *  read the script itself.
+ *  @author Qi Liu
+ */
+class Pipeline {
+
+    /** Greatest number of statements waiting in the queue. */
+    static final int CAPACITY = 256;
+
+    /** A Pipeline reading the script INPUT, whose producer is started
+     *  here. */
+    Pipeline(Scanner input) {
+        _queue = new ArrayBlockingQueue<Chunk>(CAPACITY);
+        _chunk = new Chunk(List.of(), null);
+        _tokens = _chunk.tokens.iterator();
+        _start = System.nanoTime();
+        Thread producer = new Thread(() -> produce(input), "producer");
+        producer.setDaemon(true);
+        producer.start();
+    }
+
+    /** Return the next token of my script, or "*EOF*" at its end, waiting
+     *  for the producer if need be.  Throws a DBException for a lexical
+     *  error.  For use by the executor only. */
+    String next() {
+        while (!_tokens.hasNext()) {
+            if (_chunk.error != null) {
+                String message = _chunk.error;
+                _chunk = new Chunk(List.of(), null);
+                throw error("%s", message);
+            }
+            if (_finished) {
+                return "*EOF*";
+            }
+            _chunk = take();
+            _tokens = _chunk.tokens.iterator();
+        }
+        String token = _tokens.next();
+        _finished |= token.equals("*EOF*");
+        return token;
+    }
+
+    /** Print the number of statements and tokens that have passed through
+     *  me, the rate at which they were executed, and the time each thread
+     *  spent waiting for the other, on OUT. */
+    void report(PrintStream out) {
+        long elapsed = System.nanoTime() - _start;
+        long statements, tokens, producerWait;
+        synchronized (this) {
+            statements = _statements;
+            tokens = _tokenCount;
+            producerWait = _producerWait;
+        }
+        out.printf("Batch: %d statements, %d tokens in %.3f ms"
+                   + " (%.0f statements/s, %.0f tokens/s)%n",
+                   statements, tokens, elapsed / 1e6,
+                   statements / (elapsed / 1e9), tokens / (elapsed / 1e9));
+        out.printf("  executor waited %.3f ms for input,"
+                   + " producer waited %.3f ms for room%n",
+                   _executorWait / 1e6, producerWait / 1e6);
+    }
+
+    /** Read and tokenize INPUT, queueing the tokens of each statement,
+     *  until reaching the end of INPUT. */
+    private void produce(Scanner input) {
+        Tokenizer lexer = new Tokenizer(input, null);
+        List<String> tokens = new ArrayList<String>();
+        while (true) {
+            String token;
+            try {
+                token = lexer.next();
+            } catch (DBException e) {
+                put(new Chunk(tokens, e.getMessage()));
+                tokens = new ArrayList<String>();
+                lexer.flush();
+                continue;
+            }
+            tokens.add(token);
+            if (token.equals(";") || token.equals("*EOF*")) {
+                put(new Chunk(tokens, null));
+                if (token.equals("*EOF*")) {
+                    return;
+                }
+                tokens = new ArrayList<String>();
+                lexer.flush();
+            }
+        }
+    }
+
+    /** Add CHUNK to my queue, waiting for room if need be.  For use by
+     *  the producer. */
+    private void put(Chunk chunk) {
+        long start = System.nanoTime();
+        boolean waited = false;
+        try {
+            if (!_queue.offer(chunk)) {
+                waited = true;
+                _queue.put(chunk);
+            }
+        } catch (InterruptedException e) {
+            return;
+        }
+        synchronized (this) {
+            if (waited) {
+                _producerWait += System.nanoTime() - start;
+            }
+            List<String> tokens = chunk.tokens;
+            int n = tokens.size();
+            if (n > 0 && tokens.get(n - 1).equals(";")) {
+                _statements += 1;
+            }
+            _tokenCount += n;
+        }
+    }
+
+    /** Remove and return the first chunk of my queue, waiting for one if
+     *  need be.  For use by the executor. */
+    private Chunk take() {
+        Chunk chunk = _queue.poll();
+        if (chunk != null) {
+            return chunk;
+        }
+        long start = System.nanoTime();
+        try {
+            chunk = _queue.take();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw error("interrupted");
+        }
+        _executorWait += System.nanoTime() - start;
+        return chunk;
+    }
+
+    /** The tokens of one statement, or of the part of one before a
+     *  lexical error. */
+    private static class Chunk {
+
+        /** A chunk holding TOKENS, followed by a lexical error described
+         *  by ERROR if it is not null. */
+        Chunk(List<String> tokens, String error) {
+            this.tokens = tokens;
+            this.error = error;
+        }
+
+        /** My tokens. */
+        final List<String> tokens;
+        /** Description of the lexical error following my tokens, or
+         *  null. */
+        final String error;
+    }
+
+    /** Chunks queued by the producer for the executor. */
+    private final BlockingQueue<Chunk> _queue;
+    /** The chunk whose tokens the executor is reading. */
+    private Chunk _chunk;
+    /** The tokens of _chunk not yet read. */
+    private Iterator<String> _tokens;
+    /** True iff the executor has reached the end of the script. */
+    private boolean _finished;
+    /** Value of System.nanoTime() when I was created. */
+    private final long _start;
+    /** Nanoseconds the executor has spent waiting for chunks. */
+    private long _executorWait;
+    /** Nanoseconds the producer has spent waiting for room in the
+     *  queue. */
+    private long _producerWait;
+    /** Numbers of complete statements and of tokens queued. */
+    private long _statements, _tokenCount;
+}
@@ -0,0 +1,160 @@
+package db61b;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.function.IntFunction;
+
+/** An index of the values in one column of a Table, kept in sorted
+ *  order, which finds the rows whose values start with a given prefix
+ *  by binary search, in time proportional to the length of the prefix
+ *  times the log of the number of entries, plus the number of matches,
+ *  rather than by scanning the table.
+ *
+ *  Entries are kept in two parallel arrays, of values and of row
+ *  numbers.  Entries added since the last lookup are appended unsorted,
+ *  and are sorted and merged with the rest at the next lookup, so that
+ *  a run of additions costs no more than one sort.  As with HashIndex,
+ *  a lookup may yield deleted rows, and rows under values they had
+ *  before being updated, and the caller checks each row.
+ *
+ *  The index also gives the rows in order of their values, as for a
+ *  merge join (see MergeJoin) of a table not already in that order.
+ *  @author Qi Liu
+ */
+class PrefixIndex {
+
+    /** An empty index. */
+    PrefixIndex() {
+        _values = new String[INITIAL_CAPACITY];
+        _rows = new int[INITIAL_CAPACITY];
+    }
+
+    /** Return the number of entries in me. */
+    int size() {
+        return _size;
+    }
+
+    /** Return an estimate of the memory I take, in bytes, not counting
+     *  the values themselves, which are generally shared with rows. */
+    long bytes() {
+        return 32 + Row.align(16 + 4L * _values.length)
+            + Row.align(16 + 4L * _rows.length);
+    }
+
+    /** Record that row #ROW has the value VALUE. */
+    void put(String value, int row) {
+        if (_size == _rows.length) {
+            _values = Arrays.copyOf(_values, 2 * _size);
+            _rows = Arrays.copyOf(_rows, 2 * _size);
+        }
+        _values[_size] = value;
+        _rows[_size] = row;
+        _size += 1;
+    }
+
+    /** Return the numbers of the rows recorded with values starting with
+     *  PREFIX, in increasing order and without repetition. */
+    int[] find(String prefix) {
+        sortPending();
+        int lo = 0, hi = _size;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (_values[mid].compareTo(prefix) < 0) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        int end = lo;
+        while (end < _size && _values[end].startsWith(prefix)) {
+            end += 1;
+        }
+        int[] rows = Arrays.copyOfRange(_rows, lo, end);
+        Arrays.sort(rows);
+        int n = 0;
+        for (int i = 0; i < rows.length; i += 1) {
+            if (n == 0 || rows[n - 1] != rows[i]) {
+                rows[n] = rows[i];
+                n += 1;
+            }
+        }
+        return Arrays.copyOf(rows, n);
+    }
+
+    /** Return the numbers of the rows recorded, in increasing order of
+     *  their recorded values, each once, omitting those whose current
+     *  values, as given by CURRENT, differ from those recorded (CURRENT
+     *  gives null for rows that no longer exist). */
+    int[] ordered(IntFunction<String> current) {
+        sortPending();
+        int[] rows = new int[_size];
+        BitSet seen = new BitSet();
+        int n = 0;
+        for (int i = 0; i < _size; i += 1) {
+            int row = _rows[i];
+            if (!seen.get(row) && _values[i].equals(current.apply(row))) {
+                seen.set(row);
+                rows[n] = row;
+                n += 1;
+            }
+        }
+        return Arrays.copyOf(rows, n);
+    }
+
+    /** Sort my entries added since the last lookup into the rest. */
+    private void sortPending() {
+        if (_sorted < _size) {
+            sort(_sorted, _size);
+            merge(0, _sorted, _size);
+            _sorted = _size;
+        }
+    }
+
+    /** Sort my entries START .. END-1 by value. */
+    private void sort(int start, int end) {
+        if (end - start < 2) {
+            return;
+        }
+        int mid = (start + end) >>> 1;
+        sort(start, mid);
+        sort(mid, end);
+        merge(start, mid, end);
+    }
+
+    /** Merge my entries START .. MID-1 and MID .. END-1, each sorted by
+     *  value, into START .. END-1. */
+    private void merge(int start, int mid, int end) {
+        if (start == mid || mid == end
+            || _values[mid - 1].compareTo(_values[mid]) <= 0) {
+            return;
+        }
+        String[] leftValues = Arrays.copyOfRange(_values, start, mid);
+        int[] leftRows = Arrays.copyOfRange(_rows, start, mid);
+        int i = 0, j = mid, k = start;
+        while (i < leftValues.length) {
+            if (j == end || leftValues[i].compareTo(_values[j]) <= 0) {
+                _values[k] = leftValues[i];
+                _rows[k] = leftRows[i];
+                i += 1;
+            } else {
+                _values[k] = _values[j];
+                _rows[k] = _rows[j];
+                j += 1;
+            }
+            k += 1;
+        }
+    }
+
+    /** Initial number of entries for which there is room. */
+    private static final int INITIAL_CAPACITY = 16;
+
+    /** Values of my entries: sorted up to _sorted, and then in the order
+     *  added. */
+    private String[] _values;
+    /** Row numbers of my entries. */
+    private int[] _rows;
+    /** Number of entries. */
+    private int _size;
+    /** Number of my first entries that are in sorted order. */
+    private int _sorted;
+}
@@ -0,0 +1,291 @@
+package db61b;
+
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import static db61b.Utils.*;
+
+/** Read replicas of a database: worker processes (see Worker) that
+ *  follow a log of the changes made to the database by this process
+ *  (the primary), and answer selects in its place.
+ *
+ *  The log is a sequence of records, each the text of a statement that
+ *  repeats a change when a replica executes it, numbered from 0 by
+ *  log sequence number (LSN).  A statement whose effect depends on
+ *  more than the database (such as a load, which reads a file) is
+ *  logged as the creation of its resulting table, followed by an
+ *  insertion of each of its rows.  A replica begins with such records
+ *  for each table of the database when it starts (a snapshot), with
+ *  materialized views created from their definitions, and then applies
+ *  the records appended after, in order.  Distributed tables (see
+ *  Cluster) are not replicated.  Each replica
+ *  has a thread that sends it the records it has not applied, in
+ *  batches, and notes how far it has got.  Records that every replica
+ *  has applied are discarded, and while there are no replicas, nothing
+ *  is logged.
+ *
+ *  A replica's lag is the number of records it has yet to apply, and
+ *  its staleness is the age of the oldest of them, or 0 if there are
+ *  none.  A read may require a bound on staleness, and waits, if need
+ *  be, for some replica to catch up that far; a bound of 0 requires a
+ *  replica that has applied every change made so far.
+ *  @author Qi Liu
+ */
+class Replication {
+
+    /** Greatest number of records sent to a replica at once. */
+    static final int BATCH = 1000;
+
+    /** Return true iff I have replicas, and so log changes. */
+    synchronized boolean isLogging() {
+        return !_replicas.isEmpty();
+    }
+
+    /** Append RECORDS, the changes made by one statement, to my log,
+     *  if I have replicas. */
+    synchronized void append(List<String> records) {
+        if (_replicas.isEmpty()) {
+            return;
+        }
+        long now = System.nanoTime();
+        for (String record : records) {
+            _records.add(record);
+            _times.add(now);
+        }
+        trim();
+        notifyAll();
+    }
+
+    /** Return the records that create TABLE, named NAME, with its
+     *  rows. */
+    static List<String> records(String name, Table table) {
+        List<String> records = new ArrayList<String>();
+        records.add(Worker.create(name, table));
+        for (Row row : table) {
+            records.add(Worker.insert(name, row));
+        }
+        return records;
+    }
+
+    /** Start a new replica whose initial contents are given by the
+     *  records of SNAPSHOT, and return its number. */
+    int start(List<String> snapshot) {
+        Replica replica;
+        synchronized (this) {
+            _started += 1;
+            replica = new Replica(_started, new Worker(_started), end());
+        }
+        try {
+            for (int s = 0; s < snapshot.size(); s += BATCH) {
+                replica.worker.run(snapshot.subList(
+                    s, Math.min(s + BATCH, snapshot.size())));
+            }
+        } catch (DBException e) {
+            replica.worker.stop();
+            throw error("replica %d could not load the database: %s",
+                        replica.number, e.getMessage());
+        }
+        synchronized (this) {
+            _replicas.add(replica);
+        }
+        Thread sender = new Thread(() -> send(replica),
+                                   "replica " + replica.number);
+        sender.setDaemon(true);
+        sender.start();
+        return replica.number;
+    }
+
+    /** Stop all my replicas, and return how many there were. */
+    int stop() {
+        List<Replica> replicas;
+        synchronized (this) {
+            replicas = new ArrayList<Replica>(_replicas);
+            for (Replica replica : replicas) {
+                replica.stopped = true;
+            }
+            _replicas.clear();
+            _records.clear();
+            _times.clear();
+            _base = 0;
+            notifyAll();
+        }
+        for (Replica replica : replicas) {
+            replica.worker.stop();
+        }
+        return replicas.size();
+    }
+
+    /** Return the rows selected by the select clause whose text is QUERY,
+     *  as performed by one of my replicas whose staleness is at most
+     *  MAXSTALENESS milliseconds, or by any replica if MAXSTALENESS is
+     *  negative.  If none is fresh enough, wait until one is.  Replicas
+     *  are used in turn. */
+    List<Row> read(String query, long maxStaleness) {
+        Replica replica;
+        synchronized (this) {
+            while (true) {
+                replica = choose(maxStaleness);
+                if (replica != null) {
+                    break;
+                }
+                try {
+                    wait(10);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw error("interrupted");
+                }
+                Cancellation.check();
+            }
+        }
+        return Worker.rows(replica.worker.run(
+            List.of("fetch " + query + ";")));
+    }
+
+    /** Print the length of my log and the lag and staleness of each of
+     *  my replicas on OUT. */
+    synchronized void report(PrintStream out) {
+        out.printf("Replication log: %d records%n", end());
+        for (Replica replica : _replicas) {
+            if (replica.failure != null) {
+                out.printf("  replica %d: failed: %s%n", replica.number,
+                           replica.failure);
+            } else {
+                out.printf("  replica %d: %d records behind, %d ms stale%n",
+                           replica.number, end() - replica.applied,
+                           staleness(replica));
+            }
+        }
+    }
+
+    /** Send the records of my log to REPLICA as they are appended, until
+     *  it is stopped or fails. */
+    private void send(Replica replica) {
+        while (true) {
+            List<String> batch;
+            long upto;
+            synchronized (this) {
+                while (!replica.stopped && replica.applied == end()) {
+                    try {
+                        wait();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+                if (replica.stopped) {
+                    return;
+                }
+                upto = Math.min(end(), replica.applied + BATCH);
+                batch = new ArrayList<String>(
+                    _records.subList((int) (replica.applied - _base),
+                                     (int) (upto - _base)));
+            }
+            try {
+                replica.worker.run(batch);
+            } catch (DBException e) {
+                synchronized (this) {
+                    if (!replica.stopped) {
+                        replica.failure = e.getMessage();
+                    }
+                    notifyAll();
+                }
+                return;
+            }
+            synchronized (this) {
+                replica.applied = upto;
+                trim();
+                notifyAll();
+            }
+        }
+    }
+
+    /** Return the next of my replicas, in turn, that has not failed and
+     *  whose staleness is at most MAXSTALENESS milliseconds (if
+     *  MAXSTALENESS is not negative), or null if there is none.  Throw a
+     *  DBException if no replica can be used. */
+    private Replica choose(long maxStaleness) {
+        boolean live = false;
+        for (int k = 0; k < _replicas.size(); k += 1) {
+            _turn = (_turn + 1) % _replicas.size();
+            Replica replica = _replicas.get(_turn);
+            if (replica.failure == null) {
+                live = true;
+                if (maxStaleness < 0 || staleness(replica) <= maxStaleness) {
+                    return replica;
+                }
+            }
+        }
+        if (!live) {
+            throw error("no replicas are available");
+        }
+        return null;
+    }
+
+    /** Return the staleness of REPLICA in milliseconds, rounded up, so
+     *  that only a replica that has applied all my log has staleness
+     *  0. */
+    private long staleness(Replica replica) {
+        if (replica.applied == end()) {
+            return 0;
+        }
+        long time = _times.get((int) (replica.applied - _base));
+        return (System.nanoTime() - time + 999_999) / 1_000_000;
+    }
+
+    /** Return the LSN following the last record of my log. */
+    private long end() {
+        return _base + _records.size();
+    }
+
+    /** Discard the records of my log that all replicas have applied, once
+     *  there are at least BATCH of them. */
+    private void trim() {
+        long applied = end();
+        for (Replica replica : _replicas) {
+            applied = Math.min(applied, replica.applied);
+        }
+        int n = (int) (applied - _base);
+        if (n >= BATCH) {
+            _records.subList(0, n).clear();
+            _times.subList(0, n).clear();
+            _base = applied;
+        }
+    }
+
+    /** A replica and how far it has got. */
+    private static class Replica {
+
+        /** Replica #NUMBER, served by WORKER, which has applied the
+         *  records before LSN APPLIED. */
+        Replica(int number, Worker worker, long applied) {
+            this.number = number;
+            this.worker = worker;
+            this.applied = applied;
+        }
+
+        /** My number. */
+        final int number;
+        /** The worker process serving as me. */
+        final Worker worker;
+        /** LSN of the first record I have not applied. */
+        long applied;
+        /** The reason I failed to apply a record, or null. */
+        String failure;
+        /** True iff I have been stopped. */
+        boolean stopped;
+    }
+
+    /** My replicas, in order of starting. */
+    private final List<Replica> _replicas = new ArrayList<Replica>();
+    /** Records of my log from LSN _base on. */
+    private final List<String> _records = new ArrayList<String>();
+    /** Values of System.nanoTime() when each of _records was
+     *  appended. */
+    private final List<Long> _times = new ArrayList<Long>();
+    /** LSN of _records.get(0). */
+    private long _base;
+    /** Number of replicas started so far. */
+    private int _started;
+    /** Index in _replicas of the replica last chosen for a read. */
+    private int _turn = -1;
+}
@@ -0,0 +1,65 @@
+package db61b;
+
+import java.util.Iterator;
+import java.util.List;
+
+/** The storage holding the rows of a Table, which are numbered from 0 in
+ *  the order they were added.
+ *  @author Qi Liu
+ */
+interface RowStore extends Iterable<Row> {
+
+    /** Return the number of rows I hold. */
+    int size();
+
+    /** Return row #K.  Requires 0 <= K < size(). */
+    Row get(int k);
+
+    /** Return the value of column #COL of row #K, which may be cheaper
+     *  than get(K).get(COL).  Requires 0 <= K < size(). */
+    String value(int k, int col);
+
+    /** Append ROW, which becomes row #size()-1. */
+    void add(Row row);
+
+    /** Replace row #K with ROW, if there is room for it where row #K is
+     *  kept, and return true.  Otherwise, return false and leave me
+     *  unchanged. */
+    boolean set(int k, Row row);
+
+    /** Remove all my rows. */
+    void clear();
+
+    /** Return a list of my current rows that my later changes do not
+     *  affect, and that may be read by another thread while I change. */
+    List<Row> snapshot();
+
+    /** Return an estimate of the memory taken by my rows, in bytes.
+     *  Rows kept in a file and cached by a BufferPool count as part of
+     *  the pool, not of me. */
+    long bytes();
+
+    /** Move my rows out of memory, if I can, until they are next
+     *  needed, when they are brought back without any action by my
+     *  user.  Return true iff I did so (or my rows are already out of
+     *  memory). */
+    boolean spill();
+
+    /** Return true iff my rows have been spilled and not yet brought
+     *  back. */
+    boolean isSpilled();
+
+    /** Return an iterator over my rows in order. */
+    @Override
+    Iterator<Row> iterator();
+
+    /** Write any buffered changes to my backing storage, if any, and
+     *  release the resources that hold it open.  I may still be used
+     *  afterwards. */
+    void close();
+
+    /** Release the memory and other resources I hold, as for close,
+     *  without waiting for the garbage collector.  I may not be used
+     *  afterwards. */
+    void free();
+}
@@ -0,0 +1,242 @@
+package db61b;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+
+import static db61b.Utils.*;
+
+/** The set operations union, intersect, and except on the rows of two
+ *  tables with the same number of columns.
+ *
+ *  Each operation streams through its inputs once, using Row.hashCode
+ *  and Row.equals.  A union adds both inputs to its result, which
+ *  removes duplicates as it goes.  An intersection or difference builds
+ *  a hash set of the rows of its right input and probes it with each
+ *  row of its left input.  When the right input has more rows than the
+ *  spill limit, both inputs are first divided by hash code into
+ *  partitions kept in temporary files, and the partitions are then
+ *  processed one pair at a time, so that only one partition of the
+ *  right input need be in memory at once.
+ *
+ *  Each loop polls Cancellation for each row.  Temporary files are
+ *  deleted even when an operation is abandoned.
+ *  @author Qi Liu
+ */
+class SetOperation {
+
+    /** Default greatest number of rows held in a hash set before inputs
+     *  are partitioned. */
+    static final int DEFAULT_SPILL_ROWS = 1 << 20;
+
+    /** Return true iff WORD names a set operation. */
+    static boolean isOperator(String word) {
+        switch (word) {
+        case "union": case "intersect": case "except":
+            return true;
+        default:
+            return false;
+        }
+    }
+
+    /** Return the greatest number of rows held in a hash set before
+     *  inputs are partitioned. */
+    static int spillRows() {
+        return _spillRows;
+    }
+
+    /** Set the greatest number of rows held in a hash set before inputs
+     *  are partitioned to ROWS. */
+    static void setSpillRows(int rows) {
+        if (rows < 1) {
+            throw error("spill limit must be at least one row");
+        }
+        _spillRows = rows;
+    }
+
+    /** Return a new Table named NAME, with the column titles of LEFT,
+     *  holding the result of LEFT OPERATOR RIGHT, where OPERATOR is
+     *  "union", "intersect", or "except". */
+    static Table combine(String operator, Table left, Table right,
+                         String name) {
+        if (!isOperator(operator)) {
+            throw error("unknown set operation: %s", operator);
+        }
+        if (left.numColumns() != right.numColumns()) {
+            throw error("%s of selects with different numbers of columns",
+                        operator);
+        }
+        String[] titles = new String[left.numColumns()];
+        for (int k = 0; k < titles.length; k += 1) {
+            titles[k] = left.title(k);
+        }
+        Table result = new Table(name, titles);
+        if (operator.equals("union")) {
+            addAll(left, result);
+            addAll(right, result);
+        } else {
+            boolean keepMatches = operator.equals("intersect");
+            if (right.size() <= _spillRows) {
+                probe(left, build(right), keepMatches, result);
+            } else {
+                int partitions = (right.size() - 1) / _spillRows + 1;
+                combinePartitions(left, right, 2 * partitions,
+                                  keepMatches, result);
+            }
+        }
+        return result;
+    }
+
+    /** Add all rows of TABLE to RESULT. */
+    private static void addAll(Iterable<Row> table, Table result) {
+        for (Row row : table) {
+            Stats.count(Stats.ROWS_SCANNED);
+            Cancellation.poll();
+            result.add(row);
+        }
+    }
+
+    /** Return a hash set of the rows of TABLE. */
+    private static HashSet<Row> build(Iterable<Row> table) {
+        HashSet<Row> rows = new HashSet<Row>();
+        for (Row row : table) {
+            Stats.count(Stats.ROWS_SCANNED);
+            Cancellation.poll();
+            rows.add(row);
+        }
+        return rows;
+    }
+
+    /** Add to RESULT each row of TABLE that is in ROWS, if KEEPMATCHES,
+     *  or that is not, otherwise. */
+    private static void probe(Iterable<Row> table, HashSet<Row> rows,
+                              boolean keepMatches, Table result) {
+        for (Row row : table) {
+            Stats.count(Stats.ROWS_SCANNED);
+            Cancellation.poll();
+            if (rows.contains(row) == keepMatches) {
+                result.add(row);
+            }
+        }
+    }
+
+    /** Divide LEFT and RIGHT into N partitions each, and add to RESULT
+     *  the rows of each partition of LEFT that are in the corresponding
+     *  partition of RIGHT, if KEEPMATCHES, or are not, otherwise. */
+    private static void combinePartitions(Table left, Table right, int n,
+                                          boolean keepMatches,
+                                          Table result) {
+        File[] lefts = null, rights = null;
+        try {
+            lefts = partition(left, n);
+            rights = partition(right, n);
+            for (int p = 0; p < n; p += 1) {
+                probe(read(lefts[p], left.numColumns()),
+                      build(read(rights[p], right.numColumns())),
+                      keepMatches, result);
+            }
+        } catch (IOException e) {
+            throw error("trouble with temporary files: %s", e.getMessage());
+        } finally {
+            delete(lefts);
+            delete(rights);
+        }
+    }
+
+    /** Write the rows of TABLE into N new temporary files by hash code,
+     *  and return the files.  If this fails, the files are deleted. */
+    private static File[] partition(Table table, int n) throws IOException {
+        File[] files = new File[n];
+        try {
+            write(table, files);
+        } catch (IOException | RuntimeException e) {
+            delete(files);
+            throw e;
+        }
+        return files;
+    }
+
+    /** Write the rows of TABLE into FILES.length new temporary files by
+     *  hash code, storing the files in FILES as they are created. */
+    private static void write(Table table, File[] files) throws IOException {
+        int n = files.length;
+        DataOutputStream[] outs = new DataOutputStream[n];
+        try {
+            for (int p = 0; p < n; p += 1) {
+                files[p] = File.createTempFile("db61b", ".part");
+                files[p].deleteOnExit();
+                outs[p] = new DataOutputStream(new BufferedOutputStream(
+                    new FileOutputStream(files[p])));
+            }
+            for (Row row : table) {
+                Stats.count(Stats.ROWS_SCANNED);
+                Cancellation.poll();
+                DataOutputStream out = outs[partitionOf(row, n)];
+                for (int k = 0; k < row.size(); k += 1) {
+                    out.writeUTF(row.get(k));
+                }
+            }
+        } finally {
+            for (DataOutputStream out : outs) {
+                if (out != null) {
+                    Stats.count(Stats.BYTES_WRITTEN, out.size());
+                    out.close();
+                }
+            }
+        }
+    }
+
+    /** Return the rows of NUMCOLUMNS columns written to FILE by
+     *  partition. */
+    private static List<Row> read(File file, int numColumns)
+        throws IOException {
+        List<Row> rows = new ArrayList<Row>();
+        try (DataInputStream in = new DataInputStream(
+                 new BufferedInputStream(new FileInputStream(file)))) {
+            while (true) {
+                String[] values = new String[numColumns];
+                try {
+                    values[0] = in.readUTF();
+                } catch (EOFException e) {
+                    break;
+                }
+                for (int k = 1; k < numColumns; k += 1) {
+                    values[k] = in.readUTF();
+                }
+                rows.add(new Row(values));
+            }
+        }
+        Stats.count(Stats.BYTES_READ, file.length());
+        return rows;
+    }
+
+    /** Return the number of the partition of N to which ROW belongs. */
+    private static int partitionOf(Row row, int n) {
+        int h = row.hashCode() * 0x9E3779B9;
+        return Math.floorMod(h ^ (h >>> 16), n);
+    }
+
+    /** Delete FILES, if not null, ignoring null elements. */
+    private static void delete(File[] files) {
+        if (files != null) {
+            for (File file : files) {
+                if (file != null) {
+                    file.delete();
+                }
+            }
+        }
+    }
+
+    /** Greatest number of rows held in a hash set before inputs are
+     *  partitioned. */
+    private static int _spillRows = DEFAULT_SPILL_ROWS;
+}
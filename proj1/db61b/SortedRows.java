@@ -0,0 +1,114 @@
+package db61b;
+
+import java.util.HashMap;
+import java.util.PriorityQueue;
+
+/** A collection of distinct Rows, each with a sort key, that retains
+ *  only the first LIMIT rows under a given Ordering.  The rows are
+ *  kept in a bounded heap whose root is the last of the retained rows,
+ *  so that selecting the first K of N rows takes O(N lg K) time and
+ *  O(K) space.
+ *  @author Qi Liu
+ */
+class SortedRows {
+
+    /** An empty collection that will retain the first LIMIT rows under
+     *  ORDERING, or all rows if LIMIT is negative. */
+    SortedRows(Ordering ordering, int limit) {
+        this(ordering, limit, false);
+    }
+
+    /** An empty collection that will retain the first LIMIT rows under
+     *  ORDERING, or all rows if LIMIT is negative, and to which, if
+     *  DISTINCT, no row will be added twice, so that duplicates need
+     *  not be detected. */
+    SortedRows(Ordering ordering, int limit, boolean distinct) {
+        _ordering = ordering;
+        _limit = limit;
+        _heap = new PriorityQueue<Entry>(11, (e1, e2) ->
+                                         ordering.compare(e2.key, e1.key));
+        _members = distinct ? null : new HashMap<Row, Entry>();
+    }
+
+    /** Add ROW, whose sort key is KEY, if it is among the first LIMIT
+     *  rows seen so far.  A ROW that is already present keeps the
+     *  lesser of its two keys. */
+    void add(Row row, String[] key) {
+        Entry old = _members == null ? null : _members.get(row);
+        if (old != null) {
+            Stats.count(Stats.DUPLICATES);
+            if (_ordering.compare(key, old.key) < 0) {
+                _heap.remove(old);
+                old.key = key;
+                _heap.add(old);
+            }
+            return;
+        }
+        if (_limit >= 0 && _heap.size() >= _limit) {
+            if (_limit == 0 || _ordering.compare(key, _heap.peek().key) >= 0) {
+                return;
+            }
+            Entry last = _heap.poll();
+            if (_members != null) {
+                _members.remove(last.row);
+            }
+        }
+        Entry entry = new Entry(row, key);
+        _heap.add(entry);
+        if (_members != null) {
+            _members.put(row, entry);
+        }
+    }
+
+    /** Return the Ordering on my rows. */
+    Ordering ordering() {
+        return _ordering;
+    }
+
+    /** Return the number of rows I currently retain. */
+    int size() {
+        return _heap.size();
+    }
+
+    /** Add my rows to TABLE in order, emptying me. */
+    void addTo(Table table) {
+        Entry[] sorted = new Entry[_heap.size()];
+        for (int i = sorted.length - 1; i >= 0; i -= 1) {
+            sorted[i] = _heap.poll();
+        }
+        for (Entry entry : sorted) {
+            if (_members == null) {
+                table.addDistinct(entry.row);
+            } else {
+                table.add(entry.row);
+            }
+        }
+        if (_members != null) {
+            _members.clear();
+        }
+    }
+
+    /** A retained row and its sort key. */
+    private static class Entry {
+        /** An Entry for ROW with sort key KEY. */
+        Entry(Row row, String[] key) {
+            this.row = row;
+            this.key = key;
+        }
+
+        /** The row. */
+        private Row row;
+        /** Its sort key. */
+        private String[] key;
+    }
+
+    /** The Ordering on my rows. */
+    private final Ordering _ordering;
+    /** The maximum number of rows I retain, or -1 if unbounded. */
+    private final int _limit;
+    /** My retained rows, with the last of them at the root. */
+    private PriorityQueue<Entry> _heap;
+    /** Maps each retained Row to its Entry in _heap, or null if rows
+     *  are known to be distinct. */
+    private HashMap<Row, Entry> _members;
+}
@@ -0,0 +1,188 @@
+package db61b;
+
+import java.io.PrintStream;
+import java.util.Arrays;
+
+/** Counters and timers describing the work done by the last statement
+ *  executed and by all statements so far.  The counts are kept in
+ *  static arrays, so that the classes that do the work (Table,
+ *  TableIterator, Condition, and so on) can update them with a single
+ *  addition, without a reference to the interpreter.  Counts for a
+ *  statement are added to the totals when it ends.  Work that a
+ *  statement hands to other threads (as for a load of several tables)
+ *  is counted separately, under a lock, and added to the statement's
+ *  counts when it ends, so that the common case stays a plain
+ *  addition.
+ *  @author Qi Liu
+ */
+class Stats {
+
+    /** Numbers of the counters: rows returned by scans of tables,
+     *  evaluations of Conditions, rows produced by selects (before
+     *  duplicates are removed), rows rejected as duplicates, bytes read
+     *  and written by loads, stores, and paged tables, hash joins that
+     *  switched to grace hash joins and to index nested loops (see
+     *  HashJoin), partitions spilled by grace hash joins, nanoseconds
+     *  spent reading tokens, and nanoseconds spent on the whole
+     *  statement. */
+    static final int
+        ROWS_SCANNED = 0, CONDITIONS = 1, ROWS_EMITTED = 2,
+        DUPLICATES = 3, BYTES_READ = 4, BYTES_WRITTEN = 5,
+        GRACE_JOINS = 6, INDEX_JOINS = 7, GRACE_PARTITIONS = 8,
+        PARSE_TIME = 9, TOTAL_TIME = 10;
+
+    /** Names of the counters in dumps, by number. */
+    private static final String[] KEYS = {
+        "rows_scanned", "condition_evals", "rows_emitted",
+        "duplicates_rejected", "bytes_read", "bytes_written",
+        "grace_joins", "index_joins", "grace_partitions",
+        "parse_ns", "total_ns",
+    };
+
+    /** Descriptions of the counters other than the timers in reports,
+     *  by number. */
+    private static final String[] LABELS = {
+        "rows scanned", "condition evaluations", "rows emitted",
+        "duplicates rejected", "bytes read", "bytes written",
+        "joins switched to grace", "joins switched to index nested loop",
+        "grace partitions spilled",
+    };
+
+    /** Add 1 to COUNTER for the current statement. */
+    static void count(int counter) {
+        count(counter, 1);
+    }
+
+    /** Add N to COUNTER for the current statement. */
+    static void count(int counter, long n) {
+        if (Thread.currentThread() == _owner) {
+            _statement[counter] += n;
+        } else {
+            synchronized (_others) {
+                _others[counter] += n;
+            }
+        }
+    }
+
+    /** Return the value of COUNTER for the last completed statement. */
+    static long statement(int counter) {
+        return _last[counter];
+    }
+
+    /** Return the value of COUNTER summed over all completed
+     *  statements. */
+    static long total(int counter) {
+        return _total[counter];
+    }
+
+    /** Return the number of completed statements. */
+    static long statements() {
+        return _statements;
+    }
+
+    /** Start counting for a new statement beginning with the keyword
+     *  COMMAND.  Anything counted since the last statement ended is
+     *  discarded. */
+    static void begin(String command) {
+        Arrays.fill(_statement, 0);
+        synchronized (_others) {
+            Arrays.fill(_others, 0);
+        }
+        _owner = Thread.currentThread();
+        _current = command;
+        _start = System.nanoTime();
+    }
+
+    /** Finish counting for the current statement, adding its counts to
+     *  the totals, and dumping them on the standard error if dumping is
+     *  on. */
+    static void end() {
+        _statement[TOTAL_TIME] = System.nanoTime() - _start;
+        synchronized (_others) {
+            for (int k = 0; k < _others.length; k += 1) {
+                _statement[k] += _others[k];
+                _others[k] = 0;
+            }
+        }
+        for (int k = 0; k < _total.length; k += 1) {
+            _total[k] += _statement[k];
+            _last[k] = _statement[k];
+        }
+        _statements += 1;
+        _command = _current;
+        if (_dumping) {
+            dumpStatement(System.err);
+        }
+    }
+
+    /** If DUMPING, dump the counts for each statement on the standard
+     *  error as it ends; otherwise stop doing so. */
+    static void setDumping(boolean dumping) {
+        _dumping = dumping;
+    }
+
+    /** Print the counts for the last statement and the totals on OUT. */
+    static void report(PrintStream out) {
+        if (_statements > 0) {
+            out.printf("Last statement (%s):", _command);
+            report(out, _last);
+        }
+        out.printf("All %d statements:", _statements);
+        report(out, _total);
+    }
+
+    /** Print the counts for the last statement and the totals on OUT,
+     *  each as a single line of KEY=VALUE pairs. */
+    static void dump(PrintStream out) {
+        if (_statements > 0) {
+            dumpStatement(out);
+        }
+        out.printf("stats scope=total statements=%d", _statements);
+        dump(out, _total);
+    }
+
+    /** Print the times and then the other counts in COUNTS on OUT. */
+    private static void report(PrintStream out, long[] counts) {
+        out.printf(" %.3f ms, of which %.3f ms parsing%n",
+                   counts[TOTAL_TIME] / 1e6, counts[PARSE_TIME] / 1e6);
+        for (int k = 0; k < LABELS.length; k += 1) {
+            out.printf("  %s: %d%n", LABELS[k], counts[k]);
+        }
+    }
+
+    /** Print the counts for the last statement on OUT as a single line
+     *  of KEY=VALUE pairs. */
+    private static void dumpStatement(PrintStream out) {
+        out.printf("stats scope=statement number=%d command=%s",
+                   _statements, _command);
+        dump(out, _last);
+    }
+
+    /** Print COUNTS on OUT as KEY=VALUE pairs ending a line. */
+    private static void dump(PrintStream out, long[] counts) {
+        for (int k = 0; k < KEYS.length; k += 1) {
+            out.printf(" %s=%d", KEYS[k], counts[k]);
+        }
+        out.println();
+    }
+
+    /** Counts for the current statement, by counter number. */
+    private static final long[] _statement = new long[KEYS.length];
+    /** Counts for the current statement made on threads other than
+     *  _owner. */
+    private static final long[] _others = new long[KEYS.length];
+    /** The thread running the current statement. */
+    private static Thread _owner;
+    /** Counts for the last completed statement. */
+    private static final long[] _last = new long[KEYS.length];
+    /** Counts summed over all completed statements. */
+    private static final long[] _total = new long[KEYS.length];
+    /** Number of completed statements. */
+    private static long _statements;
+    /** First keywords of the current and last completed statements. */
+    private static String _current, _command;
+    /** Value of System.nanoTime() when the current statement began. */
+    private static long _start;
+    /** True iff counts are dumped as each statement ends. */
+    private static boolean _dumping;
+}
@@ -0,0 +1,190 @@
+package db61b;
+
+import java.util.Arrays;
+
+/** A t-digest, which estimates the quantiles of the numbers added to it
+ *  in space that depends only on its compression.
+ *
+ *  A t-digest summarizes the numbers as centroids: means with the
+ *  number of values (weights) they stand for, in increasing order.
+ *  Centroids near the extremes stand for few values and those near the
+ *  median for many, as limited by the scale function
+ *  k(q) = COMPRESSION / 2pi * asin(2q - 1): the values of a centroid
+ *  must span at most 1 in k, where q is the fraction of all values
+ *  below them.  New values are buffered, and merged with the centroids
+ *  in one sorted pass whenever the buffer fills.  A quantile is found
+ *  by interpolating between the means of the centroids on either side
+ *  of its rank, so that its rank is off by at most about half the
+ *  weight of the nearest centroid (see rankError).
+ *  @author Qi Liu
+ */
+class TDigest {
+
+    /** Compression: roughly the number of centroids kept. */
+    static final double COMPRESSION = 100;
+
+    /** An empty digest. */
+    TDigest() {
+        int n = (int) (2 * COMPRESSION);
+        _means = new double[n];
+        _weights = new long[n];
+        _buffer = new double[(int) (5 * COMPRESSION)];
+    }
+
+    /** Add X to me. */
+    void add(double x) {
+        if (_buffered == _buffer.length) {
+            merge();
+        }
+        _buffer[_buffered] = x;
+        _buffered += 1;
+        _count += 1;
+        _min = Math.min(_min, x);
+        _max = Math.max(_max, x);
+    }
+
+    /** Return the number of values added to me. */
+    long count() {
+        return _count;
+    }
+
+    /** Return an estimate of the Q-quantile of my values, where
+     *  0 <= Q <= 1.  I must not be empty. */
+    double quantile(double q) {
+        merge();
+        double rank = q * _count;
+        if (rank <= _weights[0] / 2.0) {
+            return interpolate(_min, 0, _means[0], _weights[0] / 2.0, rank);
+        }
+        double below = 0;
+        for (int c = 0; c + 1 < _centroids; c += 1) {
+            double center = below + _weights[c] / 2.0,
+                next = below + _weights[c] + _weights[c + 1] / 2.0;
+            if (rank <= next) {
+                return interpolate(_means[c], center, _means[c + 1], next,
+                                   rank);
+            }
+            below += _weights[c];
+        }
+        int last = _centroids - 1;
+        return interpolate(_means[last], _count - _weights[last] / 2.0,
+                           _max, _count, rank);
+    }
+
+    /** Return a bound on the error in the rank of quantile(Q), as a
+     *  fraction of count(): half the weight of the centroid nearest to
+     *  that rank, or 0 for a centroid of one value, which is exact. */
+    double rankError(double q) {
+        merge();
+        double rank = q * _count, below = 0;
+        for (int c = 0; c < _centroids; c += 1) {
+            if (rank <= below + _weights[c] || c == _centroids - 1) {
+                return _weights[c] == 1 ? 0 : _weights[c] / 2.0 / _count;
+            }
+            below += _weights[c];
+        }
+        return 0;
+    }
+
+    /** Merge the buffered values into the centroids. */
+    private void merge() {
+        if (_buffered == 0) {
+            return;
+        }
+        int n = _centroids + _buffered;
+        double[] means = Arrays.copyOf(_means, n);
+        long[] weights = Arrays.copyOf(_weights, n);
+        Arrays.sort(_buffer, 0, _buffered);
+        System.arraycopy(_buffer, 0, means, _centroids, _buffered);
+        Arrays.fill(weights, _centroids, n, 1);
+        mergeSorted(means, weights, 0, _centroids, n);
+        _buffered = 0;
+
+        int merged = 0;
+        double before = 0, limit = limitAfter(0);
+        for (int c = 0; c < n; c += 1) {
+            if (merged > 0
+                && (before + _weights[merged - 1] + weights[c]) / _count
+                   <= limit) {
+                long w = _weights[merged - 1] + weights[c];
+                _means[merged - 1] += (means[c] - _means[merged - 1])
+                    * weights[c] / w;
+                _weights[merged - 1] = w;
+                continue;
+            }
+            if (merged > 0) {
+                before += _weights[merged - 1];
+                limit = limitAfter(before / _count);
+            }
+            if (merged == _means.length) {
+                _means = Arrays.copyOf(_means, 2 * merged);
+                _weights = Arrays.copyOf(_weights, 2 * merged);
+            }
+            _means[merged] = means[c];
+            _weights[merged] = weights[c];
+            merged += 1;
+        }
+        _centroids = merged;
+    }
+
+    /** Return the greatest fraction of all values that may lie below the
+     *  end of a centroid whose values start at fraction Q. */
+    private static double limitAfter(double q) {
+        double k = COMPRESSION / (2 * Math.PI) * Math.asin(2 * q - 1) + 1;
+        if (k >= COMPRESSION / 4) {
+            return 1;
+        }
+        return (Math.sin(k * 2 * Math.PI / COMPRESSION) + 1) / 2;
+    }
+
+    /** Merge the centroids MEANS[START .. MID-1] and MEANS[MID .. END-1]
+     *  (with their WEIGHTS), each in increasing order of mean, into
+     *  MEANS[START .. END-1]. */
+    private static void mergeSorted(double[] means, long[] weights,
+                                    int start, int mid, int end) {
+        double[] leftMeans = Arrays.copyOfRange(means, start, mid);
+        long[] leftWeights = Arrays.copyOfRange(weights, start, mid);
+        int i = 0, j = mid, k = start;
+        while (i < leftMeans.length) {
+            if (j == end || leftMeans[i] <= means[j]) {
+                means[k] = leftMeans[i];
+                weights[k] = leftWeights[i];
+                i += 1;
+            } else {
+                means[k] = means[j];
+                weights[k] = weights[j];
+                j += 1;
+            }
+            k += 1;
+        }
+    }
+
+    /** Return the value at rank RANK on the line through (RANK0, X0) and
+     *  (RANK1, X1), where RANK0 <= RANK <= RANK1. */
+    private static double interpolate(double x0, double rank0,
+                                      double x1, double rank1,
+                                      double rank) {
+        if (rank1 <= rank0) {
+            return x0;
+        }
+        double t = Math.max(0, Math.min(1, (rank - rank0)
+                                          / (rank1 - rank0)));
+        return x0 + t * (x1 - x0);
+    }
+
+    /** Means of my centroids, in increasing order. */
+    private double[] _means;
+    /** Weights of my centroids. */
+    private long[] _weights;
+    /** Number of my centroids. */
+    private int _centroids;
+    /** Values not yet merged into the centroids. */
+    private double[] _buffer;
+    /** Number of values in _buffer. */
+    private int _buffered;
+    /** Number of values added to me. */
+    private long _count;
+    /** Least and greatest values added to me. */
+    private double _min = Double.POSITIVE_INFINITY,
+        _max = Double.NEGATIVE_INFINITY;
+}
@@ -1,173 +1,1162 @@
-package db61b;
-
-import java.io.BufferedReader;
-import java.io.FileNotFoundException;
-import java.io.FileReader;
-import java.io.IOException;
-import java.io.PrintStream;
-import java.util.ArrayList;
-import java.util.Iterator;
-import java.util.List;
-
-import static db61b.Utils.*;
-
-/** A single table in a database.
- *  @author Qi Liu
- */
-class Table implements Iterable<Row> {
-    /** A new Table named NAME whose columns are give by COLUMNTITLES,
-     *  which must be distinct (else exception thrown). */
-    Table(String name, String[] columnTitles) {
-        _name = name;
-        for (int i = 0; i < columnTitles.length; i += 1) {
-            for (int j = i + 1; j < columnTitles.length; j += 1) {
-                if (columnTitles[i].compareTo(columnTitles[j]) == 0) {
-                    throw error("repeated column titles: %s", columnTitles[i]);
-                }
-            }
-        }
-        _titles = columnTitles;
-    }
-
-    /** A new Table named NAME whose column names are give by COLUMNTITLES. */
-    Table(String name, List<String> columnTitles) {
-        this(name, columnTitles.toArray(new String[columnTitles.size()]));
-    }
-
-    /** Return the number of columns in this table. */
-    int numColumns() {
-        return _titles.length;
-    }
-
-    /** Returns my name. */
-    String name() {
-        return _name;
-    }
-
-    /** Returns a TableIterator over my rows in an unspecified order. */
-    TableIterator tableIterator() {
-        return new TableIterator(this);
-    }
-
-    /** Returns an iterator that returns my rows in an unspecfied order. */
-    @Override
-    public Iterator<Row> iterator() {
-        return _rows.iterator();
-    }
-
-    /** Return the title of the Kth column.  Requires 0 <= K < columns(). */
-    String title(int k) {
-        return _titles[k];
-    }
-
-    /** Return the number of the column whose title is TITLE, or -1 if
-     *  there isn't one. */
-    int columnIndex(String title) {
-        for (int i = 0; i < numColumns(); i += 1) {
-            if (title(i).compareTo(title) == 0) {
-                return i;
-            }
-        }
-        return -1;
-    }
-
-    /** Return the number of Rows in this table. */
-    int size() {
-        return _rows.size();
-    }
-
-    /** Add ROW to THIS if no equal row already exists.  Return true if anything
-     *  was added, false otherwise. */
-    boolean add(Row row) {
-        if (_rows.contains(row) || row.size() != numColumns()) {
-            return false;
-        }
-        _rows.add(row);
-        return true;
-    }
-
-    /** Read the contents of the file NAME.db, and return as a Table.
-     *  Format errors in the .db file cause a DBException. */
-    static Table readTable(String name) {
-        BufferedReader input;
-        Table table;
-        input = null;
-        table = null;
-        try {
-            input = new BufferedReader(new FileReader(name + ".db"));
-            String header = input.readLine();
-            if (header == null) {
-                throw error("missing header in DB file");
-            }
-            String[] columnNames = header.split(",");
-            table = new Table(name, columnNames);
-            String nextLine = input.readLine();
-            while (nextLine != null) {
-                String[] data = nextLine.split(",");
-                if (data.length != columnNames.length) {
-                    throw error("#inputs in row does not match #columns");
-                }
-                table.add(new Row(data));
-                nextLine = input.readLine();
-            }
-        } catch (FileNotFoundException e) {
-            throw error("could not find %s.db", name);
-        } catch (IOException e) {
-            throw error("problem reading from %s.db", name);
-        } finally {
-            if (input != null) {
-                try {
-                    input.close();
-                } catch (IOException e) {
-                    /* Ignore IOException */
-                }
-            }
-        }
-        return table;
-    }
-
-    /** Write the contents of TABLE into the file NAME.db. Any I/O errors
-     *  cause a DBException. */
-    void writeTable(String name) {
-        PrintStream output;
-        output = null;
-        try {
-            output = new PrintStream(name + ".db");
-            for (int i = 0; i < numColumns(); i += 1) {
-                output.print(_titles[i] + ",");
-            }
-            output.println();
-            for (Row row : _rows) {
-                for (int k = 0; k < numColumns(); k += 1) {
-                    output.print(row.get(k) + ",");
-                }
-                output.println();
-            }
-        } catch (IOException e) {
-            throw error("trouble writing to %s.db", name);
-        } finally {
-            if (output != null) {
-                output.close();
-            }
-        }
-    }
-
-    /** Print my contents on the standard output, separated by spaces
-     *  and indented by two spaces. */
-    void print() {
-        for (Row row : _rows) {
-            System.out.print("  ");
-            for (int k = 0; k < numColumns(); k += 1) {
-                System.out.print(row.get(k) + " ");
-            }
-            System.out.println();
-        }
-    }
-
-    /** My name. */
-    private final String _name;
-    /** My column titles. */
-    private String[] _titles;
-    /** My rows. */
-    private List<Row> _rows = new ArrayList<Row>();
-}
+package db61b;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.function.Function;
+
+import static db61b.Utils.*;
+
+/** A single table in a database.
+ *
+ *  Rows are numbered from 0 in the order they were added.  Deleting a
+ *  row only marks its number as deleted, so that the numbers of other
+ *  rows (and hence scans in progress, ZoneMaps, and indexes) are
+ *  unaffected.  Deleted rows are removed for good by compaction, which
+ *  renumbers the remaining rows.
+ *
+ *  A table may have a primary key: a set of columns whose values
+ *  together differ in every row.  The key is enforced with an index of
+ *  rows by the hash codes of their keys, which then also serves to
+ *  reject duplicate rows, since two equal rows have equal keys.
+ *
+ *  A table may also be partitioned: its rows are then held by other
+ *  Tables, its partitions, each holding the rows whose values in one
+ *  column lie in a given range, and are numbered by partition (see
+ *  Partitioning).
+ *  @author Qi Liu
+ */
+class Table implements Iterable<Row> {
+
+    /** Default fraction of deleted row numbers at which compactIfNeeded
+     *  compacts a table. */
+    static final double DEFAULT_COMPACTION_THRESHOLD = 0.25;
+    /** A new Table named NAME whose columns are give by COLUMNTITLES,
+     *  which must be distinct (else exception thrown). */
+    Table(String name, String[] columnTitles) {
+        this(name, columnTitles, new MemoryStore());
+    }
+
+    /** A new Table named NAME whose columns are give by COLUMNTITLES,
+     *  which must be distinct (else exception thrown), and whose rows
+     *  are those of STORE, which must be distinct. */
+    Table(String name, String[] columnTitles, RowStore store) {
+        _name = name;
+        for (int i = 0; i < columnTitles.length; i += 1) {
+            for (int j = i + 1; j < columnTitles.length; j += 1) {
+                if (columnTitles[i].compareTo(columnTitles[j]) == 0) {
+                    throw error("repeated column titles: %s", columnTitles[i]);
+                }
+            }
+        }
+        _titles = columnTitles;
+        _store = store;
+        _filters = new BloomFilter[columnTitles.length];
+        _prefixIndexes = new PrefixIndex[columnTitles.length];
+        _order = new byte[columnTitles.length];
+        _probes = new long[columnTitles.length];
+        _rejections = new long[columnTitles.length];
+    }
+
+    /** A new Table named NAME whose column names are give by COLUMNTITLES. */
+    Table(String name, List<String> columnTitles) {
+        this(name, columnTitles.toArray(new String[columnTitles.size()]));
+    }
+
+    /** Return the number of columns in this table. */
+    int numColumns() {
+        return _titles.length;
+    }
+
+    /** Returns my name. */
+    String name() {
+        return _name;
+    }
+
+    /** Returns a TableIterator over my rows in an unspecified order. */
+    TableIterator tableIterator() {
+        return new TableIterator(this);
+    }
+
+    /** Returns an iterator that returns my rows in an unspecfied order. */
+    @Override
+    public Iterator<Row> iterator() {
+        if (_partitioning != null) {
+            return _partitioning.iterator();
+        }
+        if (_deletedCount == 0) {
+            return _store.iterator();
+        }
+        Iterator<Row> rows = _store.iterator();
+        return new Iterator<Row>() {
+            @Override
+            public boolean hasNext() {
+                while (_next == null && rows.hasNext()) {
+                    Row row = rows.next();
+                    if (!isDeleted(_k)) {
+                        _next = row;
+                    }
+                    _k += 1;
+                }
+                return _next != null;
+            }
+
+            @Override
+            public Row next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                Row row = _next;
+                _next = null;
+                return row;
+            }
+
+            /** Number of the next row of _store. */
+            private int _k;
+            /** The next undeleted row, if already found, or null. */
+            private Row _next;
+        };
+    }
+
+    /** Return the title of the Kth column.  Requires 0 <= K < columns(). */
+    String title(int k) {
+        return _titles[k];
+    }
+
+    /** Return the number of the column whose title is TITLE, or -1 if
+     *  there isn't one. */
+    int columnIndex(String title) {
+        for (int i = 0; i < numColumns(); i += 1) {
+            if (title(i).compareTo(title) == 0) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /** Return the number of Rows in this table. */
+    int size() {
+        if (_partitioning != null) {
+            return _partitioning.rows();
+        }
+        return _store.size() - _deletedCount;
+    }
+
+    /** Return the number of row numbers in use: my rows, plus those
+     *  deleted since my last compaction.  Not meaningful if I am
+     *  partitioned. */
+    int slots() {
+        return _store.size();
+    }
+
+    /** Return my row #K, which may be deleted.  Requires
+     *  0 <= K < slots(). */
+    Row row(int k) {
+        if (_partitioning != null) {
+            return _partitioning.holder(k).row(Partitioning.local(k));
+        }
+        return _store.get(k);
+    }
+
+    /** Return the value of column #COL of my row #K, which may be
+     *  deleted.  Requires 0 <= K < slots(). */
+    String value(int k, int col) {
+        if (_partitioning != null) {
+            return _partitioning.holder(k).value(Partitioning.local(k), col);
+        }
+        return _store.value(k, col);
+    }
+
+    /** Return true iff row #K has been deleted. */
+    boolean isDeleted(int k) {
+        if (_partitioning != null) {
+            return _partitioning.holder(k).isDeleted(Partitioning.local(k));
+        }
+        return _deleted != null && _deleted.get(k);
+    }
+
+    /** Return my partitioning, or null if I am not partitioned. */
+    Partitioning partitioning() {
+        return _partitioning;
+    }
+
+    /** Return my partitions, reading any that are not in memory, or a
+     *  list of just me if I am not partitioned. */
+    List<Table> partitions() {
+        return _partitioning == null ? List.of(this)
+            : _partitioning.partitions();
+    }
+
+    /** Divide my rows among partitions by ranges of the values of column
+     *  #COLUMN, starting new partitions at BOUNDS, which must increase
+     *  (see Partitioning).  Partitions are read with readTable when they
+     *  are not in memory. */
+    void partition(int column, String[] bounds) {
+        partition(new Partitioning(_name, _titles, column, bounds, false,
+                                   Table::readTable));
+    }
+
+    /** Divide my rows among the partitions of PARTITIONING, which must
+     *  be empty if I have rows. */
+    void partition(Partitioning partitioning) {
+        if (_partitioning != null) {
+            throw error("%s is already partitioned", name());
+        }
+        List<Row> rows = new ArrayList<Row>(size());
+        for (Row row : this) {
+            rows.add(row);
+        }
+        if (_key != null) {
+            partitioning.setKey(_key);
+        }
+        for (Row row : rows) {
+            partitioning.addDistinct(row);
+        }
+        _partitioning = partitioning;
+        _store.clear();
+        _deleted = null;
+        _deletedCount = 0;
+        _rowIndex = null;
+        _keyIndex = null;
+        _zoneMap = null;
+        Arrays.fill(_filters, null);
+        Arrays.fill(_prefixIndexes, null);
+        Arrays.fill(_order, (byte) 0);
+    }
+
+    /** Return my storage. */
+    RowStore store() {
+        return _store;
+    }
+
+    /** Return an estimate of the memory taken by my rows, indexes,
+     *  Bloom filters, and ZoneMap, in bytes. */
+    long bytes() {
+        long bytes = _store.bytes();
+        if (_partitioning != null) {
+            for (Table table : _partitioning.loaded()) {
+                bytes += table.bytes();
+            }
+        }
+        if (_rowIndex != null) {
+            bytes += _rowIndex.bytes();
+        }
+        if (_keyIndex != null) {
+            bytes += _keyIndex.bytes();
+        }
+        if (_zoneMap != null) {
+            bytes += _zoneMap.bytes();
+        }
+        for (BloomFilter filter : _filters) {
+            if (filter != null) {
+                bytes += filter.bytes();
+            }
+        }
+        for (PrefixIndex index : _prefixIndexes) {
+            if (index != null) {
+                bytes += index.bytes();
+            }
+        }
+        if (_deleted != null) {
+            bytes += _deleted.size() / 8;
+        }
+        return bytes;
+    }
+
+    /** Move my rows out of memory until they are next needed, if my
+     *  storage allows (see RowStore.spill), dropping my row index and
+     *  prefix indexes, which are rebuilt when needed.  My ZoneMap and
+     *  Bloom filters are kept, so that scans may still skip blocks, and
+     *  selects rule out values, without reading my rows back.  Return
+     *  true iff my rows are spilled. */
+    boolean spill() {
+        if (_partitioning != null) {
+            boolean spilled = true;
+            for (Table table : _partitioning.loaded()) {
+                spilled &= table.spill();
+            }
+            return spilled;
+        }
+        if (!_store.spill()) {
+            return false;
+        }
+        _rowIndex = null;
+        _keyIndex = null;
+        Arrays.fill(_prefixIndexes, null);
+        return true;
+    }
+
+    /** Return true iff my rows are spilled. */
+    boolean isSpilled() {
+        if (_partitioning != null) {
+            for (Table table : _partitioning.loaded()) {
+                if (!table.isSpilled()) {
+                    return false;
+                }
+            }
+            return true;
+        }
+        return _store.isSpilled();
+    }
+
+    /** Add ROW to THIS if no equal row already exists.  Return true if anything
+     *  was added, false otherwise.  If I have a primary key, a ROW whose
+     *  key is that of a different row causes a DBException. */
+    boolean add(Row row) {
+        if (row.size() != numColumns()) {
+            return false;
+        }
+        if (_partitioning != null) {
+            int k = _partitioning.add(row);
+            if (k == -1) {
+                return false;
+            }
+            rowAdded(k);
+            return true;
+        }
+        int hash;
+        if (_key != null) {
+            int k = findKey(row);
+            if (k != -1) {
+                if (!row(k).equals(row)) {
+                    throw error("duplicate key in %s", name());
+                }
+                Stats.count(Stats.DUPLICATES);
+                return false;
+            }
+            hash = _rowIndex == null ? 0 : row.hashCode();
+        } else {
+            hash = row.hashCode();
+            if (find(row, hash) != -1) {
+                Stats.count(Stats.DUPLICATES);
+                return false;
+            }
+        }
+        append(row, hash);
+        rowAdded(_store.size() - 1);
+        return true;
+    }
+
+    /** Add ROW to THIS without checking for an equal row, which the
+     *  caller guarantees does not exist (nor, if I have a primary key,
+     *  a row with the same key). */
+    void addDistinct(Row row) {
+        if (row.size() != numColumns()) {
+            throw error("wrong number of values for %s", name());
+        }
+        if (_partitioning != null) {
+            rowAdded(_partitioning.addDistinct(row));
+            return;
+        }
+        append(row, _rowIndex == null ? 0 : row.hashCode());
+        rowAdded(_store.size() - 1);
+    }
+
+    /** Return the numbers of the columns of my primary key, or null if
+     *  I have none. */
+    int[] key() {
+        return _key;
+    }
+
+    /** Make the columns numbered COLUMNS my primary key.  Requires that
+     *  I have no rows.  If I am partitioned, the key must include my
+     *  partitioning column. */
+    void setKey(int[] columns) {
+        if (_partitioning != null) {
+            _partitioning.setKey(columns);
+            _key = columns.clone();
+            return;
+        }
+        if (slots() > 0) {
+            throw error("cannot add a key to %s, which has rows", name());
+        }
+        for (int c : columns) {
+            if (c < 0 || c >= numColumns()) {
+                throw new IndexOutOfBoundsException("column " + c);
+            }
+        }
+        _key = columns.clone();
+        _keyIndex = null;
+    }
+
+    /** Tell VIEW about each row added to me by add, if it is not
+     *  already told. */
+    void addView(View view) {
+        if (_views == null) {
+            _views = new ArrayList<View>();
+        }
+        if (!_views.contains(view)) {
+            _views.add(view);
+        }
+    }
+
+    /** Stop telling VIEW about added rows. */
+    void removeView(View view) {
+        if (_views != null) {
+            _views.remove(view);
+        }
+    }
+
+    /** Delete row #K, which must not already be deleted. */
+    void delete(int k) {
+        if (_partitioning != null) {
+            _partitioning.holder(k).delete(Partitioning.local(k));
+            return;
+        }
+        if (_deleted == null) {
+            _deleted = new BitSet();
+        }
+        _deleted.set(k);
+        _deletedCount += 1;
+    }
+
+    /** Replace row #K, which must not be deleted, with ROW.  If ROW
+     *  equals another of my rows, just delete row #K instead and return
+     *  false; otherwise return true.  ROW keeps the number K if my
+     *  storage has room for it there, and otherwise is added at the
+     *  end (of its partition, if I am partitioned). */
+    boolean update(int k, Row row) {
+        if (row.size() != numColumns()) {
+            throw error("wrong number of values for %s", name());
+        }
+        if (_partitioning != null) {
+            return _partitioning.update(k, row);
+        }
+        if (row.equals(row(k))) {
+            return true;
+        }
+        int hash;
+        if (_key != null) {
+            int other = findKey(row);
+            if (other != -1 && other != k) {
+                if (!row(other).equals(row)) {
+                    throw error("duplicate key in %s", name());
+                }
+                Stats.count(Stats.DUPLICATES);
+                delete(k);
+                return false;
+            }
+            hash = _rowIndex == null ? 0 : row.hashCode();
+        } else {
+            hash = row.hashCode();
+            if (find(row, hash) != -1) {
+                Stats.count(Stats.DUPLICATES);
+                delete(k);
+                return false;
+            }
+        }
+        if (_store.set(k, row)) {
+            if (_rowIndex != null) {
+                _rowIndex.put(hash, k);
+            }
+            if (_keyIndex != null) {
+                _keyIndex.put(keyHash(row), k);
+            }
+            if (_zoneMap != null) {
+                _zoneMap.widen(k, row);
+            }
+            addToFilters(row);
+            addToPrefixIndexes(row, k);
+            for (int c = 0; c < _order.length; c += 1) {
+                if (_order[c] == SORTED) {
+                    _order[c] = 0;
+                }
+            }
+        } else {
+            delete(k);
+            append(row, hash);
+        }
+        return true;
+    }
+
+    /** Return the fraction of deleted row numbers at which
+     *  compactIfNeeded compacts a table. */
+    static double compactionThreshold() {
+        return _compactionThreshold;
+    }
+
+    /** Set the fraction of deleted row numbers at which compactIfNeeded
+     *  compacts a table to THRESHOLD. */
+    static void setCompactionThreshold(double threshold) {
+        if (!(threshold > 0.0 && threshold <= 1.0)) {
+            throw error("compaction threshold must be between 0 and 1");
+        }
+        _compactionThreshold = threshold;
+    }
+
+    /** Compact me if at least the compaction threshold of my row numbers
+     *  are deleted.  Return true iff I was compacted. */
+    boolean compactIfNeeded() {
+        if (_partitioning != null) {
+            boolean compacted = false;
+            for (Table table : _partitioning.loaded()) {
+                compacted |= table.compactIfNeeded();
+            }
+            return compacted;
+        }
+        if (_deletedCount > 0
+            && _deletedCount >= _compactionThreshold * slots()) {
+            compact();
+            return true;
+        }
+        return false;
+    }
+
+    /** Remove my deleted rows, renumbering the rest consecutively in
+     *  the same order.  No TableIterator over me may be in use. */
+    void compact() {
+        if (_partitioning != null) {
+            for (Table table : _partitioning.loaded()) {
+                table.compact();
+            }
+            return;
+        }
+        if (_deletedCount == 0) {
+            return;
+        }
+        ArrayList<Row> rows = new ArrayList<Row>(size());
+        for (Row row : this) {
+            rows.add(row);
+        }
+        _store.clear();
+        for (Row row : rows) {
+            _store.add(row);
+        }
+        _deleted = null;
+        _deletedCount = 0;
+        _rowIndex = null;
+        _keyIndex = null;
+        _zoneMap = null;
+        Arrays.fill(_prefixIndexes, null);
+    }
+
+    /** Return the number of an undeleted row equal to ROW, whose hash
+     *  code is HASH, or -1 if there is none. */
+    private int find(Row row, int hash) {
+        return rowIndex().find(hash, k -> !isDeleted(k)
+                               && _store.get(k).equals(row));
+    }
+
+    /** Tell my views that my row #K has just been added. */
+    private void rowAdded(int k) {
+        if (_views != null) {
+            for (View view : _views) {
+                view.rowAdded(this, k);
+            }
+        }
+    }
+
+    /** Return the number of an undeleted row whose key equals that of
+     *  ROW, or -1 if there is none.  Requires that I have a key. */
+    private int findKey(Row row) {
+        return keyIndex().find(keyHash(row), k -> !isDeleted(k)
+                               && sameKey(k, row));
+    }
+
+    /** Return true iff row #K has the same key as ROW. */
+    private boolean sameKey(int k, Row row) {
+        for (int c : _key) {
+            if (!_store.value(k, c).equals(row.get(c))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** Return the hash code of the key of ROW. */
+    private int keyHash(Row row) {
+        int hash = 1;
+        for (int c : _key) {
+            hash = 31 * hash + row.get(c).hashCode();
+        }
+        return hash;
+    }
+
+    /** Add ROW, whose hash code is HASH (if my row index has been built),
+     *  after my last row. */
+    private void append(Row row, int hash) {
+        int last = _store.size() - 1;
+        for (int c = 0; c < _order.length; c += 1) {
+            if (_order[c] == SORTED && last >= 0
+                && _store.value(last, c).compareTo(row.get(c)) > 0) {
+                _order[c] = UNSORTED;
+            }
+        }
+        _store.add(row);
+        if (_rowIndex != null) {
+            _rowIndex.put(hash, _store.size() - 1);
+        }
+        if (_keyIndex != null) {
+            _keyIndex.put(keyHash(row), _store.size() - 1);
+        }
+        if (_zoneMap != null) {
+            _zoneMap.add(row);
+        }
+        addToFilters(row);
+        addToPrefixIndexes(row, _store.size() - 1);
+    }
+
+    /** Record ROW as row #K in those of my prefix indexes that have been
+     *  built. */
+    private void addToPrefixIndexes(Row row, int k) {
+        for (int c = 0; c < _prefixIndexes.length; c += 1) {
+            if (_prefixIndexes[c] != null) {
+                _prefixIndexes[c].put(row.get(c), k);
+            }
+        }
+    }
+
+    /** Return true iff my rows (including deleted ones) are in
+     *  increasing order of their values in column K, as when they were
+     *  selected with an ordering by that column.  The first call for a
+     *  column checks each row, and later calls use what it found, kept
+     *  up to date as rows are added.  A partitioned table is taken to be
+     *  unordered. */
+    boolean isSortedOn(int k) {
+        if (_partitioning != null) {
+            return false;
+        }
+        if (_order[k] == 0) {
+            _order[k] = SORTED;
+            for (int r = 1; r < slots(); r += 1) {
+                if (_store.value(r - 1, k).compareTo(_store.value(r, k))
+                    > 0) {
+                    _order[k] = UNSORTED;
+                    break;
+                }
+            }
+        }
+        return _order[k] == SORTED;
+    }
+
+    /** Return true iff I have a prefix index on column K. */
+    boolean hasPrefixIndex(int k) {
+        return _prefixIndexes[k] != null;
+    }
+
+    /** Return the numbers of my undeleted rows in increasing order of
+     *  their values in column K, using (and first building, if needed)
+     *  a prefix index on column K.  Not for use if I am partitioned. */
+    int[] rowsInOrder(int k) {
+        prefixIndex(k);
+        return _prefixIndexes[k].ordered(
+            r -> isDeleted(r) ? null : _store.value(r, k));
+    }
+
+    /** Return the numbers of my undeleted rows whose values in column K
+     *  start with PREFIX, in increasing order.  Uses (and first builds,
+     *  if needed) a prefix index on column K, which is then maintained
+     *  as rows are added.  Not for use if I am partitioned. */
+    int[] rowsWithPrefix(int k, String prefix) {
+        int[] rows = prefixIndex(k).find(prefix);
+        int n = 0;
+        for (int r : rows) {
+            if (!isDeleted(r) && _store.value(r, k).startsWith(prefix)) {
+                rows[n] = r;
+                n += 1;
+            }
+        }
+        return Arrays.copyOf(rows, n);
+    }
+
+    /** Return my prefix index on column K, building it first if
+     *  necessary. */
+    private PrefixIndex prefixIndex(int k) {
+        if (_prefixIndexes[k] == null) {
+            PrefixIndex index = new PrefixIndex();
+            for (int r = 0; r < slots(); r += 1) {
+                index.put(_store.value(r, k), r);
+            }
+            _prefixIndexes[k] = index;
+        }
+        return _prefixIndexes[k];
+    }
+
+    /** Add the values in ROW to those of my Bloom filters that have been
+     *  built, rebuilding any that are full. */
+    private void addToFilters(Row row) {
+        for (int k = 0; k < _filters.length; k += 1) {
+            BloomFilter filter = _filters[k];
+            if (filter != null) {
+                if (filter.count() == filter.capacity()) {
+                    _filters[k] = buildFilter(k);
+                } else {
+                    filter.add(row.get(k));
+                }
+            }
+        }
+    }
+
+    /** Return false if no row has VALUE in column K, and true if some row
+     *  may, according to my Bloom filter on column K.  Without one (as
+     *  for a table mapped or loaded lazily, until it is analyzed), return
+     *  true, rather than read my rows to build one. */
+    boolean mightContain(int k, String value) {
+        if (_partitioning != null) {
+            return _partitioning.mightContain(k, value);
+        }
+        if (_filters[k] == null) {
+            return true;
+        }
+        _probes[k] += 1;
+        if (!_filters[k].mightContain(value)) {
+            _rejections[k] += 1;
+            return false;
+        }
+        return true;
+    }
+
+    /** Build a Bloom filter on each of my columns that has none, from my
+     *  current rows, after which it is maintained as rows are added.
+     *  Done for tables as they are loaded or created, so that no select
+     *  waits for a filter to be built. */
+    void buildFilters() {
+        if (_partitioning != null) {
+            for (Table table : _partitioning.loaded()) {
+                table.buildFilters();
+            }
+            return;
+        }
+        for (int k = 0; k < _filters.length; k += 1) {
+            if (_filters[k] == null) {
+                _filters[k] = buildFilter(k);
+            }
+        }
+    }
+
+    /** Rebuild the Bloom filters on all my columns, sized for my current
+     *  rows at the current false-positive rate. */
+    void rebuildFilters() {
+        for (int k = 0; k < _filters.length; k += 1) {
+            _filters[k] = buildFilter(k);
+        }
+    }
+
+    /** Print a description of my Bloom filters on OUT. */
+    void reportFilters(PrintStream out) {
+        out.printf("Filters on %s (target false-positive rate %.2f%%):%n",
+                   name(), 100.0 * BloomFilter.falsePositiveRate());
+        for (int k = 0; k < _filters.length; k += 1) {
+            if (_filters[k] != null) {
+                out.printf("  %s: %s; %d of %d probes rejected%n", title(k),
+                           _filters[k], _rejections[k], _probes[k]);
+            }
+        }
+    }
+
+    /** Return the ZoneMap summarizing my rows, building it first if
+     *  necessary.  Once built, it is maintained as rows are added.  If I
+     *  was loaded lazily and building it would read columns that have
+     *  not yet been needed (see LazyStore), return null instead. */
+    ZoneMap zoneMap() {
+        if (_zoneMap == null) {
+            if (_store instanceof LazyStore
+                && ((LazyStore) _store).columnsRead() < numColumns()) {
+                return null;
+            }
+            rebuildZoneMap();
+        }
+        return _zoneMap;
+    }
+
+    /** Rebuild my ZoneMap from my current rows (including deleted ones),
+     *  using the current block size. */
+    void rebuildZoneMap() {
+        _zoneMap = new ZoneMap(numColumns(), ZoneMap.defaultBlockRows());
+        for (Row row : _store) {
+            _zoneMap.add(row);
+        }
+    }
+
+    /** Use the ZoneMap stored in FILENAME, if it exists, is no older than
+     *  the file SOURCE, and summarizes all my rows. */
+    private void attachZoneMap(String fileName, File source) {
+        ZoneMap zones = ZoneMap.read(fileName, numColumns(), source);
+        if (zones != null && zones.rows() == slots()) {
+            _zoneMap = zones;
+        }
+    }
+
+    /** Return a new Bloom filter holding the values in column K of my
+     *  rows, with room for as many again. */
+    private BloomFilter buildFilter(int k) {
+        BloomFilter filter =
+            new BloomFilter(2 * size(), BloomFilter.falsePositiveRate());
+        for (int r = 0; r < slots(); r += 1) {
+            if (!isDeleted(r)) {
+                filter.add(_store.value(r, k));
+            }
+        }
+        return filter;
+    }
+
+    /** Return the index of my rows by hash code, building it first if
+     *  necessary. */
+    private HashIndex rowIndex() {
+        if (_rowIndex == null) {
+            _rowIndex = new HashIndex();
+            int k = 0;
+            for (Row row : _store) {
+                _rowIndex.put(row.hashCode(), k);
+                k += 1;
+            }
+        }
+        return _rowIndex;
+    }
+
+    /** Return the index of my rows by the hash codes of their keys,
+     *  building it first if necessary.  Requires that I have a key. */
+    private HashIndex keyIndex() {
+        if (_keyIndex == null) {
+            _keyIndex = new HashIndex();
+            int k = 0;
+            for (Row row : _store) {
+                _keyIndex.put(keyHash(row), k);
+                k += 1;
+            }
+        }
+        return _keyIndex;
+    }
+
+    /** Write any buffered changes to my storage, removing deleted rows,
+     *  and release the resources it holds open. */
+    void close() {
+        compact();
+        _store.close();
+        if (_partitioning != null) {
+            for (Table table : _partitioning.loaded()) {
+                table.close();
+            }
+        }
+    }
+
+    /** Release the memory held by my rows, indexes, and filters at once,
+     *  when I am no longer part of the database.  I may not be used
+     *  afterwards. */
+    void free() {
+        if (_partitioning != null) {
+            for (Table table : _partitioning.loaded()) {
+                table.free();
+            }
+        }
+        _store.free();
+        _rowIndex = null;
+        _keyIndex = null;
+        _zoneMap = null;
+        Arrays.fill(_filters, null);
+        Arrays.fill(_prefixIndexes, null);
+        Arrays.fill(_order, (byte) 0);
+        _deleted = null;
+        _deletedCount = 0;
+    }
+
+    /** Read the contents of the file NAME.db, and return as a Table.
+     *  Format errors in the .db file cause a DBException. */
+    static Table readTable(String name) {
+        return readTable(name, titles -> new MemoryStore());
+    }
+
+    /** Read the contents of the file NAME.db, and return as a Table
+     *  whose rows are kept outside the heap (see OffHeapStore).  Format
+     *  errors in the .db file cause a DBException. */
+    static Table readOffHeapTable(String name) {
+        return readTable(name, titles -> new OffHeapStore());
+    }
+
+    /** Return the table NAME, reading from NAME.db only its header and
+     *  the positions of its rows, and each of its columns when first
+     *  needed (see LazyStore).  The partitions of a partitioned table
+     *  are each loaded in this way when needed. */
+    static Table readLazyTable(String name) {
+        if (Partitioning.isStored(name)) {
+            return Partitioning.read(name, Table::readLazyTable);
+        }
+        LazyStore store = LazyStore.open(name + ".db");
+        Table table = new Table(name, store.titles(), store);
+        table.attachZoneMap(name + ".zm", new File(name + ".db"));
+        return table;
+    }
+
+    /** Return the table NAME kept in pages of the file NAME.pages and
+     *  cached in POOL.  If that file is at least as recent as NAME.db
+     *  (or there is no NAME.db) and was cleanly written, it is mapped,
+     *  reading only its header and directory.  Otherwise, it is
+     *  (re)built from the contents of NAME.db.  The partitions of a
+     *  partitioned table are each mapped in this way. */
+    static Table mapTable(String name, BufferPool pool) {
+        if (Partitioning.isStored(name)) {
+            return Partitioning.read(name, part -> mapTable(part, pool));
+        }
+        File db = new File(name + ".db"), pages = new File(name + ".pages");
+        if (pages.isFile()
+            && (!db.exists() || pages.lastModified() >= db.lastModified())) {
+            PagedStore store = PagedStore.open(pages.getPath(), pool);
+            if (store != null) {
+                Table table = new Table(name, store.titles(), store);
+                table.attachZoneMap(name + ".zm", db);
+                return table;
+            }
+        }
+        Table table =
+            readTable(name, titles -> new PagedStore(name + ".pages",
+                                                     titles, pool));
+        table.store().close();
+        return table;
+    }
+
+    /** Read the contents of the file NAME.db, and return as a Table,
+     *  stored in STORES.apply(TITLES), where TITLES are its column
+     *  titles.  Format errors in the .db file cause a DBException.  If
+     *  NAME is stored as a partitioned table, only NAME.parts is read,
+     *  and each partition is read in the same way when needed. */
+    private static Table readTable(String name,
+                                   Function<String[], RowStore> stores) {
+        if (Partitioning.isStored(name)) {
+            return Partitioning.read(name, part -> readTable(part, stores));
+        }
+        BufferedReader input;
+        Table table;
+        input = null;
+        table = null;
+        try {
+            input = new BufferedReader(new FileReader(name + ".db"));
+            String header = input.readLine();
+            if (header == null) {
+                throw error("missing header in DB file");
+            }
+            String[] columnNames = header.split(",");
+            table = new Table(name, columnNames, stores.apply(columnNames));
+            String nextLine = input.readLine();
+            while (nextLine != null) {
+                String[] data = nextLine.split(",");
+                if (data.length != columnNames.length) {
+                    throw error("#inputs in row does not match #columns");
+                }
+                table.add(new Row(data));
+                nextLine = input.readLine();
+            }
+            table.attachZoneMap(name + ".zm", new File(name + ".db"));
+            table.buildFilters();
+            Stats.count(Stats.BYTES_READ, new File(name + ".db").length());
+        } catch (FileNotFoundException e) {
+            throw error("could not find %s.db", name);
+        } catch (IOException e) {
+            throw error("problem reading from %s.db", name);
+        } finally {
+            if (input != null) {
+                try {
+                    input.close();
+                } catch (IOException e) {
+                    /* Ignore IOException */
+                }
+            }
+        }
+        return table;
+    }
+
+    /** Write the contents of TABLE into the file NAME.db, and its ZoneMap
+     *  into NAME.zm, first compacting me if I have deleted rows. Any I/O
+     *  errors cause a DBException.  If I am partitioned, write instead
+     *  NAME.parts and the files of my partitions that are in memory. */
+    void writeTable(String name) {
+        Stats.count(Stats.BYTES_WRITTEN, snapshot().write(name));
+    }
+
+    /** Return a copy of my current contents that my later changes do not
+     *  affect, first compacting me if I have deleted rows.  My rows are
+     *  copied only if my storage cannot share them (see
+     *  RowStore.snapshot). */
+    Snapshot snapshot() {
+        compact();
+        if (_partitioning != null) {
+            List<Snapshot> partitions = new ArrayList<Snapshot>();
+            for (int p = 0; p < _partitioning.size(); p += 1) {
+                partitions.add(_partitioning.isLoaded(p)
+                               ? _partitioning.partition(p).snapshot()
+                               : null);
+            }
+            return new Snapshot(_partitioning, partitions);
+        }
+        return new Snapshot(_titles, _store.snapshot(),
+                            _zoneMap == null ? null : new ZoneMap(_zoneMap));
+    }
+
+    /** The contents of a Table at some moment, which may be written to a
+     *  file while the Table continues to change (for example, by another
+     *  thread). */
+    static class Snapshot {
+
+        /** The contents of a table whose column titles are TITLES, whose
+         *  rows are ROWS, and whose ZoneMap is ZONES, or null if it has
+         *  none. */
+        Snapshot(String[] titles, List<Row> rows, ZoneMap zones) {
+            _titles = titles;
+            _rows = rows;
+            _zones = zones;
+            _partitioning = null;
+            _partitions = null;
+        }
+
+        /** The contents of a table divided by PARTITIONING, whose
+         *  partitions have the contents PARTITIONS, or null for those not
+         *  in memory, whose files are already written. */
+        Snapshot(Partitioning partitioning, List<Snapshot> partitions) {
+            _titles = null;
+            _rows = null;
+            _zones = null;
+            _partitioning = partitioning;
+            _partitions = partitions;
+        }
+
+        /** Write my rows into the file NAME.db, and my ZoneMap (building
+         *  it, if needed) into NAME.zm, returning the size of NAME.db.
+         *  Each file is first written under a temporary name and then
+         *  renamed, so that readers never see a partly written file.  Any
+         *  I/O errors cause a DBException.  The contents of a partitioned
+         *  table are written instead as NAME.parts, followed by the
+         *  files of its partitions, whose total size is returned. */
+        long write(String name) {
+            if (_partitioning != null) {
+                long size = 0;
+                for (int p = 0; p < _partitions.size(); p += 1) {
+                    if (_partitions.get(p) != null) {
+                        size += _partitions.get(p).write(name + ".p" + p);
+                    }
+                }
+                _partitioning.writeSpec(name);
+                return size;
+            }
+            File db = new File(name + ".db");
+            File temp = new File(name + ".db.tmp");
+            PrintStream output;
+            output = null;
+            try {
+                output = new PrintStream(temp);
+                for (int i = 0; i < _titles.length; i += 1) {
+                    output.print(_titles[i] + ",");
+                }
+                output.println();
+                for (Row row : _rows) {
+                    for (int k = 0; k < _titles.length; k += 1) {
+                        output.print(row.get(k) + ",");
+                    }
+                    output.println();
+                }
+            } catch (IOException e) {
+                throw error("trouble writing to %s.db", name);
+            } finally {
+                if (output != null) {
+                    output.close();
+                }
+            }
+            if (output.checkError()) {
+                temp.delete();
+                throw error("trouble writing to %s.db", name);
+            }
+            long size = temp.length();
+            replaceFile(temp, db);
+            ZoneMap zones = _zones;
+            if (zones == null) {
+                zones = new ZoneMap(_titles.length,
+                                    ZoneMap.defaultBlockRows());
+                for (Row row : _rows) {
+                    zones.add(row);
+                }
+            }
+            File zm = new File(name + ".zm.tmp");
+            zones.write(zm.getPath());
+            replaceFile(zm, new File(name + ".zm"));
+            return size;
+        }
+
+        /** Column titles. */
+        private final String[] _titles;
+        /** The rows. */
+        private final List<Row> _rows;
+        /** Copy of the table's ZoneMap, or null. */
+        private final ZoneMap _zones;
+        /** The partitioning of the table, or null if it has none. */
+        private final Partitioning _partitioning;
+        /** Contents of the table's partitions, if it has any. */
+        private final List<Snapshot> _partitions;
+    }
+
+    /** Print my contents on OUT, separated by spaces and indented by two
+     *  spaces.  Each row is assembled first and written whole, so that
+     *  a buffered OUT (as in batch mode) is called once a row. */
+    void print(PrintStream out) {
+        StringBuilder line = new StringBuilder();
+        for (Row row : this) {
+            line.setLength(0);
+            line.append("  ");
+            for (int k = 0; k < numColumns(); k += 1) {
+                line.append(row.get(k)).append(' ');
+            }
+            out.println(line);
+        }
+    }
+
+    /** Values of _order. */
+    private static final byte SORTED = 1, UNSORTED = 2;
+
+    /** My name. */
+    private final String _name;
+    /** My column titles. */
+    private String[] _titles;
+    /** My rows. */
+    private RowStore _store;
+    /** Bloom filters on the values of each column, by column number, or
+     *  null for columns whose filters have not been built (see
+     *  buildFilters). */
+    private BloomFilter[] _filters;
+    /** Number of calls to mightContain for each column, and number that
+     *  returned false. */
+    private long[] _probes, _rejections;
+    /** Indexes of the values of each column in sorted order, by column
+     *  number, or null for columns whose indexes have never been needed
+     *  since my last compaction. */
+    private PrefixIndex[] _prefixIndexes;
+    /** For each column, SORTED or UNSORTED if my rows are known to be or
+     *  not to be in increasing order of its values (see isSortedOn), and
+     *  otherwise 0. */
+    private byte[] _order;
+    /** Summary of the values in each block of my rows, or null if it has
+     *  not been needed. */
+    private ZoneMap _zoneMap;
+    /** Index of my rows by hash code, used to reject duplicates.  Built
+     *  when first needed, so that mapping a paged table need not read
+     *  its rows.  It may also list deleted rows, and rows under their
+     *  hash codes before they were updated. */
+    private HashIndex _rowIndex;
+    /** Numbers of the columns of my primary key, or null. */
+    private int[] _key;
+    /** Index of my rows by the hash codes of their keys, if I have a
+     *  key, built when first needed, and listing rows as _rowIndex
+     *  does. */
+    private HashIndex _keyIndex;
+    /** The numbers of my deleted rows, or null if none has been deleted
+     *  since my last compaction. */
+    private BitSet _deleted;
+    /** Number of my deleted rows. */
+    private int _deletedCount;
+    /** Materialized views that follow the rows added to me, or null if
+     *  there have never been any. */
+    private List<View> _views;
+    /** The division of my rows among partitions, or null if I am not
+     *  partitioned. */
+    private Partitioning _partitioning;
+
+    /** Fraction of deleted row numbers at which compactIfNeeded compacts
+     *  a table. */
+    private static double _compactionThreshold =
+        DEFAULT_COMPACTION_THRESHOLD;
+}
@@ -1,67 +1,390 @@
-package db61b;
-
-import java.util.Iterator;
-
-/** An iterator through the rows of a Table.  Rather than providing the
- *  usual Java Iterator interface, a TableIterator acts more like a C++
- *  STL iterator: at any given time, there is a notion of the current
- *  Row and a separate method to proceed to the next.
- *  @author Qi Liu
- */
-class TableIterator {
-
-    /** An STL-style iterator through the rows of TABLE. */
-    TableIterator(Table table) {
-        _table = table;
-        reset();
-    }
-
-    /** Reinitialize me to the first row. */
-    void reset() {
-        _iter = _table.iterator();
-        next();
-    }
-
-    /** Return the Table over which I am iterating. */
-    Table table() {
-        return _table;
-    }
-
-    /** Return true iff there is a current Row (that is, we have not
-     *  exhausted the iterator). */
-    boolean hasRow() {
-        return _row != null;
-    }
-
-    /** Proceed to the next row.  Assumes that hasRow() is true.  Return
-     *  the Row. */
-    Row next() {
-        if (_iter.hasNext()) {
-            _row = _iter.next();
-        } else {
-            _row = null;
-        }
-        return _row;
-    }
-
-    /** Return the index of column NAME in my Table, or -1 if there is no
-     *  such column. */
-    int columnIndex(String name) {
-        return _table.columnIndex(name);
-    }
-
-    /** Return the value of column #K in the current row. */
-    String value(int k) {
-        if (!hasRow()) {
-            throw new IllegalStateException("Past the last row.");
-        }
-        return _row.get(k);
-    }
-
-    /** My table. */
-    private final Table _table;
-    /** The current Row of my Table, or null if there are no more. */
-    private Row _row;
-    /** The helper iterator of my Table. */
-    private Iterator<Row> _iter;
-}
+package db61b;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static db61b.Utils.*;
+
+/** An iterator through the rows of a Table.  Rather than providing the
+ *  usual Java Iterator interface, a TableIterator acts more like a C++
+ *  STL iterator: at any given time, there is a notion of the current
+ *  Row and a separate method to proceed to the next.
+ *
+ *  A TableIterator may be restricted by Conditions that compare its
+ *  columns with literals, in which case it uses its Table's ZoneMap to
+ *  pass over whole blocks of rows that cannot satisfy them.  It need
+ *  not (and generally does not) pass over every row that fails them.
+ *  When a restriction requires a column to start with a given text
+ *  (as does "like 'abc%'"), it visits only the rows its Table's prefix
+ *  index for that column yields (see Table.rowsWithPrefix).  It may
+ *  also be made to visit its rows in a given order (as given by
+ *  Table.rowsInOrder), and to return to a row it has passed (see mark),
+ *  as for a merge join (see MergeJoin), or to any row (see seek), as
+ *  for a hash join (see HashJoin).
+ *
+ *  A TableIterator keeps only the number of its current row, and asks
+ *  its Table for each value as it is needed (see RowStore.value), so
+ *  that storage that encodes its rows need decode only the values that
+ *  are actually examined.
+ *
+ *  A TableIterator may also be made to return a Bernoulli sample of
+ *  its rows, each row being returned with a given probability,
+ *  independently of the others.  Rather than drawing a random number
+ *  for each row, it draws the (geometrically distributed) number of
+ *  rows to pass over before the next one returned, so that the rows
+ *  passed over cost nothing.
+ *
+ *  Over a partitioned Table, a TableIterator scans each partition in
+ *  turn, passing over those that its restrictions show cannot hold
+ *  rows satisfying them (see Partitioning.prune).  A partition is
+ *  opened (and read, if it is not in memory) only when the scan
+ *  reaches it, and no scan starts until its first row is needed, so
+ *  that pruned partitions are never read.
+ *  @author Qi Liu
+ */
+class TableIterator {
+
+    /** An STL-style iterator through the rows of TABLE. */
+    TableIterator(Table table) {
+        _table = table;
+        _restrictions = new ArrayList<Condition>();
+        reset();
+    }
+
+    /** Reinitialize me to the first row. */
+    void reset() {
+        _partition = -1;
+        _rescanned = -1;
+        _source = null;
+        _current = UNSTARTED;
+    }
+
+    /** Return the Table over which I am iterating. */
+    Table table() {
+        return _table;
+    }
+
+    /** Return true iff there is a current Row (that is, we have not
+     *  exhausted the iterator). */
+    boolean hasRow() {
+        if (_current == UNSTARTED) {
+            advance();
+        }
+        return _current >= 0;
+    }
+
+    /** Proceed to the next row, passing over deleted rows and, if I am
+     *  sampling, rows not chosen.  Assumes that hasRow() is true. */
+    void next() {
+        if (_current == UNSTARTED) {
+            advance();
+        }
+        advance();
+    }
+
+    /** Make row #K of my Table, which must not be deleted, the current
+     *  row. */
+    void seek(int k) {
+        Partitioning partitioning = _table.partitioning();
+        if (partitioning == null) {
+            _source = _table;
+        } else {
+            _partition = k / Partitioning.STRIDE;
+            _source = partitioning.partition(_partition);
+            k = Partitioning.local(k);
+        }
+        _zones = _restrictions.isEmpty() ? null : _source.zoneMap();
+        _candidates = null;
+        _block = -1;
+        _current = k;
+        _next = k + 1;
+    }
+
+    /** Restrict me to rows that may satisfy those of CONDITIONS that
+     *  compare one of my columns with a literal, skipping blocks of rows
+     *  that cannot, and reset me and my counts. */
+    void restrict(List<Condition> conditions) {
+        _restrictions.clear();
+        for (Condition condition : conditions) {
+            if (condition.hasLiteral()
+                && condition.column1().source() == this) {
+                _restrictions.add(condition);
+            }
+        }
+        Partitioning partitioning = _table.partitioning();
+        _pruned = partitioning == null ? null
+            : partitioning.prune(_restrictions);
+        _rowsRead = _blocksRead = _blocksSkipped = 0;
+        _indexed = false;
+        _order = null;
+        reset();
+    }
+
+    /** Visit only the rows numbered ROWS of my Table, which must not be
+     *  partitioned, in that order, until I am next restricted or ordered,
+     *  or if ROWS is null, all my rows again, and reset me. */
+    void order(int[] rows) {
+        _order = rows;
+        reset();
+    }
+
+    /** Return a mark of the current row, to which restore returns me,
+     *  until I am next reset.  Assumes that hasRow() is true and that
+     *  my Table is not partitioned. */
+    int mark() {
+        hasRow();
+        return _candidates == null ? _current : _next - 1;
+    }
+
+    /** Make the row marked MARK (see mark) the current row again.  The
+     *  blocks I examined before then are not counted again as I return
+     *  to them. */
+    void restore(int mark) {
+        if (_candidates == null) {
+            _rescanned = Math.max(_rescanned, _block);
+            seek(mark);
+        } else {
+            _source = _table;
+            _current = _candidates[mark];
+            _next = mark + 1;
+        }
+    }
+
+    /** Return only a sample of my rows from now on, each chosen with
+     *  probability FRACTION (0 <= FRACTION <= 1) using RANDOM, and reset
+     *  me. */
+    void sample(double fraction, Random random) {
+        if (!(fraction >= 0 && fraction <= 1)) {
+            throw error("sample must be between 0%% and 100%%");
+        }
+        _fraction = fraction;
+        _random = fraction < 1 ? random : null;
+        reset();
+    }
+
+    /** Return the fraction of my rows that I return: 1 unless I have
+     *  been made to sample them. */
+    double fraction() {
+        return _fraction;
+    }
+
+    /** Return the number of the current row in my Table.  Assumes that
+     *  hasRow() is true. */
+    int position() {
+        hasRow();
+        if (_table.partitioning() == null) {
+            return _current;
+        }
+        return _partition * Partitioning.STRIDE + _current;
+    }
+
+    /** Return the index of column NAME in my Table, or -1 if there is no
+     *  such column. */
+    int columnIndex(String name) {
+        return _table.columnIndex(name);
+    }
+
+    /** Return the value of column #K in the current row. */
+    String value(int k) {
+        if (!hasRow()) {
+            throw new IllegalStateException("Past the last row.");
+        }
+        return _source.value(_current, k);
+    }
+
+    /** Return the number of rows I have returned so far. */
+    long rowsRead() {
+        return _rowsRead;
+    }
+
+    /** Return the number of blocks of rows I have examined so far. */
+    long blocksRead() {
+        return _blocksRead;
+    }
+
+    /** Return the number of blocks of rows I have skipped so far. */
+    long blocksSkipped() {
+        return _blocksSkipped;
+    }
+
+    /** Return true iff I have used a prefix index to find rows. */
+    boolean indexed() {
+        return _indexed;
+    }
+
+    /** Return the number of partitions my restrictions rule out. */
+    int partitionsPruned() {
+        int n = 0;
+        if (_pruned != null) {
+            for (boolean pruned : _pruned) {
+                n += pruned ? 1 : 0;
+            }
+        }
+        return n;
+    }
+
+    /** Make the next row the current one, moving on to later partitions
+     *  as needed, or record that there are no more. */
+    private void advance() {
+        while (_source != null || nextPartition()) {
+            if (_candidates != null) {
+                if (nextCandidate()) {
+                    return;
+                }
+                _source = null;
+                continue;
+            }
+            int size = _source.slots();
+            int blockRows = _zones == null ? 0 : _zones.blockRows();
+            skipUnsampled(size);
+            while (_next < size) {
+                if (blockRows > 0 && _next / blockRows != _block) {
+                    _block = _next / blockRows;
+                    boolean counted = _block <= _rescanned;
+                    if (!mayMatch(_block)) {
+                        _blocksSkipped += counted ? 0 : 1;
+                        _next = (_block + 1) * blockRows;
+                        skipUnsampled(size);
+                        continue;
+                    }
+                    _blocksRead += counted ? 0 : 1;
+                }
+                if (!_source.isDeleted(_next)) {
+                    break;
+                }
+                _next += 1;
+                skipUnsampled(size);
+            }
+            if (_next < size) {
+                _current = _next;
+                _next += 1;
+                _rowsRead += 1;
+                return;
+            }
+            _source = null;
+        }
+        _current = -1;
+    }
+
+    /** Open the next partition of my Table that is not pruned (my Table
+     *  itself, if it is not partitioned), returning false if there is
+     *  none. */
+    private boolean nextPartition() {
+        Partitioning partitioning = _table.partitioning();
+        int n = partitioning == null ? 1 : partitioning.size();
+        do {
+            _partition += 1;
+        } while (_partition < n && _pruned != null && _pruned[_partition]);
+        if (_partition >= n) {
+            return false;
+        }
+        _source = partitioning == null ? _table
+            : partitioning.partition(_partition);
+        _zones = _restrictions.isEmpty() ? null : _source.zoneMap();
+        _candidates = _order;
+        _indexed |= _order != null;
+        for (int i = 0; _order == null && i < _restrictions.size(); i += 1) {
+            Condition condition = _restrictions.get(i);
+            String prefix = condition.prefix();
+            if (prefix != null && !prefix.isEmpty()) {
+                _candidates = _source.rowsWithPrefix(
+                    condition.column1().index(), prefix);
+                _indexed = true;
+                break;
+            }
+        }
+        _block = _rescanned = -1;
+        _next = 0;
+        return true;
+    }
+
+    /** Make the next undeleted row of _candidates (starting at index
+     *  _next) that is chosen for my sample the current one, returning
+     *  false if there is none. */
+    private boolean nextCandidate() {
+        int size = _candidates.length;
+        skipUnsampled(size);
+        while (_next < size && _source.isDeleted(_candidates[_next])) {
+            _next += 1;
+            skipUnsampled(size);
+        }
+        if (_next >= size) {
+            return false;
+        }
+        _current = _candidates[_next];
+        _next += 1;
+        _rowsRead += 1;
+        return true;
+    }
+
+    /** If I am sampling, pass over the rows, starting at _next, that
+     *  are not chosen for the sample, stopping at SIZE. */
+    private void skipUnsampled(int size) {
+        if (_random == null || _next >= size) {
+            return;
+        }
+        double skip = _fraction == 0 ? size
+            : Math.floor(Math.log(1 - _random.nextDouble())
+                         / Math.log1p(-_fraction));
+        _next = (int) Math.min(size, _next + skip);
+    }
+
+    /** Return true iff some row in block #BLOCK of my Table's ZoneMap
+     *  may satisfy all my restrictions. */
+    private boolean mayMatch(int block) {
+        for (Condition condition : _restrictions) {
+            if (!condition.mayMatch(_zones, block)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** Value of _current before the first row is sought. */
+    private static final int UNSTARTED = -2;
+
+    /** My table. */
+    private final Table _table;
+    /** The partition being scanned (my table, if it is not partitioned),
+     *  or null if none is open. */
+    private Table _source;
+    /** Number of the partition being scanned, or of the last one, or
+     *  -1. */
+    private int _partition;
+    /** For each partition of my Table, true iff my restrictions rule it
+     *  out, or null if my Table is not partitioned. */
+    private boolean[] _pruned;
+    /** Fraction of rows sampled. */
+    private double _fraction = 1;
+    /** Source of random numbers for sampling, or null if I return all
+     *  rows. */
+    private Random _random;
+    /** Number of the last block of _source's ZoneMap examined, or
+     *  -1. */
+    private int _block;
+    /** Number of the last block of _source's ZoneMap already counted
+     *  when I was last restored to an earlier row (see restore), or
+     *  -1. */
+    private int _rescanned;
+    /** The number of the current row in _source, -1 if there are no
+     *  more, or UNSTARTED. */
+    private int _current;
+    /** The number in _source of the row following the current one, or,
+     *  if _candidates is not null, its index in _candidates. */
+    private int _next;
+    /** The numbers of the only rows of _source that may satisfy my
+     *  restrictions, as given by a prefix index, or null. */
+    private int[] _candidates;
+    /** The rows to visit, in order, as set by order, or null. */
+    private int[] _order;
+    /** True iff I have used a prefix index since I was restricted. */
+    private boolean _indexed;
+    /** Conditions comparing my columns with literals. */
+    private List<Condition> _restrictions;
+    /** The ZoneMap of _source, if I have restrictions, and otherwise
+     *  null. */
+    private ZoneMap _zones;
+    /** Counts of rows returned, and of blocks examined and skipped. */
+    private long _rowsRead, _blocksRead, _blocksSkipped;
+}
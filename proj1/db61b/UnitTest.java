@@ -1,71 +1,875 @@
-package db61b;
-
-import java.util.ArrayList;
-import java.util.List;
-import static org.junit.Assert.*;
-import org.junit.Test;
-import ucb.junit.textui;
-
-/** A test of classes Row, Column, Table, Condition and TableIterator.
- *  @author Qi Liu
- */
-public class UnitTest {
-
-    @Test
-    public void testTable() {
-        String name = "enrolled";
-        String[] columnTitles = new String[]{"SID", "CCN", "Grade"};
-        Table t = new Table(name, columnTitles);
-
-        assertEquals(3, t.numColumns());
-        assertEquals("enrolled", t.name());
-        assertEquals("CCN", t.title(1));
-        assertEquals(2, t.columnIndex("Grade"));
-
-        Row row1 = new Row(new String[] {"101", "21228", "B"});
-        Row row2 = new Row(new String[] {"102", "21231", "A"});
-        assertEquals(row1.size(), 3);
-        assertEquals("101", row1.get(0));
-        assertEquals("21231", row2.get(1));
-        assertTrue(row1.equals(row1));
-        assertFalse(row1.equals(row2));
-
-        assertTrue(t.add(row1));
-        assertFalse(t.add(row1));
-        assertTrue(t.add(row2));
-        assertEquals(2, t.size());
-
-        TableIterator ti = t.tableIterator();
-        List<TableIterator> i = new ArrayList<TableIterator>();
-        i.add(ti);
-        Column col1 = new Column(t, columnTitles[0]);
-        col1.resolve(i);
-        assertEquals("SID", col1.name());
-        assertEquals("101", col1.value());
-        ti.next();
-        assertEquals("102", col1.value());
-        ti.next();
-        assertFalse(ti.hasRow());
-        ti.reset();
-        assertEquals("101", col1.value());
-
-        Column col2 = new Column(t, columnTitles[1]);
-        col2.resolve(i);
-        List<Column> columns = new ArrayList<Column>();
-        columns.add(col1);
-        columns.add(col2);
-        Row row3 = new Row(columns);
-        assertEquals("101", row3.get(0));
-        assertEquals("21228", row3.get(1));
-
-        Condition con1 = new Condition(col1, "=", col2);
-        Condition con2 = new Condition(col1, "<", col2);
-        assertFalse(con1.test());
-        assertTrue(con2.test());
-    }
-
-    /* Run the unit tests in this file. */
-    public static void main(String... args) {
-        System.exit(textui.runClasses(UnitTest.class));
-    }
-}
+package db61b;
+
+import java.util.ArrayList;
+import java.util.List;
+import static org.junit.Assert.*;
+import org.junit.Test;
+import ucb.junit.textui;
+
+/** A test of classes Row, Column, Table, Condition and TableIterator.
+ *  @author Qi Liu
+ */
+public class UnitTest {
+
+    @Test
+    public void testTable() {
+        String name = "enrolled";
+        String[] columnTitles = new String[]{"SID", "CCN", "Grade"};
+        Table t = new Table(name, columnTitles);
+
+        assertEquals(3, t.numColumns());
+        assertEquals("enrolled", t.name());
+        assertEquals("CCN", t.title(1));
+        assertEquals(2, t.columnIndex("Grade"));
+
+        Row row1 = new Row(new String[] {"101", "21228", "B"});
+        Row row2 = new Row(new String[] {"102", "21231", "A"});
+        assertEquals(row1.size(), 3);
+        assertEquals("101", row1.get(0));
+        assertEquals("21231", row2.get(1));
+        assertTrue(row1.equals(row1));
+        assertFalse(row1.equals(row2));
+
+        assertTrue(t.add(row1));
+        assertFalse(t.add(row1));
+        assertTrue(t.add(row2));
+        assertEquals(2, t.size());
+
+        TableIterator ti = t.tableIterator();
+        List<TableIterator> i = new ArrayList<TableIterator>();
+        i.add(ti);
+        Column col1 = new Column(t, columnTitles[0]);
+        col1.resolve(i);
+        assertEquals("SID", col1.name());
+        assertEquals("101", col1.value());
+        ti.next();
+        assertEquals("102", col1.value());
+        ti.next();
+        assertFalse(ti.hasRow());
+        ti.reset();
+        assertEquals("101", col1.value());
+
+        Column col2 = new Column(t, columnTitles[1]);
+        col2.resolve(i);
+        List<Column> columns = new ArrayList<Column>();
+        columns.add(col1);
+        columns.add(col2);
+        Row row3 = new Row(columns);
+        assertEquals("101", row3.get(0));
+        assertEquals("21228", row3.get(1));
+
+        Condition con1 = new Condition(col1, "=", col2);
+        Condition con2 = new Condition(col1, "<", col2);
+        assertFalse(con1.test());
+        assertTrue(con2.test());
+    }
+
+    @Test
+    public void testSortedRows() {
+        Table t = new Table("grades", new String[]{"SID", "Grade"});
+        String[][] data = {
+            {"101", "B"}, {"102", "A"}, {"103", "C"}, {"104", "A-"},
+            {"105", "B+"}, {"102", "A"},
+        };
+        for (String[] values : data) {
+            t.add(new Row(values));
+        }
+        TableIterator ti = t.tableIterator();
+        List<TableIterator> i = new ArrayList<TableIterator>();
+        i.add(ti);
+        Column grade = new Column(t, "Grade");
+        grade.resolve(i);
+        Ordering ordering = new Ordering();
+        ordering.add(grade, false);
+
+        SortedRows top = new SortedRows(ordering, 3);
+        for (String[] values : data) {
+            top.add(new Row(values), new String[] { values[1] });
+        }
+        assertEquals(3, top.size());
+        Table result = new Table("top", new String[]{"SID", "Grade"});
+        top.addTo(result);
+        assertEquals(3, result.size());
+        TableIterator ri = result.tableIterator();
+        assertEquals("102", ri.value(0));
+        ri.next();
+        assertEquals("104", ri.value(0));
+        ri.next();
+        assertEquals("101", ri.value(0));
+
+        Ordering descending = new Ordering();
+        descending.add(grade, true);
+        assertTrue(descending.compare(new String[] { "A" },
+                                      new String[] { "B" }) > 0);
+        SortedRows none = new SortedRows(descending, 0);
+        none.add(new Row(data[0]), new String[] { "B" });
+        assertEquals(0, none.size());
+    }
+
+    @Test
+    public void testPagedStore() throws java.io.IOException {
+        java.io.File file = java.io.File.createTempFile("paged", ".pages");
+        file.deleteOnExit();
+        String[] titles = new String[]{"SID", "Name"};
+        BufferPool pool = new BufferPool(2);
+        PagedStore store = new PagedStore(file.getPath(), titles, pool);
+        Table t = new Table("paged", titles, store);
+        for (int i = 0; i < 1000; i += 1) {
+            assertTrue(t.add(new Row(new String[] { "S" + i, "Name" + i })));
+        }
+        assertFalse(t.add(new Row(new String[] { "S17", "Name17" })));
+        assertEquals(1000, t.size());
+        assertTrue(store.pageCount() > 2);
+        assertEquals("Name500", store.get(500).get(1));
+        assertEquals(0, pool.pinned());
+        t.close();
+
+        PagedStore mapped = PagedStore.open(file.getPath(), pool);
+        assertNotNull(mapped);
+        assertEquals("Name", mapped.titles()[1]);
+        assertEquals(1000, mapped.size());
+        int k = 0;
+        for (Row row : mapped) {
+            assertEquals("S" + k, row.get(0));
+            k += 1;
+        }
+        assertEquals(1000, k);
+        assertEquals("S999", mapped.get(999).get(0));
+        assertTrue(pool.hitRatio() > 0.5);
+        mapped.close();
+    }
+
+    @Test
+    public void testBloomFilter() {
+        BloomFilter filter = new BloomFilter(1000, 0.01);
+        for (int i = 0; i < 1000; i += 1) {
+            filter.add("key" + i);
+        }
+        assertEquals(1000, filter.count());
+        for (int i = 0; i < 1000; i += 1) {
+            assertTrue(filter.mightContain("key" + i));
+        }
+        int falsePositives = 0;
+        for (int i = 0; i < 10000; i += 1) {
+            if (filter.mightContain("other" + i)) {
+                falsePositives += 1;
+            }
+        }
+        assertTrue(falsePositives < 300);
+        assertEquals(0.01, filter.expectedFalsePositiveRate(), 0.005);
+
+        Table t = new Table("t", new String[] { "A", "B" });
+        t.add(new Row(new String[] { "1", "x" }));
+        assertTrue(t.mightContain(1, "y"));
+        t.buildFilters();
+        assertFalse(t.mightContain(1, "y"));
+        t.add(new Row(new String[] { "2", "y" }));
+        assertTrue(t.mightContain(1, "y"));
+    }
+
+    @Test
+    public void testZoneMap() throws java.io.IOException {
+        Table t = new Table("history", new String[] { "Year", "SID" });
+        for (int y = 2000; y < 2010; y += 1) {
+            t.add(new Row(new String[] { "" + y, "101" }));
+        }
+        ZoneMap zones = new ZoneMap(2, 4);
+        for (Row row : t) {
+            zones.add(row);
+        }
+        assertEquals(3, zones.blocks());
+        assertEquals("2004", zones.min(1, 0));
+        assertEquals("2007", zones.max(1, 0));
+        assertEquals("2009", zones.max(2, 0));
+
+        java.io.File file = java.io.File.createTempFile("history", ".zm");
+        file.deleteOnExit();
+        zones.write(file.getPath());
+        ZoneMap copy = ZoneMap.read(file.getPath(), 2, file);
+        assertNotNull(copy);
+        assertEquals(10, copy.rows());
+        assertEquals("2000", copy.min(0, 0));
+        assertNull(ZoneMap.read(file.getPath(), 3, file));
+
+        List<TableIterator> i = new ArrayList<TableIterator>();
+        i.add(t.tableIterator());
+        Column year = new Column(t, "Year");
+        year.resolve(i);
+        Condition recent = new Condition(year, ">=", "2008");
+        assertFalse(recent.mayMatch(zones, 0));
+        assertFalse(recent.mayMatch(zones, 1));
+        assertTrue(recent.mayMatch(zones, 2));
+        Condition exact = new Condition(year, "=", "2005");
+        assertTrue(exact.mayMatch(zones, 1));
+        assertFalse(exact.mayMatch(zones, 2));
+    }
+
+    @Test
+    public void testStats() {
+        java.util.HashMap<String, Table> db =
+            new java.util.HashMap<String, Table>();
+        String script = "create table t (A, B);"
+            + " insert into t values '1', 'x';"
+            + " insert into t values '2', 'y';"
+            + " insert into t values '1', 'x';"
+            + " create table u as select B from t where A >= '1';";
+        CommandInterpreter interpreter =
+            new CommandInterpreter(db, new java.util.Scanner(script), null);
+        long statements = Stats.statements();
+        long duplicates = Stats.total(Stats.DUPLICATES);
+        for (int k = 0; k < 5; k += 1) {
+            interpreter.statement();
+        }
+        assertEquals(statements + 5, Stats.statements());
+        assertEquals(2, Stats.statement(Stats.ROWS_SCANNED));
+        assertEquals(2, Stats.statement(Stats.CONDITIONS));
+        assertEquals(2, Stats.statement(Stats.ROWS_EMITTED));
+        assertEquals(0, Stats.statement(Stats.DUPLICATES));
+        assertEquals(duplicates + 1, Stats.total(Stats.DUPLICATES));
+        assertTrue(Stats.statement(Stats.TOTAL_TIME)
+                   >= Stats.statement(Stats.PARSE_TIME));
+        assertEquals(2, db.get("u").size());
+    }
+
+    @Test
+    public void testDeleteAndUpdate() {
+        Table t = new Table("t", new String[] { "A", "B" });
+        for (int i = 0; i < 8; i += 1) {
+            t.add(new Row(new String[] { "" + i, "x" }));
+        }
+        t.delete(1);
+        t.delete(6);
+        assertEquals(6, t.size());
+        assertEquals(8, t.slots());
+        assertTrue(t.isDeleted(1));
+        int n = 0;
+        for (Row row : t) {
+            assertFalse(row.get(0).equals("1") || row.get(0).equals("6"));
+            n += 1;
+        }
+        assertEquals(6, n);
+        TableIterator it = t.tableIterator();
+        it.next();
+        assertEquals(2, it.position());
+        assertEquals("2", it.value(0));
+
+        assertTrue(t.add(new Row(new String[] { "1", "x" })));
+        assertFalse(t.add(new Row(new String[] { "1", "x" })));
+        assertTrue(t.update(0, new Row(new String[] { "0", "y" })));
+        assertEquals("y", t.row(0).get(1));
+        assertFalse(t.update(2, new Row(new String[] { "0", "y" })));
+        assertTrue(t.isDeleted(2));
+        assertTrue(t.add(new Row(new String[] { "0", "x" })));
+        assertEquals(7, t.size());
+
+        double threshold = Table.compactionThreshold();
+        Table.setCompactionThreshold(0.5);
+        assertFalse(t.compactIfNeeded());
+        t.compact();
+        Table.setCompactionThreshold(threshold);
+        assertEquals(7, t.slots());
+        assertFalse(t.add(new Row(new String[] { "0", "y" })));
+        assertEquals("0", t.row(0).get(0));
+        assertEquals("3", t.row(1).get(0));
+    }
+
+    @Test
+    public void testSetOperations() {
+        Table left = new Table("left", new String[] { "A" });
+        Table right = new Table("right", new String[] { "B" });
+        for (int i = 0; i < 100; i += 1) {
+            left.add(new Row(new String[] { "" + i }));
+        }
+        for (int i = 50; i < 200; i += 2) {
+            right.add(new Row(new String[] { "" + i }));
+        }
+        int spillRows = SetOperation.spillRows();
+        for (int rows : new int[] { spillRows, 7 }) {
+            SetOperation.setSpillRows(rows);
+            Table union = SetOperation.combine("union", left, right, "u");
+            Table both = SetOperation.combine("intersect", left, right, "i");
+            Table diff = SetOperation.combine("except", left, right, "e");
+            assertEquals("A", union.title(0));
+            assertEquals(150, union.size());
+            assertEquals(25, both.size());
+            assertEquals(75, diff.size());
+            for (Row row : both) {
+                int i = Integer.parseInt(row.get(0));
+                assertTrue(i >= 50 && i < 100 && i % 2 == 0);
+            }
+        }
+        SetOperation.setSpillRows(spillRows);
+    }
+
+    @Test
+    public void testMembership() {
+        Table t = new Table("t", new String[] { "A" });
+        t.add(new Row(new String[] { "1" }));
+        t.add(new Row(new String[] { "2" }));
+        List<TableIterator> i = new ArrayList<TableIterator>();
+        i.add(t.tableIterator());
+        Column a = new Column(t, "A");
+        a.resolve(i);
+        java.util.Set<String> values = new java.util.HashSet<String>();
+        values.add("2");
+        Condition in = new Condition(a, values, false);
+        Condition notIn = new Condition(a, values, true);
+        assertTrue(in.isMembership());
+        assertFalse(in.isEquality() || in.hasLiteral());
+        assertFalse(in.test());
+        assertTrue(notIn.test());
+        i.get(0).next();
+        assertTrue(in.test());
+        assertFalse(notIn.test());
+    }
+
+    @Test
+    public void testView() {
+        java.util.HashMap<String, Table> db =
+            new java.util.HashMap<String, Table>();
+        String script = "create table a (X, Y);"
+            + " create table b (Y, Z);"
+            + " insert into a values '1', 'p';"
+            + " create materialized view v as select X, Z from a, b"
+            + "   where a.Y = b.Y;"
+            + " insert into b values 'p', 'q';"
+            + " insert into a values '2', 'p';"
+            + " insert into a values '3', 'r';"
+            + " refresh v;";
+        CommandInterpreter interpreter =
+            new CommandInterpreter(db, new java.util.Scanner(script), null);
+        for (int k = 0; k < 6; k += 1) {
+            interpreter.statement();
+        }
+        Table v = db.get("v");
+        assertEquals(2, v.size());
+        interpreter.statement();
+        assertEquals(2, v.size());
+        interpreter.statement();
+        assertTrue(v != db.get("v"));
+        assertEquals(2, db.get("v").size());
+    }
+
+    @Test
+    public void testSnapshot() {
+        Table t = new Table("t", new String[] { "A" });
+        for (int i = 0; i < 4; i += 1) {
+            t.add(new Row(new String[] { "" + i }));
+        }
+        t.delete(0);
+        Table.Snapshot snapshot = t.snapshot();
+        assertEquals(3, t.slots());
+        List<Row> rows = t.store().snapshot();
+        t.add(new Row(new String[] { "9" }));
+        t.update(0, new Row(new String[] { "8" }));
+        assertEquals(3, rows.size());
+        assertEquals("1", rows.get(0).get(0));
+        assertEquals("8", t.row(0).get(0));
+        String name = System.getProperty("java.io.tmpdir") + "/snapshot";
+        long size = snapshot.write(name);
+        assertEquals(new java.io.File(name + ".db").length(), size);
+        Table u = Table.readTable(name);
+        assertEquals(3, u.size());
+        assertFalse(new java.io.File(name + ".db.tmp").exists());
+        new java.io.File(name + ".db").delete();
+        new java.io.File(name + ".zm").delete();
+    }
+
+    @Test
+    public void testDatabaseImage() {
+        java.util.Map<String, Table> db =
+            new java.util.HashMap<String, Table>();
+        Table t = new Table("t", new String[] { "A", "B" });
+        for (int i = 0; i < 100; i += 1) {
+            t.add(new Row(new String[] { "" + i, "\u00e9" + i }));
+        }
+        t.delete(5);
+        db.put("t", t);
+        db.put("u", new Table("u", new String[] { "C" }));
+        String file = System.getProperty("java.io.tmpdir") + "/unit.img";
+        long size = DatabaseImage.write(db, file);
+        assertEquals(new java.io.File(file).length(), size);
+        java.util.Map<String, Table> copy = DatabaseImage.read(file);
+        assertEquals(2, copy.size());
+        assertEquals(99, copy.get("t").size());
+        assertEquals("\u00e97", copy.get("t").row(6).get(1));
+        assertEquals(0, copy.get("u").size());
+        assertEquals("C", copy.get("u").title(0));
+        new java.io.File(file).delete();
+    }
+
+    @Test
+    public void testMemoryBudget() {
+        Table t = new Table("t", new String[] { "A" });
+        Table u = new Table("u", new String[] { "A" });
+        for (int i = 0; i < 50; i += 1) {
+            t.add(new Row(new String[] { "t" + i }));
+            u.add(new Row(new String[] { "u" + i }));
+        }
+        long bytes = t.bytes();
+        assertTrue(bytes > 50 * new Row(new String[] { "t0" }).bytes());
+        MemoryBudget budget = new MemoryBudget(0);
+        budget.use(t);
+        budget.use(u);
+        assertEquals(0, budget.enforce(List.of(t, u)));
+        budget.setLimit(bytes + 1);
+        assertEquals(1, budget.enforce(List.of(t, u)));
+        assertTrue(t.isSpilled());
+        assertFalse(u.isSpilled());
+        assertEquals(0, t.bytes());
+        assertEquals(50, t.size());
+        assertEquals("t7", t.row(7).get(0));
+        assertFalse(t.isSpilled());
+        assertFalse(t.add(new Row(new String[] { "t7" })));
+        assertTrue(t.spill());
+        assertTrue(t.add(new Row(new String[] { "t50" })));
+        assertEquals(51, t.size());
+        assertTrue(t.spill());
+        int n = 0;
+        for (Row row : t) {
+            n += 1;
+        }
+        assertEquals(51, n);
+    }
+
+    @Test
+    public void testOffHeapStore() {
+        OffHeapStore store = new OffHeapStore();
+        Table t = new Table("t", new String[] { "A", "B" }, store);
+        for (int i = 0; i < 5000; i += 1) {
+            t.add(new Row(new String[] { "" + i, "\u00e9t\u00e9" + i }));
+        }
+        assertEquals(5000, store.size());
+        assertEquals("\u00e9t\u00e91234", store.value(1234, 1));
+        assertEquals(new Row(new String[] { "4999", "\u00e9t\u00e94999" }),
+                     store.get(4999));
+        assertFalse(t.add(new Row(new String[] { "17", "\u00e9t\u00e917" })));
+        assertTrue(store.set(3, new Row(new String[] { "x", "y" })));
+        Row wide = new Row(new String[] { "4", "a long value" });
+        assertFalse(store.set(4, wide));
+        assertEquals("y", t.value(3, 1));
+        TableIterator it = t.tableIterator();
+        it.seek(4);
+        assertEquals("4", it.value(0));
+        int n = 0;
+        for (Row row : t) {
+            n += 1;
+        }
+        assertEquals(5000, n);
+        t.free();
+        assertEquals(0, store.size());
+    }
+
+    @Test
+    public void testPrimaryKey() {
+        Table t = new Table("t", new String[] { "A", "B", "C" });
+        t.setKey(new int[] { 0, 1 });
+        assertTrue(t.add(new Row(new String[] { "1", "x", "p" })));
+        assertTrue(t.add(new Row(new String[] { "1", "y", "p" })));
+        assertFalse(t.add(new Row(new String[] { "1", "x", "p" })));
+        try {
+            t.add(new Row(new String[] { "1", "x", "q" }));
+            fail("duplicate key accepted");
+        } catch (DBException e) {
+            assertEquals(2, t.size());
+        }
+        try {
+            t.update(1, new Row(new String[] { "1", "x", "q" }));
+            fail("duplicate key accepted");
+        } catch (DBException e) {
+            assertEquals("y", t.row(1).get(1));
+        }
+        assertTrue(t.update(1, new Row(new String[] { "2", "y", "p" })));
+        t.addDistinct(new Row(new String[] { "1", "y", "p" }));
+        assertEquals(3, t.size());
+        assertFalse(t.add(new Row(new String[] { "1", "y", "p" })));
+        t.delete(0);
+        assertTrue(t.add(new Row(new String[] { "1", "x", "q" })));
+        try {
+            t.setKey(new int[] { 2 });
+            fail("key added to a table with rows");
+        } catch (DBException e) {
+            assertEquals(2, t.key().length);
+        }
+    }
+
+    @Test
+    public void testCancellation() throws InterruptedException {
+        assertFalse(Cancellation.cancel());
+        Cancellation.begin();
+        assertTrue(Cancellation.cancel());
+        for (int k = 1; k < Cancellation.CHECK_ROWS; k += 1) {
+            Cancellation.poll();
+        }
+        try {
+            Cancellation.poll();
+            fail("cancelled statement not abandoned");
+        } catch (DBException e) {
+            assertEquals("statement cancelled", e.getMessage());
+        }
+        Cancellation.end();
+        assertFalse(Cancellation.cancel());
+
+        Cancellation.setTimeout(1);
+        try {
+            Cancellation.begin();
+            Cancellation.check();
+            Thread.sleep(5);
+            Cancellation.check();
+            fail("statement did not time out");
+        } catch (DBException e) {
+            assertEquals("statement timed out after 1 ms", e.getMessage());
+        } finally {
+            Cancellation.end();
+            Cancellation.setTimeout(0);
+        }
+    }
+
+    @Test
+    public void testSketches() {
+        HyperLogLog distinct = new HyperLogLog();
+        TDigest digest = new TDigest();
+        for (int k = 0; k < 200000; k += 1) {
+            distinct.add(Integer.toString(k % 50000));
+            digest.add((k * 7919) % 200000);
+        }
+        double error = 4 * HyperLogLog.standardError();
+        assertEquals(50000.0, distinct.estimate(), 50000 * error);
+        assertEquals(200000, digest.count());
+        assertEquals(100000.0, digest.quantile(0.5), 2000.0);
+        assertEquals(190000.0, digest.quantile(0.95), 1000.0);
+        assertEquals(0.0, digest.quantile(0), 0.0);
+        assertEquals(199999.0, digest.quantile(1), 0.0);
+        assertTrue(digest.rankError(0.5) < 0.02);
+    }
+
+    @Test
+    public void testSample() {
+        Table t = new Table("t", new String[] { "A" });
+        for (int k = 0; k < 10000; k += 1) {
+            t.add(new Row(new String[] { Integer.toString(k) }));
+        }
+        TableIterator it = t.tableIterator();
+        it.sample(0.1, new java.util.Random(42));
+        int n = 0, last = -1;
+        for (; it.hasRow(); it.next()) {
+            assertTrue(it.position() > last);
+            last = it.position();
+            n += 1;
+        }
+        assertEquals(1000.0, n, 120.0);
+        it.sample(0, new java.util.Random(42));
+        assertFalse(it.hasRow());
+        it.sample(1, null);
+        assertEquals(0, it.position());
+    }
+
+    @Test
+    public void testPartitioning() throws java.io.IOException {
+        java.io.File dir = java.nio.file.Files.createTempDirectory("parts")
+            .toFile();
+        String name = new java.io.File(dir, "t").getPath();
+        Table t = new Table(name, new String[] { "Year", "SID" });
+        t.partition(0, new String[] { "2003", "2006" });
+        Partitioning parts = t.partitioning();
+        assertEquals(0, parts.partitionOf("2002"));
+        assertEquals(1, parts.partitionOf("2003"));
+        assertEquals(2, parts.partitionOf("2009"));
+        for (int y = 2000; y < 2010; y += 1) {
+            t.add(new Row(new String[] { "" + y, "10" + y % 3 }));
+        }
+        assertEquals(10, t.size());
+        assertEquals(3, parts.partition(1).size());
+        assertEquals("2004", t.row(Partitioning.STRIDE + 1).get(0));
+        assertTrue(t.update(1, new Row(new String[] { "2007", "x" })));
+        assertEquals(5, parts.partition(2).size());
+        assertTrue(t.isDeleted(1));
+
+        TableIterator it = t.tableIterator();
+        Column year = new Column(t, "Year");
+        year.resolve(List.of(it));
+        it.restrict(List.of(new Condition(year, ">=", "2006")));
+        assertEquals(2, it.partitionsPruned());
+        int n = 0;
+        for (; it.hasRow(); it.next()) {
+            assertEquals(2, it.position() / Partitioning.STRIDE);
+            n += 1;
+        }
+        assertEquals(5, n);
+
+        t.writeTable(name);
+        parts.unload(0);
+        Table copy = Table.readTable(name);
+        assertFalse(copy.partitioning().isLoaded(2));
+        it = copy.tableIterator();
+        year = new Column(copy, "Year");
+        year.resolve(List.of(it));
+        it.restrict(List.of(new Condition(year, "<", "2003")));
+        for (n = 0; it.hasRow(); it.next()) {
+            n += 1;
+        }
+        assertEquals(2, n);
+        assertTrue(copy.partitioning().isLoaded(0));
+        assertFalse(copy.partitioning().isLoaded(1));
+        assertEquals(10, copy.size());
+        for (java.io.File file : dir.listFiles()) {
+            file.delete();
+        }
+        dir.delete();
+    }
+
+    @Test
+    public void testLikePattern() {
+        LikePattern p = new LikePattern("Ch%");
+        assertEquals("Ch", p.prefix());
+        assertEquals("Ci", p.upperBound());
+        assertTrue(p.matches("Chan"));
+        assertTrue(p.matches("Ch"));
+        assertFalse(p.matches("chan"));
+        p = new LikePattern("_a%e%s");
+        assertEquals("", p.prefix());
+        assertNull(p.upperBound());
+        assertTrue(p.matches("James"));
+        assertTrue(p.matches("Yates"));
+        assertFalse(p.matches("Jane"));
+        assertFalse(p.matches("Jess"));
+        p = new LikePattern("a%a");
+        assertTrue(p.matches("aa"));
+        assertFalse(p.matches("a"));
+        p = new LikePattern("x_z");
+        assertTrue(p.matches("xyz"));
+        assertFalse(p.matches("xyzz"));
+    }
+
+    @Test
+    public void testPrefixIndex() {
+        Table t = new Table("t", new String[] { "Name" });
+        String[] names = { "Knowles", "Chan", "Xavier", "Chen", "Ch" };
+        for (String name : names) {
+            t.add(new Row(new String[] { name }));
+        }
+        int[] rows = t.rowsWithPrefix(0, "Ch");
+        assertEquals(3, rows.length);
+        assertEquals(1, rows[0]);
+        assertEquals(4, rows[2]);
+        t.add(new Row(new String[] { "Chu" }));
+        t.delete(3);
+        t.update(0, new Row(new String[] { "Chaucer" }));
+        rows = t.rowsWithPrefix(0, "Ch");
+        assertEquals(4, rows.length);
+        assertEquals(0, rows[0]);
+        assertEquals(5, rows[3]);
+        assertEquals(0, t.rowsWithPrefix(0, "Z").length);
+
+        TableIterator it = t.tableIterator();
+        Column name = new Column(t, "Name");
+        name.resolve(List.of(it));
+        it.restrict(List.of(new Condition(name, "like", "Cha%")));
+        int n = 0;
+        for (; it.hasRow(); it.next()) {
+            n += 1;
+        }
+        assertEquals(2, n);
+        assertTrue(it.indexed());
+    }
+
+    @Test
+    public void testPipeline() {
+        Pipeline pipeline = new Pipeline(new java.util.Scanner(
+            "load t; /* c */\nselect A from t where A = 'x\nquit;"));
+        Tokenizer input = new Tokenizer(pipeline);
+        String[] expected = { "load", "t", ";", "select", "A", "from", "t",
+                              "where", "A", "=" };
+        for (String token : expected) {
+            assertEquals(token, input.next());
+        }
+        try {
+            input.next();
+            fail("unterminated literal accepted");
+        } catch (DBException e) {
+            assertEquals("unterminated literal constant", e.getMessage());
+        }
+        assertEquals("quit", input.next());
+        assertEquals(";", input.next());
+        input.flush();
+        assertEquals(0, input.position());
+        assertEquals("*EOF*", input.next());
+        assertEquals("*EOF*", input.next());
+    }
+
+    @Test
+    public void testLazyStore() throws java.io.IOException {
+        java.io.File file = java.io.File.createTempFile("lazy", ".db");
+        String name = file.getPath().replaceAll("\\.db$", "");
+        java.nio.file.Files.writeString(
+            file.toPath(), "A,B,C\r\n1,x,p\r\n2,,q\r\n3,z,r\n");
+        Table t = Table.readLazyTable(name);
+        LazyStore store = (LazyStore) t.store();
+        assertEquals(3, t.size());
+        assertEquals(0, store.columnsRead());
+        assertEquals("", t.value(1, 1));
+        assertEquals("z", t.value(2, 1));
+        assertEquals(1, store.columnsRead());
+        assertTrue(store.spill());
+        assertEquals(0, store.columnsRead());
+        assertEquals("r", t.value(2, 2));
+        assertEquals(new Row(new String[] { "1", "x", "p" }), t.row(0));
+        assertEquals(3, store.columnsRead());
+        t.add(new Row(new String[] { "4", "w", "s" }));
+        assertFalse(store.spill());
+        assertEquals("w", t.value(3, 1));
+
+        Table stored = new Table("stored", new String[] { "A", "B" });
+        stored.add(new Row(new String[] { "x", "y" }));
+        stored.add(new Row(new String[] { "", "z" }));
+        stored.writeTable(name);
+        t = Table.readLazyTable(name);
+        assertEquals(2, t.size());
+        assertEquals("y", t.value(0, 1));
+        assertEquals("", t.value(1, 0));
+        assertEquals(new Row(new String[] { "", "z" }), t.row(1));
+
+        java.nio.file.Files.writeString(file.toPath(), "A,B\n1,2\n3\n");
+        try {
+            Table.readLazyTable(name);
+            fail("short row accepted");
+        } catch (DBException e) {
+            assertEquals("#inputs in row does not match #columns",
+                         e.getMessage());
+        }
+        java.nio.file.Files.writeString(file.toPath(), "A,B\n1,2\n");
+        t = Table.readLazyTable(name);
+        java.nio.file.Files.writeString(file.toPath(), "A,B\n1,2\n3,4\n");
+        try {
+            t.value(0, 0);
+            fail("read a changed file");
+        } catch (DBException e) {
+            assertTrue(e.getMessage().endsWith("changed since it was loaded"));
+        }
+        file.delete();
+    }
+
+    @Test
+    public void testMergeJoin() {
+        Table a = new Table("a", new String[] { "X" }),
+            b = new Table("b", new String[] { "K", "Y" });
+        for (int i = 0; i < 20; i += 1) {
+            a.add(new Row(new String[] { String.format("%02d", 2 * i) }));
+        }
+        for (int i = 0; i < 30; i += 1) {
+            b.add(new Row(new String[] { Integer.toString(i),
+                                         String.format("%02d", i * 7 % 40)
+                }));
+        }
+        assertTrue(a.isSortedOn(0));
+        assertFalse(b.isSortedOn(1));
+        int[] rows = b.rowsInOrder(1);
+        assertEquals(30, rows.length);
+        for (int r = 1; r < rows.length; r += 1) {
+            assertTrue(b.value(rows[r - 1], 1).compareTo(b.value(rows[r], 1))
+                       <= 0);
+        }
+        for (String relation : new String[] { "=", "<", "<=", ">", ">=" }) {
+            TableIterator it1 = a.tableIterator(), it2 = b.tableIterator();
+            Column x = new Column(a, "X"), y = new Column(b, "Y");
+            x.resolve(List.of(it1, it2));
+            y.resolve(List.of(it1, it2));
+            Condition join = new Condition(y, relation, x);
+            int expected = 0;
+            for (; it1.hasRow(); it1.next()) {
+                for (it2.reset(); it2.hasRow(); it2.next()) {
+                    expected += join.test() ? 1 : 0;
+                }
+            }
+            it1.reset();
+            it2.reset();
+            MergeJoin merge = MergeJoin.plan(List.of(join), it1, it2);
+            assertNotNull(merge);
+            int[] n = { 0 };
+            assertTrue(merge.run(() -> {
+                n[0] += join.test() ? 1 : 0;
+                return true;
+            }));
+            assertEquals(expected, n[0]);
+        }
+        ZoneMap.setDefaultBlockRows(4);
+        a.rebuildZoneMap();
+        ZoneMap.setDefaultBlockRows(ZoneMap.DEFAULT_BLOCK_ROWS);
+        TableIterator it = a.tableIterator();
+        Column x = new Column(a, "X");
+        x.resolve(List.of(it));
+        it.restrict(List.of(new Condition(x, ">=", "00")));
+        it.next();
+        int mark = it.mark();
+        for (int k = 0; k < 3; k += 1) {
+            it.restore(mark);
+            while (it.hasRow()) {
+                it.next();
+            }
+        }
+        assertEquals(5, it.blocksRead());
+        assertEquals(0, it.blocksSkipped());
+    }
+
+    @Test
+    public void testHashJoin() {
+        Table a = new Table("a", new String[] { "K", "X" }),
+            b = new Table("b", new String[] { "Y" });
+        for (int i = 0; i < 40; i += 1) {
+            a.add(new Row(new String[] { Integer.toString(i),
+                                         Integer.toString(i * 7 % 13) }));
+        }
+        for (int i = 20; i > 0; i -= 1) {
+            b.add(new Row(new String[] { Integer.toString(i) }));
+        }
+        String[] expected = {
+            "hash join on a.X = b.Y, building b (20 rows)",
+            "hash join on a.X = b.Y, building b (20 rows), switched to"
+            + " grace hash join of 14 partitions",
+            "hash join on a.X = b.Y, building b (20 rows)",
+            "hash join on a.X = b.Y, building b (1 rows), switched to"
+            + " index nested loop",
+        };
+        for (int trial = 0; trial < expected.length; trial += 1) {
+            if (trial == 1) {
+                SetOperation.setSpillRows(3);
+            } else if (trial == 2) {
+                SetOperation.setSpillRows(SetOperation.DEFAULT_SPILL_ROWS);
+                a.rowsWithPrefix(1, "1");
+            }
+            TableIterator it1 = a.tableIterator(), it2 = b.tableIterator();
+            Column x = new Column(a, "X"), y = new Column(b, "Y");
+            x.resolve(List.of(it1, it2));
+            y.resolve(List.of(it1, it2));
+            List<Condition> conditions = new ArrayList<Condition>();
+            conditions.add(new Condition(x, "=", y));
+            if (trial == 3) {
+                conditions.add(new Condition(y, "=", "4"));
+            }
+            it1.restrict(conditions);
+            it2.restrict(conditions);
+            HashJoin hash = HashJoin.plan(conditions, it1, it2);
+            assertNotNull(hash);
+            int[] n = { 0 };
+            Stats.begin("select");
+            assertTrue(hash.run(() -> {
+                n[0] += Condition.test(conditions) ? 1 : 0;
+                return true;
+            }));
+            Stats.end();
+            assertEquals(trial == 3 ? 3 : 36, n[0]);
+            assertEquals(expected[trial], hash.toString());
+            assertEquals(trial == 1 ? 1 : 0,
+                         Stats.statement(Stats.GRACE_JOINS));
+            assertEquals(trial == 1 ? 14 : 0,
+                         Stats.statement(Stats.GRACE_PARTITIONS));
+            assertEquals(trial == 3 ? 1 : 0,
+                         Stats.statement(Stats.INDEX_JOINS));
+        }
+    }
+
+    /* Run the unit tests in this file. */
+    public static void main(String... args) {
+        System.exit(textui.runClasses(UnitTest.class));
+    }
+}
@@ -1,28 +1,101 @@
-package db61b;
-
-import java.util.regex.Pattern;
-
-/** Various utilities used by other sources.
- *  @author P. N. Hilfinger
- */
-class Utils {
-
-    /** Return a pattern created by formatting S with arguments ARGS (as for
-     *  String.format). */
-    static Pattern mkPatn(String s, Object ... args) {
-        s = s.replace(" *", "\\s*").replace(" ", "\\s+");
-        return Pattern.compile(String.format(s, args));
-    }
-
-    /** Shorthand that returns String.format(S, ARGS). */
-    static String format(String s, Object ... args) {
-        return String.format(s, args);
-    }
-
-    /** Return a DBException whose message is formed from S and ARGS as for
-     *  String.format. */
-    static DBException error(String s, Object ... args) {
-        return new DBException(format(s, args));
-    }
-
-}
+package db61b;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.regex.Pattern;
+
+/** Various utilities used by other sources.
+ *  @author P. N. Hilfinger
+ */
+class Utils {
+
+    /** Return a pattern created by formatting S with arguments ARGS (as for
+     *  String.format). */
+    static Pattern mkPatn(String s, Object ... args) {
+        s = s.replace(" *", "\\s*").replace(" ", "\\s+");
+        return Pattern.compile(String.format(s, args));
+    }
+
+    /** Shorthand that returns String.format(S, ARGS). */
+    static String format(String s, Object ... args) {
+        return String.format(s, args);
+    }
+
+    /** Return a DBException whose message is formed from S and ARGS as for
+     *  String.format. */
+    static DBException error(String s, Object ... args) {
+        return new DBException(format(s, args));
+    }
+
+    /** Rename the file FROM to TO, replacing TO, atomically if the file
+     *  system allows.  A failure deletes FROM and causes a
+     *  DBException. */
+    static void replaceFile(File from, File to) {
+        try {
+            try {
+                Files.move(from.toPath(), to.toPath(),
+                           StandardCopyOption.ATOMIC_MOVE,
+                           StandardCopyOption.REPLACE_EXISTING);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(from.toPath(), to.toPath(),
+                           StandardCopyOption.REPLACE_EXISTING);
+            }
+        } catch (IOException e) {
+            from.delete();
+            throw error("could not replace %s", to);
+        }
+    }
+
+    /** Run TASKS concurrently, on at most one thread per processor, and
+     *  return their results in the same order.  Each element of the
+     *  result is null if its task failed.  If any task failed, FAILURES
+     *  (if not null) receives the DBException of the first to fail, in
+     *  task order; other exceptions are converted to DBExceptions. */
+    static <T> List<T> inParallel(List<Callable<T>> tasks,
+                                  List<DBException> failures) {
+        List<T> results = new ArrayList<T>();
+        if (tasks.isEmpty()) {
+            return results;
+        }
+        int threads = Math.min(tasks.size(),
+                               Runtime.getRuntime().availableProcessors());
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<T>> futures = new ArrayList<Future<T>>();
+            for (Callable<T> task : tasks) {
+                futures.add(pool.submit(task));
+            }
+            for (Future<T> future : futures) {
+                T result = null;
+                try {
+                    result = future.get();
+                } catch (ExecutionException e) {
+                    if (failures != null && failures.isEmpty()) {
+                        failures.add(e.getCause() instanceof DBException
+                                     ? (DBException) e.getCause()
+                                     : error("%s", e.getCause()));
+                    }
+                } catch (InterruptedException e) {
+                    if (failures != null && failures.isEmpty()) {
+                        failures.add(error("interrupted"));
+                    }
+                }
+                results.add(result);
+            }
+        } finally {
+            pool.shutdown();
+        }
+        return results;
+    }
+
+}
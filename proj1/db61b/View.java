@@ -0,0 +1,114 @@
+package db61b;
+
+import java.util.List;
+
+import static db61b.Utils.*;
+
+/** A materialized view: a Table holding the result of a select clause
+ *  that is kept up to date as rows are added to the tables it selects
+ *  from.
+ *
+ *  A View keeps the Columns, TableIterators, and Conditions of its
+ *  select clause.  When a row is added to one of its base tables, it
+ *  positions that table's iterator at the new row and, for a join,
+ *  scans the other table, adding to its result whatever rows the new
+ *  row contributes.  Only the new row is examined, so the cost of an
+ *  insertion does not depend on the size of the view.  Rows deleted or
+ *  updated in base tables are reflected only when the view is refreshed
+ *  (recomputed from its definition).
+ *  @author Qi Liu
+ */
+class View {
+
+    /** Return the text of my defining select clause. */
+    String definition() {
+        return _definition;
+    }
+
+    /** Return the table holding my rows. */
+    Table table() {
+        return _table;
+    }
+
+    /** Define me by the select clause whose text is DEFINITION, whose
+     *  result is TABLE, and which selects COLUMNS from the rows of
+     *  ITERATORS that satisfy CONDITIONS, and start following additions
+     *  to the tables of ITERATORS.  All Columns must be resolved against
+     *  ITERATORS. */
+    void define(String definition, Table table, List<Column> columns,
+                List<TableIterator> iterators, List<Condition> conditions) {
+        for (Condition condition : conditions) {
+            if (condition.isMembership()) {
+                throw error("materialized views cannot use subqueries");
+            }
+        }
+        _definition = definition;
+        _table = table;
+        _columns = columns;
+        _iterators = iterators;
+        _conditions = conditions;
+        for (TableIterator it : iterators) {
+            it.table().addView(this);
+        }
+    }
+
+    /** Return true iff I select from TABLE. */
+    boolean uses(Table table) {
+        for (TableIterator it : _iterators) {
+            if (it.table() == table) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /** Stop following additions to my base tables. */
+    void detach() {
+        if (_iterators != null) {
+            for (TableIterator it : _iterators) {
+                it.table().removeView(this);
+            }
+        }
+    }
+
+    /** Add the rows contributed by row #K of BASE, which has just been
+     *  added to it. */
+    void rowAdded(Table base, int k) {
+        for (int i = 0; i < _iterators.size(); i += 1) {
+            TableIterator it = _iterators.get(i);
+            if (it.table() != base) {
+                continue;
+            }
+            it.seek(k);
+            if (_iterators.size() == 1) {
+                emit();
+            } else {
+                TableIterator other = _iterators.get(1 - i);
+                for (other.reset(); other.hasRow(); other.next()) {
+                    emit();
+                }
+            }
+        }
+    }
+
+    /** Add a row formed from my columns to my table if the current rows
+     *  of my iterators satisfy my conditions. */
+    private void emit() {
+        if (Condition.test(_conditions)) {
+            Stats.count(Stats.ROWS_EMITTED);
+            _table.add(new Row(_columns));
+        }
+    }
+
+    /** Text of my defining select clause. */
+    private String _definition;
+    /** My rows. */
+    private Table _table;
+    /** The selected columns. */
+    private List<Column> _columns;
+    /** Iterators over my base tables, to which my columns are
+     *  resolved. */
+    private List<TableIterator> _iterators;
+    /** Conditions on the rows of my base tables. */
+    private List<Condition> _conditions;
+}
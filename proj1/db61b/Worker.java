@@ -0,0 +1,220 @@
+package db61b;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Scanner;
+import java.util.concurrent.TimeUnit;
+
+import static db61b.Utils.*;
+
+/** A connection to a worker process: a db61b program run with the
+ *  option --worker on this machine, which executes the statements sent
+ *  to it over a socket on the loopback interface.  Each worker runs an
+ *  ordinary CommandInterpreter, whose output goes back over the socket,
+ *  and ends its output for each statement with a line holding only
+ *  END.  Workers hold the parts of distributed tables (see Cluster)
+ *  and serve as read replicas (see Replication).
+ *  @author Qi Liu
+ */
+class Worker {
+
+    /** Line ending the output of a worker for each statement. */
+    static final String END = "\u0004";
+
+    /** Serve as a worker: print the port on which to connect on the
+     *  standard output, accept one connection there on the loopback
+     *  interface (from the process that started me), and execute the
+     *  statements sent over it until exit or quit, or until it is
+     *  closed. */
+    static void serve() throws IOException {
+        Socket socket;
+        try (ServerSocket server =
+                 new ServerSocket(0, 1, InetAddress.getLoopbackAddress())) {
+            System.out.println("port " + server.getLocalPort());
+            System.out.flush();
+            socket = server.accept();
+        }
+        PrintStream out =
+            new PrintStream(new BufferedOutputStream(socket.getOutputStream()),
+                            false, StandardCharsets.UTF_8);
+        System.setOut(out);
+        CommandInterpreter interpreter =
+            new CommandInterpreter(new HashMap<String, Table>(),
+                                   new Scanner(socket.getInputStream(),
+                                               StandardCharsets.UTF_8),
+                                   null);
+        boolean more = true;
+        while (more) {
+            try {
+                more = interpreter.statement();
+            } catch (DBException e) {
+                out.printf("Error: %s%n", e.getMessage());
+                interpreter.skipCommand();
+            }
+            out.println(END);
+            out.flush();
+        }
+        socket.close();
+    }
+
+    /** Start worker #NUMBER and connect to it. */
+    Worker(int number) {
+        _number = number;
+        String java =
+            System.getProperty("java.home") + File.separator + "bin"
+            + File.separator + "java";
+        ProcessBuilder builder =
+            new ProcessBuilder(java, "-cp",
+                               System.getProperty("java.class.path"),
+                               "db61b.Main", "--worker");
+        builder.redirectError(ProcessBuilder.Redirect.INHERIT);
+        try {
+            _process = builder.start();
+            String line = new BufferedReader(new InputStreamReader(
+                _process.getInputStream())).readLine();
+            if (line == null || !line.startsWith("port ")) {
+                throw new IOException("no port");
+            }
+            _socket = new Socket(InetAddress.getLoopbackAddress(),
+                                 Integer.parseInt(line.substring(5)));
+            _out = new PrintStream(new BufferedOutputStream(
+                _socket.getOutputStream()), false, StandardCharsets.UTF_8);
+            _in = new BufferedReader(new InputStreamReader(
+                _socket.getInputStream(), StandardCharsets.UTF_8));
+        } catch (IOException | NumberFormatException e) {
+            stop();
+            throw error("could not start worker %d", number);
+        }
+    }
+
+    /** Send STATEMENTS to me, and return the lines I print in reply,
+     *  other than the ends of replies.  If I report an error, throw
+     *  a DBException after reading all the replies. */
+    synchronized List<String> run(List<String> statements) {
+        for (String statement : statements) {
+            _out.println(statement);
+        }
+        _out.flush();
+        List<String> lines = new ArrayList<String>();
+        String failure = null;
+        try {
+            for (int ended = 0; ended < statements.size(); ) {
+                String line = _in.readLine();
+                if (line == null) {
+                    throw error("lost worker %d", _number);
+                } else if (line.equals(END)) {
+                    ended += 1;
+                } else if (line.startsWith("Error: ")) {
+                    if (failure == null) {
+                        failure = line.substring(7);
+                    }
+                } else {
+                    lines.add(line);
+                }
+            }
+        } catch (IOException e) {
+            throw error("lost worker %d", _number);
+        }
+        if (failure != null) {
+            throw error("worker %d: %s", _number, failure);
+        }
+        return lines;
+    }
+
+    /** Ask me to exit, and wait briefly for me to do so before
+     *  ending my process by force. */
+    void stop() {
+        try {
+            if (_out != null) {
+                _out.println("quit;");
+                _out.flush();
+            }
+            if (_socket != null) {
+                _socket.close();
+            }
+            if (_process != null
+                && !_process.waitFor(5, TimeUnit.SECONDS)) {
+                _process.destroyForcibly();
+            }
+        } catch (IOException e) {
+            _process.destroyForcibly();
+        } catch (InterruptedException e) {
+            _process.destroyForcibly();
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /** Return the rows printed by a fetch statement (see
+     *  CommandInterpreter.fetchStatement) among LINES. */
+    static List<Row> rows(List<String> lines) {
+        List<Row> rows = new ArrayList<Row>();
+        for (String line : lines) {
+            if (line.startsWith("|")) {
+                rows.add(new Row(line.substring(1).split(",", -1)));
+            }
+        }
+        return rows;
+    }
+
+    /** Return the text of a statement creating an empty table NAME with
+     *  the columns, primary key, and partitioning of TABLE. */
+    static String create(String name, Table table) {
+        String[] titles = new String[table.numColumns()];
+        for (int k = 0; k < titles.length; k += 1) {
+            titles[k] = table.title(k);
+        }
+        String columns = String.join(", ", titles);
+        if (table.key() != null) {
+            String[] key = new String[table.key().length];
+            for (int i = 0; i < key.length; i += 1) {
+                key[i] = titles[table.key()[i]];
+            }
+            columns += ", primary key (" + String.join(", ", key) + ")";
+        }
+        Partitioning partitioning = table.partitioning();
+        if (partitioning == null) {
+            return String.format("create table %s (%s);", name, columns);
+        }
+        return String.format("create table %s (%s) partition by range (%s)"
+                             + " ('%s');", name, columns,
+                             titles[partitioning.column()],
+                             String.join("', '", partitioning.bounds()));
+    }
+
+    /** Return the text of a statement inserting ROW into TABLE. */
+    static String insert(String table, Row row) {
+        StringBuilder statement =
+            new StringBuilder("insert into ").append(table).append(" values ");
+        for (int k = 0; k < row.size(); k += 1) {
+            if (row.get(k).contains("'")) {
+                throw error("cannot send value containing a quote: %s",
+                            row.get(k));
+            }
+            statement.append(k == 0 ? "'" : ", '").append(row.get(k))
+                .append("'");
+        }
+        return statement.append(";").toString();
+    }
+
+    /** My number. */
+    private final int _number;
+    /** My process. */
+    private Process _process;
+    /** Connection to my process. */
+    private Socket _socket;
+    /** Output to my process. */
+    private PrintStream _out;
+    /** Input from my process. */
+    private BufferedReader _in;
+}
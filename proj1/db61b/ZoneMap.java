@@ -0,0 +1,192 @@
+package db61b;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.ArrayList;
+
+import static db61b.Utils.*;
+
+/** A summary of the rows of a Table, divided into consecutive blocks of
+ *  a fixed number of rows, giving the least and greatest value of each
+ *  column in each block.  A scan can skip any block whose range of
+ *  values in some column cannot satisfy a Condition on that column.
+ *
+ *  A ZoneMap is stored in a file as comma-separated lines, like a
+ *  table: the first line gives the block size and number of rows, and
+ *  each subsequent line gives the minimum and maximum of each column
+ *  in one block.
+ *  @author Qi Liu
+ */
+class ZoneMap {
+
+    /** Default number of rows in each block of a new ZoneMap. */
+    static final int DEFAULT_BLOCK_ROWS = 1024;
+
+    /** An empty ZoneMap for rows of NUMCOLUMNS columns, divided into
+     *  blocks of BLOCKROWS rows. */
+    ZoneMap(int numColumns, int blockRows) {
+        _numColumns = numColumns;
+        _blockRows = blockRows;
+        _mins = new ArrayList<String[]>();
+        _maxs = new ArrayList<String[]>();
+    }
+
+    /** A copy of ZONES that its later changes do not affect. */
+    ZoneMap(ZoneMap zones) {
+        this(zones._numColumns, zones._blockRows);
+        for (int b = 0; b < zones.blocks(); b += 1) {
+            _mins.add(zones._mins.get(b).clone());
+            _maxs.add(zones._maxs.get(b).clone());
+        }
+        _rows = zones._rows;
+    }
+
+    /** Return an estimate of the memory I take, in bytes, not counting
+     *  the values, which are shared with the rows they came from. */
+    long bytes() {
+        return 40 + 2 * blocks() * (4 + Row.align(16 + 4L * _numColumns));
+    }
+
+    /** Return the number of rows per block used for new ZoneMaps. */
+    static int defaultBlockRows() {
+        return _defaultBlockRows;
+    }
+
+    /** Set the number of rows per block used for new ZoneMaps to
+     *  BLOCKROWS. */
+    static void setDefaultBlockRows(int blockRows) {
+        if (blockRows < 1) {
+            throw error("blocks must hold at least one row");
+        }
+        _defaultBlockRows = blockRows;
+    }
+
+    /** Return the number of rows in each of my blocks. */
+    int blockRows() {
+        return _blockRows;
+    }
+
+    /** Return the number of my blocks. */
+    int blocks() {
+        return _mins.size();
+    }
+
+    /** Return the number of rows I summarize. */
+    int rows() {
+        return _rows;
+    }
+
+    /** Return the least value of column COL in block #BLOCK. */
+    String min(int block, int col) {
+        return _mins.get(block)[col];
+    }
+
+    /** Return the greatest value of column COL in block #BLOCK. */
+    String max(int block, int col) {
+        return _maxs.get(block)[col];
+    }
+
+    /** Include ROW, the next row of my table, in my summary. */
+    void add(Row row) {
+        if (_rows % _blockRows == 0) {
+            String[] mins = new String[_numColumns];
+            String[] maxs = new String[_numColumns];
+            for (int k = 0; k < _numColumns; k += 1) {
+                mins[k] = maxs[k] = row.get(k);
+            }
+            _mins.add(mins);
+            _maxs.add(maxs);
+        } else {
+            widen(_rows, row);
+        }
+        _rows += 1;
+    }
+
+    /** Widen the ranges of the block holding row #K, if needed, to
+     *  include the values in ROW. */
+    void widen(int k, Row row) {
+        String[] mins = _mins.get(k / _blockRows);
+        String[] maxs = _maxs.get(k / _blockRows);
+        for (int c = 0; c < _numColumns; c += 1) {
+            String value = row.get(c);
+            if (value.compareTo(mins[c]) < 0) {
+                mins[c] = value;
+            } else if (value.compareTo(maxs[c]) > 0) {
+                maxs[c] = value;
+            }
+        }
+    }
+
+    /** Write me to the file named FILENAME. */
+    void write(String fileName) {
+        PrintStream output;
+        output = null;
+        try {
+            output = new PrintStream(fileName);
+            output.println(_blockRows + "," + _rows + ",");
+            for (int b = 0; b < blocks(); b += 1) {
+                for (int k = 0; k < _numColumns; k += 1) {
+                    output.print(min(b, k) + "," + max(b, k) + ",");
+                }
+                output.println();
+            }
+        } catch (IOException e) {
+            throw error("trouble writing to %s", fileName);
+        } finally {
+            if (output != null) {
+                output.close();
+            }
+        }
+    }
+
+    /** Return the ZoneMap for rows of NUMCOLUMNS columns in the file
+     *  FILENAME, or null if there is no such file, it is older than the
+     *  file SOURCE, or it is not a valid ZoneMap. */
+    static ZoneMap read(String fileName, int numColumns, File source) {
+        File file = new File(fileName);
+        if (!file.isFile() || file.lastModified() < source.lastModified()) {
+            return null;
+        }
+        try (BufferedReader input = new BufferedReader(new FileReader(file))) {
+            String[] header = input.readLine().split(",");
+            ZoneMap zones = new ZoneMap(numColumns,
+                                        Integer.parseInt(header[0]));
+            zones._rows = Integer.parseInt(header[1]);
+            for (String line = input.readLine(); line != null;
+                 line = input.readLine()) {
+                String[] values = line.split(",");
+                if (values.length != 2 * numColumns) {
+                    return null;
+                }
+                String[] mins = new String[numColumns];
+                String[] maxs = new String[numColumns];
+                for (int k = 0; k < numColumns; k += 1) {
+                    mins[k] = values[2 * k];
+                    maxs[k] = values[2 * k + 1];
+                }
+                zones._mins.add(mins);
+                zones._maxs.add(maxs);
+            }
+            int blocks = (zones._rows + zones._blockRows - 1)
+                / zones._blockRows;
+            return zones.blocks() == blocks ? zones : null;
+        } catch (IOException | RuntimeException e) {
+            return null;
+        }
+    }
+
+    /** Number of rows per block used for new ZoneMaps. */
+    private static int _defaultBlockRows = DEFAULT_BLOCK_ROWS;
+
+    /** Number of columns in each row. */
+    private final int _numColumns;
+    /** Number of rows in each block. */
+    private final int _blockRows;
+    /** Number of rows summarized. */
+    private int _rows;
+    /** Least and greatest values of each column, by block. */
+    private ArrayList<String[]> _mins, _maxs;
+}